@@ -0,0 +1,229 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** Runs many Enigma jobs, each a (configuration, input, output) triple
+ *  handled exactly as "java enigma.Main CONFIG INPUT OUTPUT" would handle
+ *  it, in a single JVM.  Each distinct configuration file is parsed once,
+ *  and jobs run concurrently on a fixed number of threads.
+ *  @author William Tai
+ */
+public final class Batch {
+
+    /** Run the jobs specified by ARGS, which has one of the forms
+     *      [--threads=N] MANIFEST
+     *      [--threads=N] --glob DIR/PATTERN OUTDIR
+     *  Each non-blank line of MANIFEST not starting with '#' holds a
+     *  configuration file, an input file and an output file, separated by
+     *  whitespace.  With --glob, each input file in DIR whose name matches
+     *  PATTERN is a job: like testing/test-correct, F.inp uses F.conf if
+     *  it exists and DIR/default.conf otherwise, and its output goes to
+     *  OUTDIR/F.out.  N (default: the number of processors) bounds the
+     *  number of concurrent jobs.  Prints one status line per job, in
+     *  order: "INPUT: OK" or "INPUT: Error: MESSAGE".  Exits normally if
+     *  every job succeeds; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (new Batch(args).run(System.out)) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Check ARGS and collect the jobs they describe (see main). */
+    Batch(String[] args) {
+        ArrayList<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                try {
+                    _threads = Integer.parseInt(arg.substring(
+                            arg.indexOf('=') + 1));
+                } catch (NumberFormatException excp) {
+                    throw error("bad thread count: %s", arg);
+                }
+                if (_threads <= 0) {
+                    throw error("bad thread count: %s", arg);
+                }
+            } else {
+                rest.add(arg);
+            }
+        }
+        if (rest.size() == 1) {
+            readManifest(Paths.get(rest.get(0)));
+        } else if (rest.size() == 3 && rest.get(0).equals("--glob")) {
+            globJobs(rest.get(1), Paths.get(rest.get(2)));
+        } else {
+            throw error("Usage: java enigma.Batch [--threads=N] "
+                        + "(MANIFEST | --glob DIR/PATTERN OUTDIR)");
+        }
+    }
+
+    /** Add the jobs listed in MANIFEST. */
+    private void readManifest(Path manifest) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest);
+        } catch (IOException excp) {
+            throw error("could not open %s", manifest);
+        }
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] fields = trimmed.split("\\s+");
+            if (fields.length != 3) {
+                throw error("bad manifest line: %s", line);
+            }
+            _jobs.add(new String[] {fields[0], fields[1], fields[2]});
+        }
+    }
+
+    /** Add a job for each file matching PATTERN (DIR/GLOB), writing its
+     *  output into OUTDIR. */
+    private void globJobs(String pattern, Path outDir) {
+        Path glob = Paths.get(pattern);
+        Path dir = glob.getParent() == null ? Paths.get(".")
+            : glob.getParent();
+        ArrayList<Path> inputs = new ArrayList<>();
+        String names = glob.getFileName().toString();
+        try (DirectoryStream<Path> files =
+                 Files.newDirectoryStream(dir, names)) {
+            for (Path file : files) {
+                inputs.add(file);
+            }
+        } catch (IOException excp) {
+            throw error("could not list %s", dir);
+        }
+        Collections.sort(inputs);
+        for (Path input : inputs) {
+            String name = input.getFileName().toString();
+            String base = name.endsWith(".inp")
+                ? name.substring(0, name.length() - ".inp".length()) : name;
+            Path config = dir.resolve(base + ".conf");
+            if (!Files.exists(config)) {
+                config = dir.resolve("default.conf");
+            }
+            _jobs.add(new String[] {config.toString(), input.toString(),
+                                    outDir.resolve(base + ".out")
+                                    .toString()});
+        }
+    }
+
+    /** Run all jobs, reporting their status on STATUS, and return true
+     *  iff all succeeded. */
+    boolean run(PrintStream status) {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            ArrayList<Future<String>> results = new ArrayList<>();
+            for (String[] job : _jobs) {
+                results.add(pool.submit(() -> runJob(job)));
+            }
+            boolean ok = true;
+            for (int i = 0; i < results.size(); i += 1) {
+                String error = result(results.get(i));
+                ok &= error == null;
+                status.printf("%s: %s%n", _jobs.get(i)[1],
+                              error == null ? "OK" : "Error: " + error);
+            }
+            return ok;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Return the value of RESULT, waiting for it if necessary.  A job
+     *  reports Enigma errors in its value, so anything it throws is a bug,
+     *  and is rethrown, ending the batch as it would end Main. */
+    private static String result(Future<String> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    /** Run JOB, a (configuration, input, output) triple, and return null if
+     *  it succeeds, or else its error message.  As in Main, the output is
+     *  not created unless the configuration and input can be read. */
+    private String runJob(String[] job) {
+        try {
+            Configuration config =
+                _configs.computeIfAbsent(job[0], Configuration::read);
+            try (LineInput input = LineInput.open(job[1], 0, 0)) {
+                convert(config, input, job[2]);
+            } catch (IOException excp) {
+                throw error("could not close %s", job[1]);
+            }
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /** Apply CONFIG to the messages in INPUT, writing the results to the
+     *  file named OUTPUT. */
+    private static void convert(Configuration config, LineInput input,
+                                String output) {
+        FileChannel out;
+        try {
+            out = FileChannel.open(Paths.get(output), CREATE, WRITE,
+                                   TRUNCATE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not open %s", output);
+        }
+        PrintStream stream = new PrintStream(
+            new BufferedOutputStream(Channels.newOutputStream(out),
+                                     BUFFER_SIZE));
+        try {
+            new Main(config, input, stream).process();
+        } finally {
+            stream.close();
+        }
+        if (stream.checkError()) {
+            throw error("error writing %s", output);
+        }
+    }
+
+    /** Output buffer size per job. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of jobs to run at once. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /** The jobs: (configuration, input, output) file names. */
+    private final ArrayList<String[]> _jobs = new ArrayList<>();
+
+    /** Parsed configurations, by file name. */
+    private final ConcurrentHashMap<String, Configuration> _configs =
+        new ConcurrentHashMap<>();
+}
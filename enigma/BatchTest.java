@@ -0,0 +1,130 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the batch entry point against Main.
+ *  @author William Tai
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Directory of the correct-output test inputs. */
+    private static final String DIR = project("testing/correct");
+
+    /** Return the test inputs in DIR, in order. */
+    private static List<String> inputs() {
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : Paths.get(DIR).toFile().list()) {
+            if (name.endsWith(".inp")) {
+                result.add(DIR + "/" + name);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Return the status line Batch should print for INPUT, after
+     *  running Main on CONFIG and INPUT into a new file whose contents go
+     *  into EXPECTED. */
+    private static String mainStatus(String config, String input,
+                                     List<String> expected)
+        throws IOException {
+        Path output = tempFile();
+        String status = input + ": OK";
+        try {
+            new Main(new String[] {config, input, output.toString()})
+                .process();
+        } catch (EnigmaException excp) {
+            status = input + ": Error: " + excp.getMessage();
+        }
+        expected.add(Files.readString(output));
+        return status;
+    }
+
+    /** Run Batch with ARGS, check that it reports success iff OK, and
+     *  return its status lines. */
+    private static String runBatch(boolean ok, String... args) {
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        assertEquals(ok, new Batch(args).run(new PrintStream(status)));
+        return status.toString();
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder("# jobs\n\n");
+        StringBuilder statuses = new StringBuilder();
+        ArrayList<String> expected = new ArrayList<>();
+        ArrayList<Path> outputs = new ArrayList<>();
+        for (String input : inputs()) {
+            Path output = tempFile();
+            outputs.add(output);
+            manifest.append(CONFIG).append(' ').append(input).append(' ')
+                .append(output).append('\n');
+            statuses.append(mainStatus(CONFIG, input, expected))
+                .append('\n');
+        }
+        String missing = DIR + "/missing.inp";
+        Path missingOutput = tempFile();
+        Files.delete(missingOutput);
+        manifest.append(CONFIG).append(' ').append(missing).append(' ')
+            .append(missingOutput).append('\n');
+        statuses.append(missing).append(": Error: could not open ")
+            .append(missing).append('\n');
+        Path file = tempFile();
+        Files.writeString(file, manifest);
+
+        assertEquals(statuses.toString(),
+                     runBatch(false, "--threads=3", file.toString())
+                     .replace(System.lineSeparator(), "\n"));
+        for (int k = 0; k < outputs.size(); k += 1) {
+            assertEquals(expected.get(k), Files.readString(outputs.get(k)));
+        }
+        assertFalse(Files.exists(missingOutput));
+    }
+
+    @Test
+    public void testGlob() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        dir.toFile().deleteOnExit();
+        StringBuilder statuses = new StringBuilder();
+        ArrayList<String> expected = new ArrayList<>();
+        List<String> inputs = inputs();
+        for (String input : inputs) {
+            statuses.append(mainStatus(DIR + "/default.conf", input,
+                                       expected))
+                .append('\n');
+        }
+        String status = runBatch(statuses.indexOf("Error") < 0, "--glob",
+                                 DIR + "/*.inp", dir.toString());
+        assertEquals(statuses.toString(),
+                     status.replace(System.lineSeparator(), "\n"));
+        for (int k = 0; k < inputs.size(); k += 1) {
+            String name = Paths.get(inputs.get(k)).getFileName().toString();
+            Path output = dir.resolve(name.replace(".inp", ".out"));
+            output.toFile().deleteOnExit();
+            assertEquals(expected.get(k), Files.readString(output));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadArguments() {
+        new Batch(new String[] {"--threads=0", "manifest"});
+    }
+}
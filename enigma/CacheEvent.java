@@ -0,0 +1,29 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event reporting a miss in one of the package's caches,
+ *  with the number of hits since the previous miss, rather than one event
+ *  per access.  Off by default, like the package's other events; see
+ *  SetUpEvent.
+ *  @author William Tai
+ */
+@Name("enigma.Cache")
+@Label("Cache Access")
+@Category("Enigma")
+@Description("A miss in an Enigma cache")
+@Enabled(false)
+class CacheEvent extends jdk.jfr.Event {
+
+    /** Which cache. */
+    @Label("Cache")
+    String cache;
+
+    /** Hits since the cache's previous miss. */
+    @Label("Hits Since Previous Event")
+    long hits;
+}
@@ -0,0 +1,181 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** A chain of machines over one alphabet, each enciphering the output of
+ *  the one before, run one character at a time through all of them in a
+ *  single loop, so that no intermediate text is built.  Between stages
+ *  k and k+1, the exit of stage k (its rightmost rotor's inverse and its
+ *  plugboard) and the entry of stage k+1 (its plugboard and rightmost
+ *  rotor) are folded into one table indexed by the settings of both
+ *  rightmost rotors, which replaces two lookups with one (for alphabets
+ *  small enough that the table, of size cubed entries, is modest).  The
+ *  rest of each stage's path is that of its core (see Core), with the
+ *  virtual reflector on.
+ *
+ *  A cascade takes the stages' cores when it is made, so it enciphers with
+ *  the rings and plugboards the stages had then.  It keeps its own rotor
+ *  settings, copying them back to the stages after each conversion, so
+ *  the stages must not be set up again while the cascade is in use.
+ *  @author William Tai
+ */
+final class Cascade {
+
+    /** A cascade through STAGES, in order, which must be set up and share
+     *  an alphabet. */
+    Cascade(Machine... stages) {
+        if (stages.length == 0) {
+            throw error("a cascade needs a machine");
+        }
+        _stages = stages.clone();
+        _alphabet = stages[0].alphabet();
+        int n = _alphabet.size(), k = stages.length;
+        _cores = new Core[k];
+        _stepping = new Stepping[k];
+        _positions = new int[k][];
+        _junctions = new int[k][];
+        for (int j = 0; j < k; j += 1) {
+            Machine m = stages[j];
+            if (m.alphabet().size() != n
+                || m.alphabet().toChar(0) != _alphabet.toChar(0)) {
+                throw error("cascaded machines must share an alphabet");
+            }
+            _cores[j] = m.core(true);
+            _stepping[j] = m.stepping();
+            _positions[j] = new int[m.numRotors()];
+        }
+        for (int j = 1; j < k && (long) n * n * n <= MAX_JUNCTION; j += 1) {
+            _junctions[j] = junction(_cores[j - 1], _cores[j]);
+        }
+        load();
+    }
+
+    /** Return the table taking an index leaving the rotors of A, whose
+     *  rightmost rotor is at setting P, to the rotors of B, whose
+     *  rightmost rotor is at setting S, at index (P * N + S) * N + X,
+     *  where N is the alphabet size. */
+    private int[] junction(Core a, Core b) {
+        int n = _alphabet.size();
+        int[] result = new int[n * n * n];
+        for (int p = 0; p < n; p += 1) {
+            int[] exit = a.exitTable(p);
+            for (int s = 0; s < n; s += 1) {
+                int[] entry = b.entryTable(s);
+                int base = (p * n + s) * n;
+                for (int x = 0; x < n; x += 1) {
+                    result[base + x] = entry[exit[x]];
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return a cascade of machines for CONFIG set up from SETTINGS, which
+     *  holds one settings line for each stage, separated by '|'. */
+    static Cascade setUp(Configuration config, String settings) {
+        String[] lines = settings.split("\\|");
+        Machine[] stages = new Machine[lines.length];
+        for (int k = 0; k < lines.length; k += 1) {
+            stages[k] = config.newMachine();
+            Configuration.setUp(stages[k], lines[k].trim());
+        }
+        return new Cascade(stages);
+    }
+
+    /** Return the number of stages. */
+    int numStages() {
+        return _stages.length;
+    }
+
+    /** Return the machine at stage K. */
+    Machine stage(int k) {
+        return _stages[k];
+    }
+
+    /** Return the encipherment of MSG through every stage, ignoring
+     *  whitespace and case as Machine.convert does. */
+    String convert(String msg) {
+        String msg1 = msg.toUpperCase().replaceAll("\\s+", "");
+        char[] result = new char[msg1.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _alphabet.toChar(
+                convertIndex(_alphabet.toInt(msg1.charAt(i))));
+        }
+        save();
+        return new String(result);
+    }
+
+    /** Convert the alphabet indices TEXT in place through every
+     *  stage. */
+    void convert(int[] text) {
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = convertIndex(text[i]);
+        }
+        save();
+    }
+
+    /** Return the result of enciphering index X through every stage,
+     *  stepping each first. */
+    private int convertIndex(int x) {
+        int n = _alphabet.size();
+        int to = x, prev = 0;
+        for (int k = 0; k < _cores.length; k += 1) {
+            Core core = _cores[k];
+            int[] pos = _positions[k];
+            _stepping[k].step(pos);
+            int s = pos[pos.length - 1];
+            if (k == 0) {
+                to = core.entryTable(s)[to];
+            } else if (_junctions[k] != null) {
+                to = _junctions[k][(prev * n + s) * n + to];
+            } else {
+                to = core.entryTable(s)[_cores[k - 1].exitTable(prev)[to]];
+            }
+            to = core.pass(pos, to);
+            prev = s;
+        }
+        return _cores[_cores.length - 1].exitTable(prev)[to];
+    }
+
+    /** Copy the stages' rotor settings into my own. */
+    private void load() {
+        for (int k = 0; k < _stages.length; k += 1) {
+            for (int i = 1; i < _positions[k].length; i += 1) {
+                _positions[k][i] = _stages[k].rotorSetting(i);
+            }
+        }
+    }
+
+    /** Copy my rotor settings back to the stages. */
+    private void save() {
+        for (int k = 0; k < _stages.length; k += 1) {
+            _stages[k].setRotors(Arrays.copyOfRange(
+                _positions[k], 1, _positions[k].length));
+        }
+    }
+
+    /** Most entries in a junction table; larger alphabets go through the
+     *  stages' own entry and exit tables. */
+    private static final long MAX_JUNCTION = 1 << 22;
+
+    /** The machines, in order. */
+    private final Machine[] _stages;
+
+    /** Their common alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Core of each stage. */
+    private final Core[] _cores;
+
+    /** Stepping rule of each stage. */
+    private final Stepping[] _stepping;
+
+    /** Rotor settings of each stage, by slot. */
+    private final int[][] _positions;
+
+    /** For each stage K > 0, the exit of stage K-1 followed by the entry
+     *  of stage K (see junction), or null if too large. */
+    private final int[][] _junctions;
+}
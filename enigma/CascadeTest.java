@@ -0,0 +1,95 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** Tests of cascaded machines.
+ *  @author William Tai
+ */
+public class CascadeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Settings of the stages. */
+    private static final String FIRST =
+        "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        SECOND = "* C GAMMA I II V QEYZ (AZ) (LM)",
+        THIRD = "* B BETA VIII VI VII ZZZZ";
+
+    /** Return a long message. */
+    private static String message() {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < 20000; k += 1) {
+            result.append((char) ('A' + k * 7 % 13 * 3 % 26));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testLikeSequence() {
+        String msg = message();
+        Configuration config = Configuration.read(CONFIG);
+        Machine a = setUpMachine(config, FIRST),
+            b = setUpMachine(config, SECOND),
+            c = setUpMachine(config, THIRD);
+        Cascade cascade = new Cascade(setUpMachine(config, FIRST),
+                                      setUpMachine(config, SECOND),
+                                      setUpMachine(config, THIRD));
+        assertEquals(3, cascade.numStages());
+        assertEquals(c.convert(b.convert(a.convert(msg))),
+                     cascade.convert(msg));
+        for (int i = 1; i < 5; i += 1) {
+            assertEquals(a.rotorSetting(i),
+                         cascade.stage(0).rotorSetting(i));
+            assertEquals(c.rotorSetting(i),
+                         cascade.stage(2).rotorSetting(i));
+        }
+        assertEquals(c.convert(b.convert(a.convert("HELLO"))),
+                     cascade.convert("hel lo"));
+
+        Cascade single = new Cascade(setUpMachine(config, SECOND));
+        assertEquals(setUpMachine(config, SECOND).convert(msg),
+                     single.convert(msg));
+
+        Machine stage = setUpMachine(config, SECOND);
+        single = new Cascade(stage);
+        stage.setRings("BCDE");
+        assertEquals(setUpMachine(config, SECOND).convert(msg),
+                     single.convert(msg));
+    }
+
+    @Test
+    public void testMain() {
+        String input = FIRST + " | " + SECOND + "\n"
+            + "FROM HIS SHOULDER HIAWATHA\n"
+            + "TOOK THE CAMERA\n"
+            + FIRST + "\n"
+            + "FROM HIS SHOULDER\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Configuration config = Configuration.read(CONFIG);
+        new Main(config,
+                 new LineInput(new ByteArrayInputStream(
+                     input.getBytes(StandardCharsets.UTF_8))),
+                 new PrintStream(out)).process();
+        String[] lines = out.toString().split("\n");
+        Machine a = setUpMachine(config, FIRST),
+            b = setUpMachine(config, SECOND);
+        assertEquals(PackedCodec.group(b.convert(a.convert(
+            "FROMHISSHOULDERHIAWATHA"))), lines[0]);
+        assertEquals(PackedCodec.group(b.convert(a.convert(
+            "TOOKTHECAMERA"))), lines[1]);
+        assertEquals(PackedCodec.group(setUpMachine(config, FIRST).convert(
+            "FROMHISSHOULDER")), lines[2]);
+    }
+}
@@ -0,0 +1,366 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A Flow.Processor that enciphers a stream of text arriving in chunks of
+ *  any size, emitting one chunk of output for each chunk of input that
+ *  produces any.  The text is read as Main reads its input: the first
+ *  line must be a settings line, a settings line sets up the machine, and
+ *  every other line is a message, which comes out in groups of five with
+ *  a newline at its end.  Unlike Main, which must see a whole line to
+ *  look for '*', a line is taken to be a settings line when its first
+ *  non-blank character is '*'; settings lines are buffered until they
+ *  end, but message lines stream through, so memory does not grow with
+ *  the length of a message.
+ *
+ *  There is a single subscriber.  Chunks are requested from upstream one
+ *  at a time and only while the subscriber has unmet demand, so at most
+ *  one input chunk and the output chunk made from it are held at once.
+ *  Errors in the input (a bad settings line or a character outside the
+ *  alphabet) cancel the upstream subscription and are passed downstream
+ *  as EnigmaExceptions.  Callers with bytes should decode them to
+ *  characters upstream.
+ *  @author William Tai
+ */
+final class CipherProcessor
+    implements Flow.Processor<CharBuffer, CharBuffer> {
+
+    /** A processor enciphering with MACHINE, which it keeps and sets up
+     *  from the settings lines in its input. */
+    CipherProcessor(Machine machine) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CharBuffer> subscriber) {
+        synchronized (this) {
+            if (_downstream == null) {
+                _downstream = subscriber;
+                subscriber = null;
+            }
+        }
+        if (subscriber != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(
+                new IllegalStateException("already subscribed"));
+            return;
+        }
+        _downstream.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException(
+                             "non-positive request: " + n));
+                } else {
+                    _demand.getAndAccumulate(n, (d, m) -> d + m < 0
+                                             ? Long.MAX_VALUE : d + m);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                _cancelled = true;
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(CharBuffer chunk) {
+        if (_done) {
+            return;
+        }
+        try {
+            CharBuffer out = convert(chunk);
+            _output = out.hasRemaining() ? out : null;
+        } catch (EnigmaException excp) {
+            fail(excp);
+        }
+        _requested = false;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (_done) {
+            return;
+        }
+        try {
+            _text = CharBuffer.allocate(1);
+            if (_lineOpen) {
+                endLine();
+            }
+            if (!_configured) {
+                throw error("Bad Setting");
+            }
+            _text.flip();
+            _tail = _text.hasRemaining() ? _text : null;
+        } catch (EnigmaException excp) {
+            _error = excp;
+        }
+        _text = null;
+        _done = true;
+        drain();
+    }
+
+    /** Record THROWABLE as the cause of the end of the stream, unless the
+     *  stream has ended already. */
+    private void fail(Throwable throwable) {
+        if (!_done) {
+            _error = throwable;
+            _done = true;
+        }
+    }
+
+    /** Pass on any output and termination the subscriber is ready for,
+     *  and ask upstream for another chunk when there is demand for one.
+     *  Calls made while another thread (or an outer call) is draining
+     *  are taken over by that one, so the subscriber's methods are never
+     *  called concurrently or reentrantly. */
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super CharBuffer> downstream = _downstream;
+            if (_cancelled) {
+                if (!_finished) {
+                    _finished = true;
+                    if (_upstream != null) {
+                        _upstream.cancel();
+                    }
+                }
+            } else if (downstream != null && !_finished) {
+                if (_error != null) {
+                    _finished = true;
+                    _output = _tail = null;
+                    if (_upstream != null) {
+                        _upstream.cancel();
+                    }
+                    downstream.onError(_error);
+                } else if (_output != null && _demand.get() > 0) {
+                    CharBuffer out = _output;
+                    _output = null;
+                    _demand.decrementAndGet();
+                    downstream.onNext(out);
+                    continue;
+                } else if (_output == null && _done && _tail != null) {
+                    if (_demand.get() > 0) {
+                        CharBuffer out = _tail;
+                        _tail = null;
+                        _demand.decrementAndGet();
+                        downstream.onNext(out);
+                        continue;
+                    }
+                } else if (_output == null && _done) {
+                    _finished = true;
+                    downstream.onComplete();
+                } else if (_output == null && !_requested && !_done
+                           && _upstream != null && _demand.get() > 0) {
+                    _requested = true;
+                    _upstream.request(1);
+                }
+            }
+            missed = _wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** Return the output for the input CHUNK, reading it from its
+     *  position to its limit without moving them. */
+    private CharBuffer convert(CharBuffer chunk) {
+        int from = chunk.position(), to = chunk.limit();
+        _text = CharBuffer.allocate(2 * (to - from) + 1);
+        if (_letters.length < to - from) {
+            _letters = new int[to - from];
+        }
+        for (int k = from; k < to; k += 1) {
+            char c = chunk.get(k);
+            _lineOpen = c != '\n';
+            if (c == '\n') {
+                endLine();
+                continue;
+            } else if (c == '\r') {
+                continue;
+            }
+            if (_mode == Mode.START && !Character.isWhitespace(c)) {
+                if (c == '*' && !_afterSettings) {
+                    _mode = Mode.SETTINGS;
+                } else if (!_configured) {
+                    throw error("Bad Setting");
+                } else {
+                    _mode = Mode.MESSAGE;
+                }
+            }
+            if (_mode == Mode.SETTINGS) {
+                if (_settings.length() >= MAX_SETTINGS) {
+                    throw error("settings line too long");
+                }
+                _settings.append(c);
+            } else if (!Character.isWhitespace(c)) {
+                _letters[_pending] =
+                    _alphabet.toInt(Character.toUpperCase(c));
+                _pending += 1;
+            }
+        }
+        flushLetters();
+        CharBuffer result = _text;
+        _text = null;
+        return result.flip();
+    }
+
+    /** Finish the current line, which has ended. */
+    private void endLine() {
+        if (_mode == Mode.SETTINGS) {
+            Configuration.setUp(_machine, _settings.toString());
+            _settings.setLength(0);
+            _configured = _afterSettings = true;
+        } else if (_mode == Mode.MESSAGE || _configured) {
+            flushLetters();
+            _text.put('\n');
+            _grouped = 0;
+            _afterSettings = false;
+        } else {
+            throw error("Bad Setting");
+        }
+        _mode = Mode.START;
+    }
+
+    /** Encipher the letters gathered so far and add them, grouped, to the
+     *  output. */
+    private void flushLetters() {
+        if (_pending == 0) {
+            return;
+        }
+        int[] letters = _pending == _letters.length ? _letters
+            : Arrays.copyOf(_letters, _pending);
+        _machine.convert(letters);
+        for (int k = 0; k < _pending; k += 1) {
+            if (_grouped > 0 && _grouped % GROUP == 0) {
+                _text.put(' ');
+            }
+            _text.put(_alphabet.toChar(letters[k]));
+            _grouped += 1;
+        }
+        _pending = 0;
+    }
+
+    /** What is known of the line being read. */
+    private enum Mode {
+        /** Nothing but blanks so far. */
+        START,
+        /** A settings line. */
+        SETTINGS,
+        /** A message line. */
+        MESSAGE
+    }
+
+    /** Letters per output group. */
+    private static final int GROUP = 5;
+
+    /** Longest settings line accepted. */
+    private static final int MAX_SETTINGS = 1 << 16;
+
+    /** The machine enciphering. */
+    private final Machine _machine;
+
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The subscriber, or null until there is one. */
+    private volatile Flow.Subscriber<? super CharBuffer> _downstream;
+
+    /** The upstream subscription, or null until there is one. */
+    private volatile Flow.Subscription _upstream;
+
+    /** Chunks the subscriber has asked for and not yet received. */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /** Calls to drain not yet handled. */
+    private final AtomicInteger _wip = new AtomicInteger();
+
+    /** True iff a chunk has been requested from upstream and has not
+     *  arrived. */
+    private volatile boolean _requested;
+
+    /** Output waiting for demand, or null. */
+    private volatile CharBuffer _output;
+
+    /** Output ending the last line, waiting for _output to go and for
+     *  demand, or null. */
+    private volatile CharBuffer _tail;
+
+    /** True iff no more input will be taken. */
+    private volatile boolean _done;
+
+    /** Cause of an abnormal end, or null. */
+    private volatile Throwable _error;
+
+    /** True iff the subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** True iff the subscriber has been sent its last signal (accessed
+     *  only while draining). */
+    private boolean _finished;
+
+    /** The kind of the line being read. */
+    private Mode _mode = Mode.START;
+
+    /** True iff some settings line has been applied. */
+    private boolean _configured;
+
+    /** True iff the line being read follows a settings line, and so is a
+     *  message whatever it starts with. */
+    private boolean _afterSettings;
+
+    /** True iff the line being read has begun. */
+    private boolean _lineOpen;
+
+    /** The settings line being read. */
+    private final StringBuilder _settings = new StringBuilder();
+
+    /** Alphabet indices of message letters not yet enciphered. */
+    private int[] _letters = new int[0];
+
+    /** Number of entries in _letters in use. */
+    private int _pending;
+
+    /** Letters output so far in the current message line. */
+    private int _grouped;
+
+    /** Output of the chunk being converted. */
+    private CharBuffer _text;
+}
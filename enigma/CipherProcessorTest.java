@@ -0,0 +1,187 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Flow;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the streaming cipher processor.
+ *  @author William Tai
+ */
+public class CipherProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Input in Main's format. */
+    private static final String INPUT =
+        "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM his shoulder Hiawatha\r\n"
+        + "Took the camera of rosewood\n"
+        + "\n"
+        + "* B BETA I II III AAAA\n"
+        + "   Made of sliding folding rosewood\n"
+        + "Neatly put it all together";
+
+    /** A publisher of the characters of TEXT in chunks of at most SIZE,
+     *  counting the chunks requested of it. */
+    private static class Chunks implements Flow.Publisher<CharBuffer> {
+
+        /** Chunks of at most SIZE characters of TEXT. */
+        Chunks(String text, int size) {
+            _text = text;
+            _size = size;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super CharBuffer> sub) {
+            sub.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    _requested += n;
+                    for (; n > 0 && _next < _text.length(); n -= 1) {
+                        int end = Math.min(_text.length(), _next + _size);
+                        CharBuffer chunk = CharBuffer.wrap(_text, _next, end);
+                        _next = end;
+                        sub.onNext(chunk);
+                    }
+                    if (_next == _text.length() && !_completed) {
+                        _completed = true;
+                        sub.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    _cancelled = true;
+                }
+            });
+        }
+
+        /** Text published. */
+        private final String _text;
+        /** Chunk size. */
+        private final int _size;
+        /** Next character to publish. */
+        private int _next;
+        /** Total requested. */
+        private long _requested;
+        /** True once complete. */
+        private boolean _completed, _cancelled;
+    }
+
+    /** A subscriber that requests one chunk at a time, up to a limit. */
+    private static class Collector implements Flow.Subscriber<CharBuffer> {
+
+        /** A collector that takes at most LIMIT chunks. */
+        Collector(int limit) {
+            _limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(CharBuffer chunk) {
+            _text.append(chunk);
+            _chunks += 1;
+            if (_chunks < _limit) {
+                _subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            _complete = true;
+        }
+
+        /** Most chunks taken. */
+        private final int _limit;
+        /** The subscription. */
+        private Flow.Subscription _subscription;
+        /** Output received. */
+        private final StringBuilder _text = new StringBuilder();
+        /** Chunks received. */
+        private int _chunks;
+        /** Error received, or null. */
+        private Throwable _error;
+        /** True once complete. */
+        private boolean _complete;
+    }
+
+    /** Return the output of Main for INPUT. */
+    private static String mainOutput(String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(Configuration.read(CONFIG),
+                 new LineInput(new ByteArrayInputStream(
+                     input.getBytes(StandardCharsets.UTF_8))),
+                 new PrintStream(out)).process();
+        return out.toString();
+    }
+
+    /** Return a collector of the output of a processor for INPUT in
+     *  chunks of SIZE, taking at most LIMIT chunks. */
+    private static Collector run(String input, int size, int limit) {
+        CipherProcessor processor =
+            new CipherProcessor(Configuration.read(CONFIG).newMachine());
+        Collector result = new Collector(limit);
+        processor.subscribe(result);
+        new Chunks(input, size).subscribe(processor);
+        return result;
+    }
+
+    @Test
+    public void testLikeMain() {
+        String expected = mainOutput(INPUT);
+        for (int size : new int[] {1, 3, 17, 1000}) {
+            Collector result = run(INPUT, size, Integer.MAX_VALUE);
+            assertNull(result._error);
+            assertTrue(result._complete);
+            assertEquals(expected, result._text.toString());
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        CipherProcessor processor =
+            new CipherProcessor(Configuration.read(CONFIG).newMachine());
+        Collector result = new Collector(2);
+        processor.subscribe(result);
+        Chunks chunks = new Chunks(INPUT, 10);
+        chunks.subscribe(processor);
+        assertEquals(2, result._chunks);
+        assertFalse(result._complete);
+        assertTrue(chunks._requested <= 7);
+        result._subscription.cancel();
+        assertTrue(chunks._cancelled);
+    }
+
+    @Test
+    public void testErrors() {
+        Collector result = run("HELLO\n* B BETA I II III AAAA\n", 4,
+                               Integer.MAX_VALUE);
+        assertTrue(result._error instanceof EnigmaException);
+        assertFalse(result._complete);
+        result = run("* B BETA I II III AAAA\nHELLO, WORLD\n", 4,
+                     Integer.MAX_VALUE);
+        assertTrue(result._error instanceof EnigmaException);
+    }
+}
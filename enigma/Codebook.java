@@ -0,0 +1,417 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** The complete keystream of one rotor order, held in a memory-mapped file.
+ *  Stepping is periodic, so a machine's rotors (without the plugboard)
+ *  apply one of period() permutations, in a fixed cyclic order, to
+ *  successive characters.  Row R of the codebook is the permutation that
+ *  the machine applies to a character converted when its rotors are in
+ *  the R-th state of that cycle; a message begun at a setting whose row is
+ *  R is converted by rows R, R+1, ... (mod period()).  Settings off the
+ *  cycle (such as those the double step skips) lead onto it after a few
+ *  steps; each has a row of its own past the cycle's, with a link to the
+ *  row that follows it (see next).  The file is mapped read-only, so
+ *  processes that open the same codebook share one copy of it in memory.
+ *
+ *  A codebook is built for one set of ring settings, which are folded into
+ *  its rows, and can be used only with the same rings.
+ *
+ *  File layout (big-endian): a 48-byte preamble (magic, version, alphabet
+ *  size, period, index offset, table offset, number of rows off the
+ *  cycle, a zero int, offset of their links), the rotor names with the
+ *  settings of the cycle's first state and the ring settings, then an int
+ *  index from each combination of moving-rotor settings to its row, then
+ *  the rows, of one byte per alphabet index, on the cycle and then off
+ *  it, then an int link to the following row for each row off the
+ *  cycle.
+ *  @author William Tai
+ */
+public final class Codebook {
+
+    /** Build a codebook, as specified by ARGS, where ARGS.length is 3.
+     *  ARGS[0] names a configuration file, ARGS[1] the codebook file to
+     *  write, and ARGS[2] is a settings line (as in Main's input) choosing
+     *  the rotor order, the settings of any fixed rotors and the ring
+     *  settings.  Its plugboard, if any, is ignored. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 3) {
+                throw error("Usage: java enigma.Codebook CONFIG FILE "
+                            + "SETTINGS");
+            }
+            Machine machine = Configuration.read(args[0]).newMachine();
+            Configuration.setUp(machine, args[2]);
+            build(machine, Paths.get(args[1]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write the codebook for the rotors inserted in MACHINE, at the
+     *  settings of its fixed rotors and its ring settings, to FILE.
+     *  MACHINE is left as it was found. */
+    static void build(Machine machine, Path file) {
+        MachineState saved = machine.snapshot();
+        int size = machine.alphabet().size();
+        if (size > MAX_ALPHABET) {
+            throw error("alphabet too large for a codebook");
+        }
+        int[] moving = movingSlots(machine);
+        long states = 1;
+        for (int k = 0; k < moving.length; k += 1) {
+            states *= size;
+            if (states > MAX_STATES) {
+                throw error("too many rotor states for a codebook");
+            }
+        }
+        int[] index = new int[(int) states];
+        Arrays.fill(index, -1);
+        int j;
+        for (j = 0; index[key(machine, moving, size)] < 0; j += 1) {
+            index[key(machine, moving, size)] = j;
+            machine.step();
+        }
+        int period = j - index[key(machine, moving, size)];
+        if ((long) period * size > MAX_TABLE) {
+            throw error("codebook too large");
+        }
+        Arrays.fill(index, -1);
+        try {
+            write(machine, moving, index, period, file);
+        } catch (IOException excp) {
+            throw error("could not write codebook %s", file);
+        } finally {
+            machine.restore(saved);
+        }
+    }
+
+    /** Write the codebook of MACHINE, whose moving rotors are in slots
+     *  MOVING and which is positioned at the start of its cycle of length
+     *  PERIOD, to FILE, using INDEX (filled with -1) to record the row of
+     *  each state, first those on the cycle and then those off it. */
+    private static void write(Machine machine, int[] moving, int[] index,
+                              int period, Path file) throws IOException {
+        int size = machine.alphabet().size();
+        byte[] header = header(machine);
+        long indexOffset = align(PREAMBLE + header.length);
+        long tableOffset = align(indexOffset + 4L * index.length);
+        try (FileChannel out = FileChannel.open(file, CREATE, WRITE,
+                                                TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            out.position(tableOffset);
+            int[] row = new int[size];
+            for (int r = 0; r < period; r += 1) {
+                index[key(machine, moving, size)] = r;
+                writeRow(machine, row, buf, out);
+            }
+            int[] setting = new int[machine.numRotors() - 1];
+            for (int k = 1; k < machine.numRotors(); k += 1) {
+                setting[k - 1] = machine.rotorSetting(k);
+            }
+            int[] next = new int[0];
+            int rows = period;
+            for (int start = 0; start < index.length; start += 1) {
+                if (index[start] >= 0) {
+                    continue;
+                }
+                for (int k = moving.length - 1, s = start; k >= 0; k -= 1) {
+                    setting[moving[k] - 1] = s % size;
+                    s /= size;
+                }
+                machine.setRotors(setting);
+                while (index[key(machine, moving, size)] < 0) {
+                    if ((long) (rows + 1) * size > MAX_TABLE) {
+                        throw error("codebook too large");
+                    }
+                    index[key(machine, moving, size)] = rows;
+                    writeRow(machine, row, buf, out);
+                    if (rows - period == next.length) {
+                        next = Arrays.copyOf(next, 2 * next.length + 16);
+                    }
+                    int after = index[key(machine, moving, size)];
+                    next[rows - period] = after >= 0 ? after : rows + 1;
+                    rows += 1;
+                }
+            }
+            drain(buf, out);
+            long nextOffset = align(tableOffset + (long) rows * size);
+            out.position(nextOffset);
+            for (int r = 0; r < rows - period; r += 1) {
+                if (buf.remaining() < 4) {
+                    drain(buf, out);
+                }
+                buf.putInt(next[r]);
+            }
+            drain(buf, out);
+
+            out.position(0);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(period);
+            buf.putLong(indexOffset).putLong(tableOffset);
+            buf.putInt(rows - period).putInt(0).putLong(nextOffset);
+            buf.put(header);
+            drain(buf, out);
+            out.position(indexOffset);
+            for (int v : index) {
+                if (buf.remaining() < 4) {
+                    drain(buf, out);
+                }
+                buf.putInt(v);
+            }
+            drain(buf, out);
+        }
+    }
+
+    /** Step MACHINE and add the row it then applies to BUF, using ROW
+     *  as scratch space and writing BUF to OUT first if it is full. */
+    private static void writeRow(Machine machine, int[] row, ByteBuffer buf,
+                                 FileChannel out) throws IOException {
+        int size = row.length;
+        machine.step();
+        machine.coreTable(row);
+        if (buf.remaining() < size) {
+            drain(buf, out);
+        }
+        for (int c = 0; c < size; c += 1) {
+            buf.put((byte) row[c]);
+        }
+    }
+
+    /** Return the variable part of the header describing MACHINE: its
+     *  slot count, rotor names, current rotor settings and ring
+     *  settings. */
+    private static byte[] header(Machine machine) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MachineState state = machine.snapshot();
+        String[] names = state.rotors();
+        out.writeByte(names.length);
+        for (int k = 0; k < names.length; k += 1) {
+            out.writeUTF(names[k]);
+            out.writeShort(state.position(k));
+            out.writeShort(state.ring(k));
+            out.writeBoolean(k > 0 && machine.rotorRotates(k));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Write the contents of BUF to OUT and clear it. */
+    private static void drain(ByteBuffer buf, FileChannel out)
+        throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /** Return the slots of MACHINE that hold moving rotors. */
+    private static int[] movingSlots(Machine machine) {
+        int count = 0;
+        for (int k = 1; k < machine.numRotors(); k += 1) {
+            if (machine.rotorRotates(k)) {
+                count += 1;
+            }
+        }
+        int[] result = new int[count];
+        for (int k = machine.numRotors() - 1; k > 0; k -= 1) {
+            if (machine.rotorRotates(k)) {
+                result[--count] = k;
+            }
+        }
+        return result;
+    }
+
+    /** Return the index key of the settings of the rotors of MACHINE in
+     *  slots MOVING, each a digit in base SIZE. */
+    private static int key(Machine machine, int[] moving, int size) {
+        int key = 0;
+        for (int k : moving) {
+            key = key * size + machine.rotorSetting(k);
+        }
+        return key;
+    }
+
+    /** Return P rounded up to a multiple of 8. */
+    private static long align(long p) {
+        return (p + 7) & ~7L;
+    }
+
+    /** A codebook whose contents are mapped in DATA. */
+    private Codebook(MappedByteBuffer data) {
+        _data = data;
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw error("not a codebook");
+        }
+        _size = data.getInt(8);
+        _period = data.getInt(12);
+        _indexOffset = (int) data.getLong(16);
+        _tableOffset = (int) data.getLong(24);
+        _nextOffset = (int) data.getLong(40);
+        ByteBuffer header = data.duplicate();
+        header.position(PREAMBLE);
+        int n = header.get() & 0xff;
+        _rotors = new String[n];
+        _settings = new int[n];
+        _rings = new int[n];
+        _moving = new boolean[n];
+        for (int k = 0; k < n; k += 1) {
+            byte[] name = new byte[header.getShort() & 0xffff];
+            header.get(name);
+            _rotors[k] = new String(name, StandardCharsets.UTF_8);
+            _settings[k] = header.getShort() & 0xffff;
+            _rings[k] = header.getShort() & 0xffff;
+            _moving[k] = header.get() != 0;
+        }
+    }
+
+    /** Return the codebook in FILE, mapped read-only. */
+    static Codebook open(Path file) {
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            if (in.size() > Integer.MAX_VALUE) {
+                throw error("codebook too large to map");
+            }
+            return new Codebook(in.map(FileChannel.MapMode.READ_ONLY, 0,
+                                       in.size()));
+        } catch (IOException excp) {
+            throw error("could not open codebook %s", file);
+        }
+    }
+
+    /** Return the number of states in my cycle. */
+    int period() {
+        return _period;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the names of my rotors in slot order (reflector first). */
+    String[] rotors() {
+        return _rotors.clone();
+    }
+
+    /** Return the row used for the first character converted from
+     *  SETTING, given as for Machine.setRotors, with the ring settings
+     *  RINGS, given as for Machine.setRings, over ALPHABET.  Settings of
+     *  fixed rotors and all ring settings must be those the codebook was
+     *  built with. */
+    int stateIndex(String setting, String rings, Alphabet alphabet) {
+        if (setting.length() != _rotors.length - 1
+            || rings.length() != _rotors.length - 1) {
+            throw error("wrong number of rotor settings");
+        }
+        int key = 0;
+        for (int k = 1; k < _rotors.length; k += 1) {
+            int s = alphabet.toInt(setting.charAt(k - 1));
+            if (alphabet.toInt(rings.charAt(k - 1)) != _rings[k]) {
+                throw error("codebook was built for other ring settings");
+            } else if (_moving[k]) {
+                key = key * _size + s;
+            } else if (s != _settings[k]) {
+                throw error("codebook was built for another fixed setting");
+            }
+        }
+        return _data.getInt(_indexOffset + 4 * key);
+    }
+
+    /** Return the row following ROW: the next on the cycle, or for a row
+     *  off the cycle, the row of the state its machine steps to. */
+    int next(int row) {
+        if (row >= _period) {
+            return _data.getInt(_nextOffset + 4 * (row - _period));
+        }
+        return row + 1 == _period ? 0 : row + 1;
+    }
+
+    /** Return the conversion of alphabet index C by row ROW, as returned
+     *  by stateIndex or next. */
+    int convert(int row, int c) {
+        return _data.get(_tableOffset + row * _size + c) & 0xff;
+    }
+
+    /** Return the conversion of MSG by a machine with my rotors set to
+     *  SETTING, with ring settings RINGS and with plugboard PLUGBOARD, as
+     *  Machine.convert(String) would produce it. */
+    String convert(String setting, String rings, Permutation plugboard,
+                   String msg) {
+        Alphabet alphabet = plugboard.alphabet();
+        int row = stateIndex(setting, rings, alphabet);
+        String msg1 = msg.toUpperCase().replaceAll("\\s+", "");
+        char[] result = new char[msg1.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            int c = plugboard.permute(alphabet.toInt(msg1.charAt(i)));
+            result[i] = alphabet.toChar(plugboard.permute(convert(row, c)));
+            row = next(row);
+        }
+        return new String(result);
+    }
+
+    /** Leading tag of a codebook file ("ENCB"). */
+    private static final int MAGIC = 0x454e4342;
+
+    /** Format version. */
+    private static final int VERSION = 3;
+
+    /** Length of the fixed part of the header. */
+    private static final int PREAMBLE = 48;
+
+    /** Largest alphabet whose indices fit in one byte. */
+    private static final int MAX_ALPHABET = 256;
+
+    /** Largest number of moving-rotor states indexed. */
+    private static final long MAX_STATES = 1 << 26;
+
+    /** Largest table, in bytes, that can be mapped at once. */
+    private static final long MAX_TABLE = Integer.MAX_VALUE - (1L << 29);
+
+    /** Size of the write buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The mapped file. */
+    private final MappedByteBuffer _data;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of rows. */
+    private final int _period;
+
+    /** Offset of the state index. */
+    private final int _indexOffset;
+
+    /** Offset of the first row. */
+    private final int _tableOffset;
+
+    /** Offset of the links from rows off the cycle. */
+    private final int _nextOffset;
+
+    /** Rotor names in slot order. */
+    private final String[] _rotors;
+
+    /** Rotor settings at the first row. */
+    private final int[] _settings;
+
+    /** Ring settings, by slot. */
+    private final int[] _rings;
+
+    /** Which slots hold moving rotors. */
+    private final boolean[] _moving;
+}
@@ -0,0 +1,94 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the memory-mapped keystream codebook.
+ *  @author William Tai
+ */
+public class CodebookTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test
+    public void testMatchesMachine() throws IOException {
+        Configuration config = Configuration.read(CONFIG);
+        Machine machine = setUpMachine(config, "* B BETA I II III AAAA");
+        Path file = tempFile();
+        Codebook.build(machine, file);
+        Codebook book = Codebook.open(file);
+        assertEquals(26 * 25 * 26, book.period());
+
+        String msg = "";
+        for (int i = 0; i < 20000; i += 1) {
+            msg += (char) ('A' + (i * 11 + i / 26) % 26);
+        }
+        Permutation plugboard = new Permutation("(AQ) (EP) (YZ)",
+                                                config.alphabet());
+        Configuration.setUp(machine,
+                            "* B BETA I II III AXLE (AQ) (EP) (YZ)");
+        assertEquals(machine.convert(msg),
+                     book.convert("AXLE", "AAAA", plugboard, msg));
+    }
+
+    @Test
+    public void testRings() throws IOException {
+        Configuration config = Configuration.read(CONFIG);
+        Machine machine = setUpMachine(config,
+                                       "* B BETA I II III AAAA ABBB");
+        Path file = tempFile();
+        Codebook.build(machine, file);
+        Codebook book = Codebook.open(file);
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Configuration.setUp(machine,
+                            "* B BETA I II III AXLE ABBB (AQ) (EP)");
+        assertEquals(machine.convert(msg),
+                     book.convert("AXLE", "ABBB",
+                                  new Permutation("(AQ) (EP)",
+                                                  config.alphabet()),
+                                  msg));
+        try {
+            book.stateIndex("AXLE", "AAAA", config.alphabet());
+            fail("codebook used with other rings");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testOffCycle() throws IOException {
+        Configuration config = Configuration.read(CONFIG);
+        Machine machine = setUpMachine(config, "* B BETA I II III AAAA");
+        Path file = tempFile();
+        Codebook.build(machine, file);
+        Codebook book = Codebook.open(file);
+        Permutation plugboard = new Permutation("(AQ) (EP)",
+                                                config.alphabet());
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        for (String setting : new String[] {"AADA", "AADV", "AAEA", "AAEW",
+                                            "AQDU", "AQEV", "AZDZ"}) {
+            Configuration.setUp(machine, "* B BETA I II III " + setting
+                                + " (AQ) (EP)");
+            assertEquals(setting, machine.convert(msg),
+                         book.convert(setting, "AAAA", plugboard, msg));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testWrongFixedSetting() throws IOException {
+        Machine machine = setUpMachine(Configuration.read(CONFIG),
+                                       "* B BETA I II III AAAA");
+        Path file = tempFile();
+        Codebook.build(machine, file);
+        Codebook.open(file).stateIndex("BAAA", "AAAA", machine.alphabet());
+    }
+}
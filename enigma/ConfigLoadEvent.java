@@ -0,0 +1,31 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event marking the parsing of a configuration.  Off by
+ *  default; see SetUpEvent.
+ *  @author William Tai
+ */
+@Name("enigma.ConfigLoad")
+@Label("Configuration Load")
+@Category("Enigma")
+@Description("A machine configuration parsed")
+@Enabled(false)
+class ConfigLoadEvent extends jdk.jfr.Event {
+
+    /** Alphabet size. */
+    @Label("Alphabet Size")
+    int alphabetSize;
+
+    /** Number of rotor slots. */
+    @Label("Slots")
+    int slots;
+
+    /** Number of rotors described. */
+    @Label("Rotors")
+    int rotors;
+}
@@ -0,0 +1,239 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** A set of named machine configurations, each read from a file and read
+ *  again whenever the file changes.  The current entries are held in an
+ *  immutable map behind an AtomicReference: a lookup is a single volatile
+ *  read, without locks, and a change publishes a new map with the one
+ *  entry replaced.  An Entry never changes, so a session that built its
+ *  machine from an entry keeps that version however often the file is
+ *  reloaded, while later lookups see the new one.  A file that fails to
+ *  parse (say, because it is only partly written) leaves the entry as it
+ *  was until the next change.
+ *  @author William Tai
+ */
+final class ConfigRegistry implements Closeable {
+
+    /** One version of a named configuration. */
+    static final class Entry {
+
+        /** Version VERSION of the configuration NAME, CONFIG, read from
+         *  FILE. */
+        private Entry(String name, Path file, Configuration config,
+                      long version) {
+            _name = name;
+            _file = file;
+            _config = config;
+            _version = version;
+        }
+
+        /** Return my name. */
+        String name() {
+            return _name;
+        }
+
+        /** Return the file I was read from. */
+        Path file() {
+            return _file;
+        }
+
+        /** Return my configuration. */
+        Configuration configuration() {
+            return _config;
+        }
+
+        /** Return my version: the number of times my name has been
+         *  loaded. */
+        long version() {
+            return _version;
+        }
+
+        /** Return a new machine for my configuration, set up as Main's
+         *  are. */
+        Machine newMachine() {
+            return Main.newMachine(_config);
+        }
+
+        /** Name of the configuration. */
+        private final String _name;
+
+        /** Its file. */
+        private final Path _file;
+
+        /** The parsed configuration. */
+        private final Configuration _config;
+
+        /** Version number. */
+        private final long _version;
+    }
+
+    /** Return the current entry named NAME, or null if there is none. */
+    Entry lookup(String name) {
+        return _entries.get().get(name);
+    }
+
+    /** Return a new machine from the current configuration named NAME. */
+    Machine newMachine(String name) {
+        Entry entry = lookup(name);
+        if (entry == null) {
+            throw error("no configuration named %s", name);
+        }
+        return entry.newMachine();
+    }
+
+    /** Return the current entries, by name. */
+    Map<String, Entry> entries() {
+        return _entries.get();
+    }
+
+    /** Read the configuration in FILE as NAME, replacing any entry of that
+     *  name, and watch FILE for changes if I am watching.  Return the new
+     *  entry. */
+    synchronized Entry register(String name, Path file) {
+        file = file.toAbsolutePath().normalize();
+        Entry entry = load(name, file);
+        if (_watcher != null) {
+            watch(file.getParent());
+        }
+        return entry;
+    }
+
+    /** Remove the entry named NAME, if any. */
+    synchronized void remove(String name) {
+        HashMap<String, Entry> next = new HashMap<>(_entries.get());
+        next.remove(name);
+        _entries.set(Map.copyOf(next));
+    }
+
+    /** Read the file of the entry named NAME again, returning the new
+     *  entry. */
+    synchronized Entry reload(String name) {
+        Entry entry = lookup(name);
+        if (entry == null) {
+            throw error("no configuration named %s", name);
+        }
+        return load(name, entry.file());
+    }
+
+    /** Return the number of reloads, after a change, whose file failed to
+     *  parse. */
+    long failures() {
+        return _failures.get();
+    }
+
+    /** Start reloading entries when their files change, on a daemon
+     *  thread. */
+    synchronized void startWatching() throws IOException {
+        if (_watcher != null) {
+            return;
+        }
+        _watcher = FileSystems.getDefault().newWatchService();
+        for (Entry entry : _entries.get().values()) {
+            watch(entry.file().getParent());
+        }
+        WatchService watcher = _watcher;
+        Thread thread = new Thread(() -> watch(watcher), "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop watching files. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_watcher != null) {
+            _watcher.close();
+            _watcher = null;
+            _watched.clear();
+        }
+    }
+
+    /** Parse FILE and publish it as the newest version of NAME, returning
+     *  the new entry. */
+    private Entry load(String name, Path file) {
+        Configuration config = Configuration.read(file.toString());
+        Entry old = lookup(name);
+        Entry entry = new Entry(name, file, config,
+                                old == null ? 1 : old.version() + 1);
+        HashMap<String, Entry> next = new HashMap<>(_entries.get());
+        next.put(name, entry);
+        _entries.set(Map.copyOf(next));
+        return entry;
+    }
+
+    /** Watch the directory DIR with my watcher, if it is not already. */
+    private void watch(Path dir) {
+        if (_watched.containsKey(dir)) {
+            return;
+        }
+        try {
+            _watched.put(dir, dir.register(_watcher, ENTRY_CREATE,
+                                           ENTRY_MODIFY));
+        } catch (IOException excp) {
+            throw error("could not watch %s", dir);
+        }
+    }
+
+    /** Reload the entries whose files WATCHER reports changed, until it is
+     *  closed. */
+    private void watch(WatchService watcher) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() != OVERFLOW) {
+                        changed(dir.resolve((Path) event.context()));
+                    } else {
+                        changed(null);
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException excp) {
+            /* Closed. */
+        }
+    }
+
+    /** Reload every entry read from FILE, or every entry if FILE is
+     *  null. */
+    private synchronized void changed(Path file) {
+        for (Entry entry : _entries.get().values()) {
+            if (file == null || entry.file().equals(file)) {
+                try {
+                    load(entry.name(), entry.file());
+                } catch (EnigmaException excp) {
+                    _failures.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** The current entries, by name.  Replaced, never modified. */
+    private final AtomicReference<Map<String, Entry>> _entries =
+        new AtomicReference<>(Map.of());
+
+    /** Failed reloads. */
+    private final AtomicLong _failures = new AtomicLong();
+
+    /** Service watching the directories of my files, or null if not
+     *  watching. */
+    private WatchService _watcher;
+
+    /** Directories watched, with their keys. */
+    private final HashMap<Path, WatchKey> _watched = new HashMap<>();
+}
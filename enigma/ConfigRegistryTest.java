@@ -0,0 +1,85 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the configuration registry.
+ *  @author William Tai
+ */
+public class ConfigRegistryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Settings used. */
+    private static final String SETTINGS = "* B BETA III IV I AXLE";
+
+    /** Return the conversion of MSG by a machine from ENTRY set up with
+     *  SETTINGS. */
+    private static String convert(ConfigRegistry.Entry entry, String msg) {
+        Machine machine = entry.newMachine();
+        Configuration.setUp(machine, SETTINGS);
+        return machine.convert(msg);
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        Path dir = Files.createTempDirectory("registry");
+        Path file = dir.resolve("enigma.conf");
+        String text = Files.readString(Paths.get(CONFIG));
+        Files.writeString(file, text);
+        try (ConfigRegistry registry = new ConfigRegistry()) {
+            ConfigRegistry.Entry first = registry.register("m4", file);
+            assertSame(first, registry.lookup("m4"));
+            assertEquals(1, first.version());
+            assertNull(registry.lookup("m3"));
+            String cipher = convert(first, "HELLOWORLD");
+
+            Files.writeString(file, text.replace("(AE) (BN)", "(AB) (EN)"));
+            ConfigRegistry.Entry second = registry.reload("m4");
+            assertEquals(2, second.version());
+            assertSame(second, registry.lookup("m4"));
+            assertEquals(cipher, convert(first, "HELLOWORLD"));
+            assertFalse(cipher.equals(convert(second, "HELLOWORLD")));
+
+            registry.remove("m4");
+            assertNull(registry.lookup("m4"));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testWatch() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("registry");
+        Path file = dir.resolve("enigma.conf");
+        String text = Files.readString(Paths.get(CONFIG));
+        Files.writeString(file, text);
+        try (ConfigRegistry registry = new ConfigRegistry()) {
+            registry.register("m4", file);
+            String cipher = convert(registry.lookup("m4"), "HELLOWORLD");
+            registry.startWatching();
+            Files.writeString(file, "A-Z 5");
+            Files.writeString(file, text.replace("(AE) (BN)", "(AB) (EN)"));
+            while (convert(registry.lookup("m4"), "HELLOWORLD")
+                   .equals(cipher)) {
+                Thread.sleep(10);
+            }
+            assertTrue(registry.lookup("m4").version() >= 2);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
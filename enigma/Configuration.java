@@ -0,0 +1,293 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed machine configuration file: the alphabet, the numbers of rotor
+ *  slots and pawls, the stepping rule, and the available rotors.  The
+ *  header may name a stepping rule with a "stepping=SPEC" token after the
+ *  pawl count (see Stepping).  A Configuration is
+ *  immutable; since rotors carry their own settings, each call to
+ *  newMachine() builds a machine with rotors of its own.
+ *  @author William Tai
+ */
+final class Configuration {
+
+    /** A configuration with alphabet ALPHA, NUMROTORS slots, PAWLS pawls,
+     *  the stepping rule named STEPPING and the rotors described by NAMES,
+     *  TYPES and PERMS (parallel lists; see rotorType). */
+    private Configuration(Alphabet alpha, int numRotors, int pawls,
+                          String stepping, List<String> names,
+                          List<String> types, List<Permutation> perms) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _stepping = stepping;
+        _names = Collections.unmodifiableList(new ArrayList<>(names));
+        _types = Collections.unmodifiableList(new ArrayList<>(types));
+        _perms = Collections.unmodifiableList(new ArrayList<>(perms));
+    }
+
+    /** Return the configuration in the file named NAME. */
+    static Configuration read(String name) {
+        try (Scanner config = new Scanner(new File(name))) {
+            return read(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the configuration whose description is the remaining
+     *  contents of CONFIG. */
+    static Configuration read(Scanner config) {
+        ConfigLoadEvent event = new ConfigLoadEvent();
+        event.begin();
+        Configuration result = parse(config);
+        event.end();
+        if (event.shouldCommit()) {
+            event.alphabetSize = result.alphabet().size();
+            event.slots = result.numRotors();
+            event.rotors = result.rotorNames().size();
+            event.commit();
+        }
+        return result;
+    }
+
+    /** Return the configuration described by the remaining contents of
+     *  CONFIG. */
+    private static Configuration parse(Scanner config) {
+        try {
+            String alpha = config.next();
+            Alphabet alphabet = new CharacterRange(alpha.charAt(0),
+                    alpha.charAt(alpha.length() - 1));
+            int numRotors = config.nextInt();
+            int pawls = config.nextInt();
+            String stepping = Stepping.DEFAULT;
+            if (config.hasNext(STEPPING_TOKEN)) {
+                stepping = config.next().substring("stepping=".length());
+                Stepping.check(stepping);
+            }
+            ArrayList<String> names = new ArrayList<>();
+            ArrayList<String> types = new ArrayList<>();
+            ArrayList<Permutation> perms = new ArrayList<>();
+            String rname = config.next().toUpperCase();
+            while (config.hasNext()) {
+                rname = readRotor(config, alphabet, rname,
+                                  names, types, perms);
+            }
+            return new Configuration(alphabet, numRotors, pawls, stepping,
+                                     names, types, perms);
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
+    /** Read the description of the rotor named RNAME from CONFIG, with
+     *  permutation over ALPHABET, appending its name, type and permutation
+     *  to NAMES, TYPES and PERMS.  Return the name of the next rotor. */
+    private static String readRotor(Scanner config, Alphabet alphabet,
+                                    String rname, List<String> names,
+                                    List<String> types,
+                                    List<Permutation> perms) {
+        try {
+            String permutation = "";
+            String type = config.next();
+            String per = config.next();
+            while (per.contains(")")) {
+                permutation += per + " ";
+                if (config.hasNext()) {
+                    per = config.next();
+                } else {
+                    break;
+                }
+            }
+            names.add(rname);
+            types.add(type);
+            perms.add(new Permutation(permutation, alphabet));
+            return per.toUpperCase();
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the name of my stepping rule (see Stepping). */
+    String stepping() {
+        return _stepping;
+    }
+
+    /** Return the names of the available rotors, in file order. */
+    List<String> rotorNames() {
+        return _names;
+    }
+
+    /** Return the type of the rotor named NAME: "R" for a reflector, "N"
+     *  for a fixed rotor, and otherwise a moving rotor whose notches
+     *  follow the first character ("M" by convention). */
+    String rotorType(String name) {
+        int k = _names.indexOf(name);
+        if (k < 0) {
+            throw error("Rotor not found fool!");
+        }
+        return _types.get(k);
+    }
+
+    /** Return every rotor order (reflector first, as for
+     *  Machine.insertRotors) that my machines accept: a reflector, then
+     *  distinct fixed rotors in the slots before the last numPawls(), then
+     *  distinct moving rotors in those, in file order of the names. */
+    List<String[]> rotorOrders() {
+        ArrayList<String> reflectors = new ArrayList<>();
+        ArrayList<String> fixed = new ArrayList<>();
+        ArrayList<String> moving = new ArrayList<>();
+        for (int i = 0; i < _names.size(); i += 1) {
+            String type = _types.get(i);
+            if (type.equals("R")) {
+                reflectors.add(_names.get(i));
+            } else if (type.equals("N")) {
+                fixed.add(_names.get(i));
+            } else {
+                moving.add(_names.get(i));
+            }
+        }
+        ArrayList<String[]> result = new ArrayList<>();
+        String[] order = new String[_numRotors];
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            arrange(order, 1, fixed, moving, result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT each completion of ORDER[0 .. K-1] with rotors from
+     *  FIXED and MOVING (see rotorOrders). */
+    private void arrange(String[] order, int k, List<String> fixed,
+                         List<String> moving, List<String[]> result) {
+        if (k == _numRotors) {
+            result.add(order.clone());
+            return;
+        }
+        List<String> used = Arrays.asList(order).subList(1, k);
+        for (String name : k < _numRotors - _pawls ? fixed : moving) {
+            if (!used.contains(name)) {
+                order[k] = name;
+                arrange(order, k + 1, fixed, moving, result);
+            }
+        }
+    }
+
+    /** Return a new rotor, in its 0 setting, for each available rotor. */
+    List<Rotor> newRotors() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (int i = 0; i < _names.size(); i += 1) {
+            String type = _types.get(i);
+            if (type.equals("R")) {
+                rotors.add(new Reflector(_names.get(i), _perms.get(i)));
+            } else if (type.equals("N")) {
+                rotors.add(new FixedRotor(_names.get(i), _perms.get(i)));
+            } else {
+                rotors.add(new MovingRotor(_names.get(i), _perms.get(i),
+                                           type.substring(1)));
+            }
+        }
+        return rotors;
+    }
+
+    /** Return a new machine for this configuration, with rotors of its
+     *  own and no rotors inserted. */
+    Machine newMachine() {
+        Machine machine =
+            new Machine(_alphabet, _numRotors, _pawls, newRotors());
+        machine.setStepping(_stepping);
+        return machine;
+    }
+
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment, optionally
+     *  with ring settings (letters, as for the rotor settings) after the
+     *  rotor settings. */
+    static void setUp(Machine M, String settings) {
+        Permutation plugboard;
+        String[] info = settings.split(" ");
+        int numRotors = M.numRotors();
+
+        if (M.numRotors() > info.length - 1) {
+            throw  EnigmaException.error("Incorrect format");
+        }
+
+        String[] insertedRotors = Arrays.copyOfRange(info, 1,
+                numRotors + 1);
+
+        if (numRotors + 1 >= info.length) {
+            throw EnigmaException.error("Bad input");
+        }
+
+        String setting = info[numRotors + 1];
+
+        M.insertRotors(insertedRotors);
+        M.setRotors(setting);
+
+        int rest = numRotors + 2;
+        if (info.length > rest && !info[rest].startsWith("(")) {
+            M.setRings(info[rest]);
+            rest += 1;
+        }
+
+        if (info.length > numRotors + 1) {
+            String[] sub = Arrays.copyOfRange(info, rest,
+                    info.length);
+            String perm = "";
+            for (String s: sub) {
+                perm += s + " ";
+            }
+            plugboard = new Permutation(perm, M.alphabet());
+            M.setPlugboard(plugboard);
+        }
+    }
+
+    /** Pattern of the optional header token naming a stepping rule. */
+    private static final String STEPPING_TOKEN = "stepping=\\S+";
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Name of the stepping rule. */
+    private final String _stepping;
+
+    /** Rotor names. */
+    private final List<String> _names;
+
+    /** Rotor types, parallel to _names. */
+    private final List<String> _types;
+
+    /** Rotor permutations, parallel to _names. */
+    private final List<Permutation> _perms;
+}
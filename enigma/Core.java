@@ -0,0 +1,166 @@
+package enigma;
+
+/** The path of one character through a machine at a given rotor order,
+ *  ring settings and plugboard: in through the plugboard and the
+ *  rightmost rotor, forward through the other rotors, off the reflector,
+ *  back through them, and out through the rightmost rotor and the
+ *  plugboard.  A core copies the rotors' table rows when it is made, so
+ *  later changes to the rotors' rings, or to the machine, do not affect
+ *  it.  Rotor settings are supplied with each character.
+ *
+ *  With a fold depth F > 0, the reflector and the rotors in slots 1 .. F
+ *  are treated as one composite permutation (a virtual reflector), rebuilt
+ *  only when one of those rotors has moved since it was last built.  The
+ *  table rows are shared by copies, but the composite is not, so a copy
+ *  may be used by another thread.
+ *  @author William Tai
+ */
+final class Core {
+
+    /** A core for ROTORS (by slot, ROTORS[0] the reflector), with the
+     *  plugboard and rightmost rotor as in ENTRY and EXIT, by that
+     *  rotor's setting (see Machine), folding slots 1 .. FOLD into the
+     *  reflector. */
+    Core(Rotor[] rotors, int[][] entry, int[][] exit, int fold) {
+        int n = rotors[0].size(), slots = rotors.length;
+        _forward = new int[slots][n][];
+        _backward = new int[slots][n][];
+        for (int i = 1; i < slots; i += 1) {
+            for (int s = 0; s < n; s += 1) {
+                _forward[i][s] = rotors[i].forwardTable(s);
+                _backward[i][s] = rotors[i].backwardTable(s);
+            }
+        }
+        _reflector = rotors[0].forwardTable(0);
+        _entry = entry;
+        _exit = exit;
+        _fold = fold;
+        _composite = new int[n];
+        _composed = new int[fold + 1];
+        _composed[0] = -1;
+    }
+
+    /** A core sharing the tables of OTHER, with a composite of its
+     *  own. */
+    private Core(Core other) {
+        _forward = other._forward;
+        _backward = other._backward;
+        _reflector = other._reflector;
+        _entry = other._entry;
+        _exit = other._exit;
+        _fold = other._fold;
+        _composite = new int[other._composite.length];
+        _composed = new int[_fold + 1];
+        _composed[0] = -1;
+    }
+
+    /** Return a core with my tables, for use independently of me. */
+    Core copy() {
+        return new Core(this);
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _forward.length;
+    }
+
+    /** Return the table taking a plaintext index through the plugboard
+     *  and the rightmost rotor at setting S (not a copy). */
+    int[] entryTable(int s) {
+        return _entry[s];
+    }
+
+    /** Return the table taking an index back through the rightmost rotor
+     *  at setting S and the plugboard (not a copy). */
+    int[] exitTable(int s) {
+        return _exit[s];
+    }
+
+    /** Return the encipherment of the plaintext index X with the rotors
+     *  at the settings POS (by slot), which have already been stepped. */
+    int convert(int[] pos, int x) {
+        int s = pos[pos.length - 1];
+        return _exit[s][pass(pos, _entry[s][x])];
+    }
+
+    /** Return the result of taking the index X, which has come through
+     *  the entry table, forward through the rotors between the rightmost
+     *  one and the reflector, off the reflector and back, with the rotors
+     *  at the settings POS (by slot). */
+    int pass(int[] pos, int x) {
+        int last = pos.length - 1, fold = _fold;
+        int to = x;
+        for (int i = last - 1; i > fold; i -= 1) {
+            to = _forward[i][pos[i]][to];
+        }
+        to = reflection(pos)[to];
+        for (int i = fold + 1; i < last; i += 1) {
+            to = _backward[i][pos[i]][to];
+        }
+        return to;
+    }
+
+    /** Return the table taking the output of the forward pass through
+     *  slots _fold+1 and up to the input of the backward pass through
+     *  them, with the rotors at POS: the reflector alone, or the
+     *  composite of slots 1 .. _fold, the reflector, and back. */
+    private int[] reflection(int[] pos) {
+        int fold = _fold;
+        if (fold == 0) {
+            return _reflector;
+        }
+        boolean stale = _composed[0] < 0;
+        for (int i = 1; i <= fold && !stale; i += 1) {
+            stale = _composed[i] != pos[i];
+        }
+        if (!stale) {
+            _compositeHits += 1;
+            return _composite;
+        }
+        CacheEvent event = new CacheEvent();
+        if (event.shouldCommit()) {
+            event.cache = "virtual reflector";
+            event.hits = _compositeHits;
+            event.commit();
+        }
+        _compositeHits = 0;
+        for (int y = 0; y < _composite.length; y += 1) {
+            int t = y;
+            for (int i = fold; i > 0; i -= 1) {
+                t = _forward[i][pos[i]][t];
+            }
+            t = _reflector[t];
+            for (int i = 1; i <= fold; i += 1) {
+                t = _backward[i][pos[i]][t];
+            }
+            _composite[y] = t;
+        }
+        _composed[0] = 0;
+        System.arraycopy(pos, 1, _composed, 1, fold);
+        return _composite;
+    }
+
+    /** _forward[I][S] and _backward[I][S] are the forward and backward
+     *  tables of the rotor in slot I at setting S. */
+    private final int[][][] _forward, _backward;
+
+    /** The reflector's table. */
+    private final int[] _reflector;
+
+    /** Plugboard and rightmost rotor, and back, by that rotor's
+     *  setting. */
+    private final int[][] _entry, _exit;
+
+    /** Slots 1 .. _fold are folded into the composite. */
+    private final int _fold;
+
+    /** The composite reflector. */
+    private final int[] _composite;
+
+    /** A negative first entry if _composite is unbuilt, and otherwise
+     *  the settings of slots 1 .. _fold it was built for. */
+    private final int[] _composed;
+
+    /** Uses of _composite since it was last rebuilt. */
+    private long _compositeHits;
+}
@@ -0,0 +1,182 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** Counts, for one key after another, the places in which a crib
+ *  enciphered under the key agrees with a ciphertext, reusing work
+ *  between keys.  The rightmost rotor is folded, for each of its settings
+ *  and each crib position, together with the plugboard, the crib and the
+ *  ciphertext into a table built once per rotor order, so that a place
+ *  agrees iff the core table of the slower rotors and the reflector maps
+ *  one entry of it to the other.  Core tables are kept in a small cache
+ *  keyed by the slower rotors' settings, and are built in layers from the
+ *  reflector outwards, so that when only the outer slow rotors have moved
+ *  since the last build, the inner layers are reused.  Keys visited in
+ *  Gray-code order (KeySpace.graySetting) mostly change only the
+ *  rightmost rotor, and need no new core table at all.
+ *  @author William Tai
+ */
+final class CribEvaluator {
+
+    /** An evaluator of CRIB against CIPHER (alphabet indices, CIPHER at
+     *  least as long as CRIB) on MACHINE, whose rotors must have been
+     *  inserted. */
+    CribEvaluator(Machine machine, int[] crib, int[] cipher) {
+        _machine = machine;
+        _crib = crib.clone();
+        _cipher = Arrays.copyOf(cipher, crib.length);
+        _size = machine.alphabet().size();
+        _last = machine.numRotors() - 1;
+        _positions = new int[_last + 1];
+        _pairs = new int[_crib.length * _size];
+        _layers = new int[_last][_size];
+        _layerSettings = new int[_last];
+        _codes = new long[CACHE_SIZE];
+        _tables = new int[CACHE_SIZE][];
+        reset();
+    }
+
+    /** Take up MACHINE's current rotor order, plugboard and stepping
+     *  rule.  Must be called after each insertRotors or setPlugboard on
+     *  MACHINE. */
+    void reset() {
+        Permutation plugboard = _machine.plugboard();
+        Rotor fast = _machine.rotor(_last);
+        for (int s = 0; s < _size; s += 1) {
+            int[] forward = fast.forwardTable(s);
+            for (int k = 0; k < _crib.length; k += 1) {
+                int in = forward[plugboard.permute(_crib[k])];
+                int out = forward[plugboard.permute(_cipher[k])];
+                _pairs[k * _size + s] = in | (out << PAIR_SHIFT);
+            }
+        }
+        _stepping = _machine.stepping();
+        System.arraycopy(_machine.rotor(0).forwardTable(0), 0,
+                         _layers[0], 0, _size);
+        Arrays.fill(_layerSettings, -1);
+        Arrays.fill(_codes, -1);
+        _victim = 0;
+        _lookups += 2L * _crib.length * _size;
+    }
+
+    /** Return the number of places in which the crib, enciphered from the
+     *  rotor settings SETTING (by slot after the reflector, as for
+     *  Machine.setRotors), agrees with the ciphertext.  My machine's own
+     *  settings are not used or changed. */
+    int matches(int[] setting) {
+        int[] pos = _positions;
+        System.arraycopy(setting, 0, pos, 1, _last);
+        int[] core = null;
+        long code = -1;
+        int result = 0;
+        for (int k = 0; k < _crib.length; k += 1) {
+            _stepping.step(pos);
+            long c = 0;
+            for (int i = 1; i < _last; i += 1) {
+                c = c * _size + pos[i];
+            }
+            if (c != code) {
+                code = c;
+                core = core(code);
+            }
+            int pair = _pairs[k * _size + pos[_last]];
+            if (core[pair & PAIR_MASK] == pair >>> PAIR_SHIFT) {
+                result += 1;
+            }
+        }
+        _lookups += 2L * _crib.length;
+        return result;
+    }
+
+    /** Return the number of table lookups made so far, counting those
+     *  made to build my tables. */
+    long lookups() {
+        return _lookups;
+    }
+
+    /** Return the core table for the slow rotors at _positions, whose
+     *  settings are encoded as CODE. */
+    private int[] core(long code) {
+        for (int k = 0; k < CACHE_SIZE; k += 1) {
+            if (_codes[k] == code) {
+                return _tables[k];
+            }
+        }
+        int i = 1;
+        while (i < _last && _layerSettings[i] == _positions[i]) {
+            i += 1;
+        }
+        for (; i < _last; i += 1) {
+            Rotor r = _machine.rotor(i);
+            int s = _positions[i];
+            int[] forward = r.forwardTable(s), backward = r.backwardTable(s);
+            int[] inner = _layers[i - 1], layer = _layers[i];
+            for (int x = 0; x < _size; x += 1) {
+                layer[x] = backward[inner[forward[x]]];
+            }
+            _layerSettings[i] = s;
+            _lookups += 3L * _size;
+        }
+        int slot = _victim;
+        _victim = (_victim + 1) % CACHE_SIZE;
+        if (_tables[slot] == null) {
+            _tables[slot] = new int[_size];
+        }
+        System.arraycopy(_layers[_last - 1], 0, _tables[slot], 0, _size);
+        _codes[slot] = code;
+        return _tables[slot];
+    }
+
+    /** Number of core tables cached. */
+    private static final int CACHE_SIZE = 8;
+
+    /** Position of the ciphertext half of an entry of _pairs. */
+    private static final int PAIR_SHIFT = 16;
+
+    /** Mask selecting the crib half of an entry of _pairs. */
+    private static final int PAIR_MASK = (1 << PAIR_SHIFT) - 1;
+
+    /** The machine whose rotors are used. */
+    private final Machine _machine;
+
+    /** Crib and ciphertext, as alphabet indices. */
+    private final int[] _crib, _cipher;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Slot of the rightmost rotor. */
+    private final int _last;
+
+    /** Rotor settings while enciphering, by slot. */
+    private final int[] _positions;
+
+    /** Entry K * _size + S holds, for crib position K with the rightmost
+     *  rotor at S, the crib character after the plugboard and that rotor,
+     *  and above PAIR_SHIFT, the character that the core must map it to
+     *  for the result to be the ciphertext character. */
+    private final int[] _pairs;
+
+    /** _layers[I] is the table taking a character through slots I .. 1,
+     *  the reflector and back, at the settings _layerSettings; _layers[0]
+     *  is the reflector. */
+    private final int[][] _layers;
+
+    /** Setting of each slot at which _layers was built, or -1. */
+    private final int[] _layerSettings;
+
+    /** Encoded slow-rotor settings of each cached core table, or -1. */
+    private final long[] _codes;
+
+    /** Cached core tables. */
+    private final int[][] _tables;
+
+    /** Cache slot to be filled next. */
+    private int _victim;
+
+    /** Stepping rule of the current rotor order. */
+    private Stepping _stepping;
+
+    /** Table lookups so far. */
+    private long _lookups;
+}
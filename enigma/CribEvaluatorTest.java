@@ -0,0 +1,110 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of Gray-code key order and the incremental crib evaluator.
+ *  @author William Tai
+ */
+public class CribEvaluatorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** A configuration over A-H with 24 rotor orders of 512 settings. */
+    private static final String CONFIG =
+        "A-H 4 2"
+        + " R R (AB) (CD) (EF) (GH)"
+        + " S R (AH) (BG) (CF) (DE)"
+        + " F N (ABC)"
+        + " G N (DEFGH)"
+        + " X MB (AFB) (CEH)"
+        + " Y MAE (ABCDEFGH)"
+        + " Z MC (AD) (BCG)";
+
+    @Test
+    public void testGrayOrder() {
+        KeySpace keys = new KeySpace(
+            Configuration.read(new Scanner(CONFIG)));
+        int[] previous = new int[3], setting = new int[3];
+        HashSet<Long> seen = new HashSet<>();
+        for (long rank = 0; rank < keys.count(); rank += 1) {
+            int order = keys.graySetting(rank, setting);
+            assertEquals(rank / keys.settings(), order);
+            assertTrue(seen.add(keys.key(order, setting)));
+            if (rank % keys.settings() != 0) {
+                int changed = 0;
+                for (int k = 0; k < 3; k += 1) {
+                    int d = Math.abs(setting[k] - previous[k]);
+                    assertTrue(d <= 1);
+                    changed += d;
+                }
+                assertEquals(1, changed);
+            }
+            System.arraycopy(setting, 0, previous, 0, 3);
+        }
+        assertEquals(keys.count(), seen.size());
+    }
+
+    @Test
+    public void testMatches() {
+        checkMatches("");
+    }
+
+    @Test
+    public void testMatchesWithPlugboard() {
+        checkMatches("(AE) (BG) (CH)");
+    }
+
+    /** Check the evaluator's matches for every key of CONFIG against a
+     *  machine's, both with the plugboard CYCLES. */
+    private static void checkMatches(String cycles) {
+        Configuration config = Configuration.read(new Scanner(CONFIG));
+        KeySpace keys = new KeySpace(config);
+        Machine machine = config.newMachine();
+        String crib = "HEADBAGGEDCABBAGEFACADE";
+        Configuration.setUp(machine, "* S G Y X CAH (AE) (BG)");
+        String cipher = machine.convert(crib);
+        Machine reference = config.newMachine();
+        Permutation plugboard = new Permutation(cycles, config.alphabet());
+        reference.setPlugboard(plugboard);
+        machine.insertRotors(keys.order(0));
+        machine.setPlugboard(plugboard);
+        CribEvaluator evaluator =
+            new CribEvaluator(machine, indices(crib), indices(cipher));
+        int[] setting = new int[3];
+        int order = -1;
+        long lookups = 0;
+        for (long rank = 0; rank < keys.count(); rank += 1) {
+            int o = keys.graySetting(rank, setting);
+            if (o != order) {
+                order = o;
+                machine.insertRotors(keys.order(order));
+                evaluator.reset();
+            }
+            long before = evaluator.lookups();
+            int matches = evaluator.matches(setting);
+            lookups += evaluator.lookups() - before;
+            reference.insertRotors(keys.order(order));
+            reference.setRotors(setting);
+            String plain = reference.convert(crib);
+            int expected = 0;
+            for (int k = 0; k < crib.length(); k += 1) {
+                if (plain.charAt(k) == cipher.charAt(k)) {
+                    expected += 1;
+                }
+            }
+            assertEquals(expected, matches);
+        }
+        long naive = keys.count() * crib.length() * 7;
+        assertTrue(lookups * 3 < naive);
+    }
+}
@@ -0,0 +1,328 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A sorted, memory-mapped index from the encipherment of a crib to the
+ *  keys that produce it.  For each rotor order a configuration allows and
+ *  each setting of its rotors, a machine with an empty plugboard
+ *  enciphers the crib; the index holds the first prefixLength()
+ *  characters of the result, as a number in base alphabet size, with the
+ *  key, sorted by that number.  The keys under which an intercepted
+ *  message could begin with the crib are then found by binary search.
+ *
+ *  The index is built in bounded memory: worker threads encipher
+ *  disjoint sets of rotor orders into an ExternalSort, whose merged
+ *  output is streamed into the index file.
+ *
+ *  File layout (big-endian): a 32-byte preamble (magic, version, alphabet
+ *  size, prefix length, record count, record offset), then the crib and
+ *  the KeySpace, then the sorted 16-byte records (prefix, key).
+ *  @author William Tai
+ */
+public final class CribIndex {
+
+    /** Build or query an index as specified by ARGS, which has one of the
+     *  forms
+     *      build CONFIG CRIB FILE
+     *      lookup FILE CIPHERTEXT
+     *  The first writes to FILE the index of CRIB for every rotor order and
+     *  setting of the machine configured by CONFIG.  The second prints the
+     *  keys, one per line as rotor names followed by rotor settings, under
+     *  which a message beginning with the crib enciphers to something
+     *  beginning with CIPHERTEXT (up to the index's prefix length). */
+    public static void main(String... args) {
+        try {
+            if (args.length == 4 && args[0].equals("build")) {
+                build(Configuration.read(args[1]), args[2],
+                      Paths.get(args[3]),
+                      Runtime.getRuntime().availableProcessors(),
+                      RUN_SIZE);
+            } else if (args.length == 3 && args[0].equals("lookup")) {
+                for (String key : open(Paths.get(args[1]))
+                         .lookup(args[2])) {
+                    System.out.println(key);
+                }
+            } else {
+                throw error("Usage: java enigma.CribIndex (build CONFIG "
+                            + "CRIB FILE | lookup FILE CIPHERTEXT)");
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write to FILE the index of CRIB under every rotor order and setting
+     *  allowed by CONFIG, using THREADS workers, each sorting RUNSIZE
+     *  records at a time. */
+    static void build(Configuration config, String crib, Path file,
+                      int threads, int runSize) {
+        Alphabet alphabet = config.alphabet();
+        String crib1 = crib.toUpperCase().replaceAll("\\s+", "");
+        int size = alphabet.size();
+        if (size < 2) {
+            throw error("alphabet too small to index");
+        }
+        int prefix = Math.min(crib1.length(), maxPrefix(size));
+        if (prefix == 0) {
+            throw error("empty crib");
+        }
+        int[] text = new int[prefix];
+        for (int k = 0; k < prefix; k += 1) {
+            text[k] = alphabet.toInt(crib1.charAt(k));
+        }
+        KeySpace keys = new KeySpace(config);
+        if (keys.count() > MAX_RECORDS) {
+            throw error("too many keys to index");
+        }
+        try (ExternalSort sort = new ExternalSort(
+                 file.toAbsolutePath().getParent(), runSize)) {
+            AtomicInteger next = new AtomicInteger();
+            sort.fill(threads, out -> encipher(config, keys, text, next,
+                                               out));
+            byte[] header = header(crib1, keys);
+            long offset = align(PREAMBLE + header.length);
+            try (DataOutputStream out = ExternalSort.output(file)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                out.writeInt(prefix);
+                out.writeLong(keys.count());
+                out.writeLong(offset);
+                out.write(header);
+                out.write(new byte[(int) (offset - PREAMBLE
+                                          - header.length)]);
+                sort.merge((value, key) -> {
+                    out.writeLong(value);
+                    out.writeLong(key);
+                });
+            }
+        } catch (IOException excp) {
+            throw error("could not write crib index %s", file);
+        }
+    }
+
+    /** Return the longest prefix, in characters of an alphabet of SIZE
+     *  characters, whose value fits in a long. */
+    private static int maxPrefix(int size) {
+        int result = 0;
+        for (long p = 1; p <= Long.MAX_VALUE / size; p *= size) {
+            result += 1;
+        }
+        return result;
+    }
+
+    /** Encipher TEXT under each key of KEYS whose rotor order index NEXT
+     *  yields, on a machine configured by CONFIG, adding the (prefix, key)
+     *  records to OUT. */
+    private static void encipher(Configuration config, KeySpace keys,
+                                 int[] text, AtomicInteger next,
+                                 ExternalSort.Sink out)
+        throws IOException {
+        Machine machine = config.newMachine();
+        int size = keys.size();
+        int[] buf = new int[text.length];
+        int[] setting = new int[keys.numRotors() - 1];
+        for (int o = next.getAndIncrement(); o < keys.orders();
+             o = next.getAndIncrement()) {
+            machine.insertRotors(keys.order(o));
+            long key = keys.key(o, setting);
+            for (long s = 0; s < keys.settings(); s += 1) {
+                machine.setRotors(setting);
+                System.arraycopy(text, 0, buf, 0, text.length);
+                machine.convert(buf);
+                long value = 0;
+                for (int c : buf) {
+                    value = value * size + c;
+                }
+                out.accept(value, key + s);
+                keys.nextSetting(setting);
+            }
+        }
+    }
+
+    /** Return the variable part of the header: CRIB and KEYS. */
+    private static byte[] header(String crib, KeySpace keys)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(crib);
+        keys.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Return P rounded up to a multiple of 8. */
+    private static long align(long p) {
+        return (p + 7) & ~7L;
+    }
+
+    /** An index whose preamble and header are in HEAD and whose records
+     *  are mapped in SEGMENTS. */
+    private CribIndex(ByteBuffer head, MappedByteBuffer[] segments)
+        throws IOException {
+        _size = head.getInt(8);
+        _prefixLength = head.getInt(12);
+        _count = head.getLong(16);
+        _segments = segments;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+            head.array(), PREAMBLE, head.capacity() - PREAMBLE));
+        _crib = in.readUTF();
+        _keys = KeySpace.read(in);
+    }
+
+    /** Return the index in FILE, mapped read-only. */
+    static CribIndex open(Path file) {
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE);
+            in.read(preamble, 0);
+            if (preamble.getInt(0) != MAGIC
+                || preamble.getInt(4) != VERSION) {
+                throw error("not a crib index");
+            }
+            long count = preamble.getLong(16);
+            long offset = preamble.getLong(24);
+            if (offset + count * RECORD > in.size()) {
+                throw error("crib index %s is truncated", file);
+            }
+            ByteBuffer head = ByteBuffer.allocate((int) offset);
+            in.read(head, 0);
+            int n = (int) ((count + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[n];
+            for (int s = 0; s < n; s += 1) {
+                long first = (long) s * SEGMENT_RECORDS;
+                long len = Math.min(SEGMENT_RECORDS, count - first);
+                segments[s] = in.map(FileChannel.MapMode.READ_ONLY,
+                                     offset + first * RECORD, len * RECORD);
+            }
+            return new CribIndex(head, segments);
+        } catch (IOException excp) {
+            throw error("could not open crib index %s", file);
+        }
+    }
+
+    /** Return the crib I index. */
+    String crib() {
+        return _crib;
+    }
+
+    /** Return the number of ciphertext characters I record per key. */
+    int prefixLength() {
+        return _prefixLength;
+    }
+
+    /** Return the number of keys I hold. */
+    long size() {
+        return _count;
+    }
+
+    /** Return the keys, as rotor names followed by rotor settings (as in
+     *  a settings line, without its leading '*' and plugboard), under
+     *  which the crib enciphers with an empty plugboard to text beginning
+     *  with CIPHERTEXT.  Characters of CIPHERTEXT beyond prefixLength()
+     *  are ignored. */
+    List<String> lookup(String ciphertext) {
+        String msg = ciphertext.toUpperCase().replaceAll("\\s+", "");
+        int len = Math.min(msg.length(), _prefixLength);
+        if (len == 0) {
+            throw error("empty ciphertext");
+        }
+        long lo = 0;
+        for (int k = 0; k < len; k += 1) {
+            lo = lo * _size + _keys.index(msg.charAt(k));
+        }
+        long scale = 1;
+        for (int k = len; k < _prefixLength; k += 1) {
+            scale *= _size;
+        }
+        lo *= scale;
+        ArrayList<String> result = new ArrayList<>();
+        long end = lowerBound(lo + scale);
+        for (long i = lowerBound(lo); i < end; i += 1) {
+            result.add(_keys.describe(key(i)));
+        }
+        return result;
+    }
+
+    /** Return the index of the first record whose prefix is at least
+     *  VALUE, or size() if there is none. */
+    private long lowerBound(long value) {
+        long lo = 0, hi = _count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (prefix(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the prefix of record I. */
+    private long prefix(long i) {
+        return _segments[(int) (i / SEGMENT_RECORDS)]
+            .getLong((int) (i % SEGMENT_RECORDS) * RECORD);
+    }
+
+    /** Return the key of record I. */
+    private long key(long i) {
+        return _segments[(int) (i / SEGMENT_RECORDS)]
+            .getLong((int) (i % SEGMENT_RECORDS) * RECORD + Long.BYTES);
+    }
+
+    /** Leading tag of a crib index file ("ENCI"). */
+    private static final int MAGIC = 0x454e4349;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the fixed part of the header. */
+    private static final int PREAMBLE = 32;
+
+    /** Bytes per record. */
+    private static final int RECORD = 16;
+
+    /** Records per mapped segment. */
+    private static final long SEGMENT_RECORDS = 1L << 26;
+
+    /** Largest number of records indexed. */
+    private static final long MAX_RECORDS = 1L << 40;
+
+    /** Records sorted at a time by each worker. */
+    private static final int RUN_SIZE = 1 << 20;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Characters of ciphertext recorded per key. */
+    private final int _prefixLength;
+
+    /** Number of records. */
+    private final long _count;
+
+    /** The crib. */
+    private final String _crib;
+
+    /** The keys I refer to. */
+    private final KeySpace _keys;
+
+    /** The mapped records. */
+    private final MappedByteBuffer[] _segments;
+}
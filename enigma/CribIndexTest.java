@@ -0,0 +1,74 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the sorted crib index.
+ *  @author William Tai
+ */
+public class CribIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** A configuration over A-H with 2 * 2 * 3 * 2 = 24 rotor orders of
+     *  8 * 8 * 8 = 512 settings each. */
+    private static final String CONFIG =
+        "A-H 4 2"
+        + " R R (AB) (CD) (EF) (GH)"
+        + " S R (AH) (BG) (CF) (DE)"
+        + " F N (ABC)"
+        + " G N (DEFGH)"
+        + " X MB (AFB) (CEH)"
+        + " Y MAE (ABCDEFGH)"
+        + " Z MC (AD) (BCG)";
+
+    @Test
+    public void testLookup() throws IOException {
+        Configuration config = Configuration.read(new Scanner(CONFIG));
+        assertEquals(24, config.rotorOrders().size());
+        Path file = tempFile();
+        CribIndex.build(config, "HEADBAGGED", file, 3, 37);
+        CribIndex index = CribIndex.open(file);
+        assertEquals(24 * 512, index.size());
+        assertEquals("HEADBAGGED", index.crib());
+
+        Machine machine = config.newMachine();
+        String[] keys = {"S G Y X CAH", "R F Z Y AAA", "R G X Z HHH"};
+        for (String key : keys) {
+            Configuration.setUp(machine, "* " + key);
+            String cipher = machine.convert("HEADBAGGED");
+            List<String> found = index.lookup(cipher);
+            assertTrue(found.contains(key));
+            for (String other : found) {
+                Configuration.setUp(machine, "* " + other);
+                assertEquals(cipher, machine.convert("HEADBAGGED"));
+            }
+            int shorter = index.lookup(cipher.substring(0, 3)).size();
+            assertTrue(shorter >= found.size());
+        }
+    }
+
+    @Test
+    public void testPrefixCounts() throws IOException {
+        Configuration config = Configuration.read(new Scanner(CONFIG));
+        Path file = tempFile();
+        CribIndex.build(config, "CAB", file, 2, 1000);
+        CribIndex index = CribIndex.open(file);
+        long total = 0;
+        for (char c = 'A'; c <= 'H'; c += 1) {
+            total += index.lookup(String.valueOf(c)).size();
+        }
+        assertEquals(index.size(), total);
+    }
+}
@@ -0,0 +1,532 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A catalogue of the keys of a configuration by the cycle structure of
+ *  their "characteristic", after Rejewski.  With its rotors set to a key
+ *  and an empty plugboard, a machine applies permutations A1, ..., A6 to
+ *  the first six characters it converts.  When a message key is
+ *  enciphered twice at the start of a message, the first and fourth
+ *  ciphertext characters are related by the composite of A1 and A4 (AD),
+ *  and likewise the second and fifth by BE and the third and sixth by CF.
+ *  Enough such indicators from one day's traffic determine AD, BE and CF
+ *  up to conjugation by the unknown plugboard, which leaves the lengths of
+ *  their cycles unchanged.  The catalogue maps those cycle lengths to the
+ *  keys that produce them, so no crib is needed.
+ *
+ *  The cycle lengths of a permutation of N characters form a partition of
+ *  N; a signature packs the ranks of the three partitions, among all
+ *  partitions of N, into a long.  Signatures are computed in parallel
+ *  without allocation per key and sorted with an ExternalSort.
+ *
+ *  File layout (big-endian): a 40-byte preamble (magic, version, alphabet
+ *  size, number of distinct signatures, number of keys, key offset,
+ *  directory offset), then the KeySpace, then the keys as unsigned ints
+ *  grouped by signature, then the directory: a (signature, index of first
+ *  key) pair of longs for each distinct signature, in increasing order.
+ *  @author William Tai
+ */
+public final class CycleCatalogue {
+
+    /** Build or query a catalogue as specified by ARGS, which has one of
+     *  the forms
+     *      build CONFIG FILE
+     *      lookup FILE LENGTHS
+     *      indicators FILE INDICATORS
+     *  The first writes to FILE the catalogue of every key of the machine
+     *  configured by CONFIG.  The others print the keys, one per line as
+     *  rotor names followed by rotor settings, whose characteristic has
+     *  the given cycle lengths: LENGTHS lists those of AD, BE and CF
+     *  separated by '/', each as space- or comma-separated numbers (e.g.
+     *  "13,13/10,10,3,3/12,12,1,1"); the file INDICATORS holds doubled
+     *  message keys, one per line, from which they are computed. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 3 && args[0].equals("build")) {
+                build(Configuration.read(args[1]), Paths.get(args[2]),
+                      Runtime.getRuntime().availableProcessors(),
+                      RUN_SIZE);
+                return;
+            }
+            if (args.length != 3 || !(args[0].equals("lookup")
+                                      || args[0].equals("indicators"))) {
+                throw error("Usage: java enigma.CycleCatalogue (build "
+                            + "CONFIG FILE | lookup FILE LENGTHS | "
+                            + "indicators FILE INDICATORS)");
+            }
+            CycleCatalogue catalogue = open(Paths.get(args[1]));
+            long signature;
+            if (args[0].equals("lookup")) {
+                signature = catalogue.signature(args[2]);
+            } else {
+                try {
+                    signature = catalogue.signature(
+                        Files.readAllLines(Paths.get(args[2])));
+                } catch (IOException excp) {
+                    throw error("could not open %s", args[2]);
+                }
+            }
+            for (String key : catalogue.lookup(signature)) {
+                System.out.println(key);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Write to FILE the catalogue of every key of machines configured by
+     *  CONFIG, using THREADS workers, each sorting RUNSIZE records at a
+     *  time. */
+    static void build(Configuration config, Path file, int threads,
+                      int runSize) {
+        KeySpace keys = new KeySpace(config);
+        long[][] partitions = partitions(keys.size());
+        if (keys.count() > MAX_KEYS) {
+            throw error("too many keys to catalogue");
+        }
+        try (ExternalSort sort = new ExternalSort(
+                 file.toAbsolutePath().getParent(), runSize)) {
+            AtomicInteger next = new AtomicInteger();
+            sort.fill(threads, out -> characterize(config, keys, partitions,
+                                                   next, out));
+            write(file, keys, sort);
+        } catch (IOException excp) {
+            throw error("could not write catalogue %s", file);
+        }
+    }
+
+    /** Add the (signature, key) record of each key of KEYS whose rotor
+     *  order index NEXT yields to OUT, using a machine configured by
+     *  CONFIG and the partition counts PARTITIONS. */
+    private static void characterize(Configuration config, KeySpace keys,
+                                     long[][] partitions, AtomicInteger next,
+                                     ExternalSort.Sink out)
+        throws IOException {
+        Machine machine = config.newMachine();
+        int size = keys.size();
+        long base = partitions[size][size];
+        int[][] tables = new int[2 * PAIRS][size];
+        int[] composite = new int[size];
+        boolean[] seen = new boolean[size];
+        int[] counts = new int[size + 1];
+        int[] setting = new int[keys.numRotors() - 1];
+        for (int o = next.getAndIncrement(); o < keys.orders();
+             o = next.getAndIncrement()) {
+            machine.insertRotors(keys.order(o));
+            long key = keys.key(o, setting);
+            for (long s = 0; s < keys.settings(); s += 1) {
+                machine.setRotors(setting);
+                for (int j = 0; j < tables.length; j += 1) {
+                    machine.step();
+                    machine.coreTable(tables[j]);
+                }
+                long signature = 0;
+                for (int j = 0; j < PAIRS; j += 1) {
+                    int[] first = tables[j], second = tables[j + PAIRS];
+                    for (int x = 0; x < size; x += 1) {
+                        composite[x] = second[first[x]];
+                    }
+                    signature = signature * base
+                        + rank(composite, seen, counts, partitions);
+                }
+                out.accept(signature, key + s);
+                keys.nextSetting(setting);
+            }
+        }
+    }
+
+    /** Return a table whose [M][K] entry is the number of partitions of M
+     *  into parts of at most K, for 0 <= M, K <= N, checking that
+     *  signatures over N characters fit in a long. */
+    static long[][] partitions(int n) {
+        long[][] p = new long[n + 1][n + 1];
+        Arrays.fill(p[0], 1);
+        for (int m = 1; m <= n; m += 1) {
+            for (int k = 1; k <= n; k += 1) {
+                p[m][k] = p[m][k - 1] + (k <= m ? p[m - k][k] : 0);
+            }
+        }
+        long all = p[n][n];
+        if (all > Math.cbrt(Long.MAX_VALUE)) {
+            throw error("alphabet too large to catalogue");
+        }
+        return p;
+    }
+
+    /** Return the rank, among partitions of its size counted by
+     *  PARTITIONS, of the cycle lengths of PERM, using SEEN and COUNTS,
+     *  of lengths PERM.length and PERM.length + 1, as scratch. */
+    private static long rank(int[] perm, boolean[] seen, int[] counts,
+                             long[][] partitions) {
+        Arrays.fill(seen, false);
+        Arrays.fill(counts, 0);
+        for (int x = 0; x < perm.length; x += 1) {
+            if (!seen[x]) {
+                int len = 0;
+                for (int y = x; !seen[y]; y = perm[y]) {
+                    seen[y] = true;
+                    len += 1;
+                }
+                counts[len] += 1;
+            }
+        }
+        return rank(counts, partitions);
+    }
+
+    /** Return the rank, among partitions of its sum counted by
+     *  PARTITIONS, of the partition with COUNTS[L] parts of length L.
+     *  Partitions are ordered by their largest part, then their next
+     *  largest, and so on. */
+    private static long rank(int[] counts, long[][] partitions) {
+        long result = 0;
+        int m = counts.length - 1;
+        for (int len = counts.length - 1; len > 0; len -= 1) {
+            for (int c = 0; c < counts[len]; c += 1) {
+                result += partitions[m][len - 1];
+                m -= len;
+            }
+        }
+        return result;
+    }
+
+    /** Write the catalogue of KEYS, whose (signature, key) records SORT
+     *  holds, to FILE. */
+    private static void write(Path file, KeySpace keys, ExternalSort sort)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        keys.write(header);
+        header.flush();
+        long keyOffset = align(PREAMBLE + bytes.size());
+        long dirOffset = align(keyOffset + 4 * keys.count());
+        try (FileChannel out = FileChannel.open(file, CREATE, WRITE,
+                                                TRUNCATE_EXISTING)) {
+            out.position(keyOffset);
+            KeyWriter writer = new KeyWriter(out);
+            sort.merge(writer);
+            writer.finish(dirOffset);
+            ByteBuffer buf = ByteBuffer.allocate(PREAMBLE + bytes.size());
+            buf.putInt(MAGIC).putInt(VERSION).putInt(keys.size());
+            buf.putInt(writer._distinct).putLong(writer._total);
+            buf.putLong(keyOffset).putLong(dirOffset);
+            buf.put(bytes.toByteArray());
+            out.position(0);
+            drain(buf, out);
+        }
+    }
+
+    /** Writes keys, grouped by signature, and then the directory. */
+    private static final class KeyWriter implements ExternalSort.Sink {
+
+        /** A writer of keys to OUT, from its current position. */
+        KeyWriter(FileChannel out) {
+            _out = out;
+        }
+
+        @Override
+        public void accept(long signature, long key) throws IOException {
+            if (_total == 0
+                || _directory[2 * _distinct - 2] != signature) {
+                if (2 * _distinct == _directory.length) {
+                    _directory = Arrays.copyOf(_directory,
+                                               2 * _directory.length);
+                }
+                _directory[2 * _distinct] = signature;
+                _directory[2 * _distinct + 1] = _total;
+                _distinct += 1;
+            }
+            if (_buf.remaining() < Integer.BYTES) {
+                drain(_buf, _out);
+            }
+            _buf.putInt((int) key);
+            _total += 1;
+        }
+
+        /** Write out the remaining keys, and the directory at
+         *  DIROFFSET. */
+        void finish(long dirOffset) throws IOException {
+            drain(_buf, _out);
+            _out.position(dirOffset);
+            for (int d = 0; d < 2 * _distinct; d += 1) {
+                if (_buf.remaining() < Long.BYTES) {
+                    drain(_buf, _out);
+                }
+                _buf.putLong(_directory[d]);
+            }
+            drain(_buf, _out);
+        }
+
+        /** Destination. */
+        private final FileChannel _out;
+
+        /** Output buffer. */
+        private final ByteBuffer _buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** (signature, first key index) pairs so far. */
+        private long[] _directory = new long[DIRECTORY_CHUNK];
+
+        /** Number of distinct signatures so far. */
+        private int _distinct;
+
+        /** Number of keys so far. */
+        private long _total;
+    }
+
+    /** Write the contents of BUF to OUT and clear it. */
+    private static void drain(ByteBuffer buf, FileChannel out)
+        throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    /** Return P rounded up to a multiple of 8. */
+    private static long align(long p) {
+        return (p + 7) & ~7L;
+    }
+
+    /** A catalogue of the key space KEYS whose directory lists the
+     *  SIGNATURES of the keys starting at STARTS, and whose TOTAL keys are
+     *  mapped in SEGMENTS. */
+    private CycleCatalogue(KeySpace keys, long[] signatures, long[] starts,
+                           long total, MappedByteBuffer[] segments) {
+        _keys = keys;
+        _partitions = partitions(keys.size());
+        _signatures = signatures;
+        _starts = starts;
+        _total = total;
+        _segments = segments;
+    }
+
+    /** Return the catalogue in FILE, mapped read-only. */
+    static CycleCatalogue open(Path file) {
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE);
+            in.read(preamble, 0);
+            if (preamble.getInt(0) != MAGIC
+                || preamble.getInt(4) != VERSION) {
+                throw error("not a cycle catalogue");
+            }
+            int distinct = preamble.getInt(12);
+            long total = preamble.getLong(16);
+            long keyOffset = preamble.getLong(24);
+            long dirOffset = preamble.getLong(32);
+            if (dirOffset + 16L * distinct > in.size()) {
+                throw error("catalogue %s is truncated", file);
+            }
+            KeySpace keys = KeySpace.read(new DataInputStream(
+                new ByteArrayInputStream(read(in, PREAMBLE,
+                                              keyOffset - PREAMBLE))));
+            ByteBuffer dir = ByteBuffer.wrap(read(in, dirOffset,
+                                                  16L * distinct));
+            long[] signatures = new long[distinct];
+            long[] starts = new long[distinct];
+            for (int d = 0; d < distinct; d += 1) {
+                signatures[d] = dir.getLong(16 * d);
+                starts[d] = dir.getLong(16 * d + 8);
+            }
+            int n = (int) ((total + SEGMENT_KEYS - 1) / SEGMENT_KEYS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[n];
+            for (int s = 0; s < n; s += 1) {
+                long first = (long) s * SEGMENT_KEYS;
+                long len = Math.min(SEGMENT_KEYS, total - first);
+                segments[s] = in.map(FileChannel.MapMode.READ_ONLY,
+                                     keyOffset + 4 * first, 4 * len);
+            }
+            return new CycleCatalogue(keys, signatures, starts, total,
+                                      segments);
+        } catch (IOException excp) {
+            throw error("could not open catalogue %s", file);
+        }
+    }
+
+    /** Return the LEN bytes of IN starting at OFFSET. */
+    private static byte[] read(FileChannel in, long offset, long len)
+        throws IOException {
+        if (len > Integer.MAX_VALUE) {
+            throw error("catalogue header too large");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) len);
+        while (buf.hasRemaining()
+               && in.read(buf, offset + buf.position()) > 0) {
+            continue;
+        }
+        return buf.array();
+    }
+
+    /** Return the number of keys I hold. */
+    long size() {
+        return _total;
+    }
+
+    /** Return the number of distinct signatures among my keys. */
+    int signatures() {
+        return _signatures.length;
+    }
+
+    /** Return the signature whose cycle lengths are given by LENGTHS, in
+     *  the form described in main. */
+    long signature(String lengths) {
+        String[] groups = lengths.trim().split("\\s*/\\s*");
+        if (groups.length != PAIRS) {
+            throw error("expected %d groups of cycle lengths", PAIRS);
+        }
+        long result = 0;
+        int size = _keys.size();
+        for (String group : groups) {
+            int[] counts = new int[size + 1];
+            int sum = 0;
+            for (String len : group.split("[\\s,]+")) {
+                int k;
+                try {
+                    k = Integer.parseInt(len);
+                } catch (NumberFormatException excp) {
+                    throw error("bad cycle length: %s", len);
+                }
+                if (k <= 0 || k > size - sum) {
+                    throw error("cycle lengths must sum to %d", size);
+                }
+                counts[k] += 1;
+                sum += k;
+            }
+            if (sum != size) {
+                throw error("cycle lengths must sum to %d", size);
+            }
+            result = result * _partitions[size][size]
+                + rank(counts, _partitions);
+        }
+        return result;
+    }
+
+    /** Return the signature of the characteristic determined by the
+     *  doubled message keys INDICATORS (blank lines are ignored). */
+    long signature(List<String> indicators) {
+        int size = _keys.size();
+        int[][] perms = new int[PAIRS][size];
+        for (int[] perm : perms) {
+            Arrays.fill(perm, -1);
+        }
+        for (String line : indicators) {
+            String indicator = line.toUpperCase().replaceAll("\\s+", "");
+            if (indicator.isEmpty()) {
+                continue;
+            }
+            if (indicator.length() != 2 * PAIRS) {
+                throw error("indicator %s is not %d characters long",
+                            indicator, 2 * PAIRS);
+            }
+            for (int j = 0; j < PAIRS; j += 1) {
+                int from = _keys.index(indicator.charAt(j));
+                int to = _keys.index(indicator.charAt(j + PAIRS));
+                if (perms[j][from] >= 0 && perms[j][from] != to) {
+                    throw error("inconsistent indicator %s", indicator);
+                }
+                perms[j][from] = to;
+            }
+        }
+        long result = 0;
+        for (int[] perm : perms) {
+            boolean[] seen = new boolean[size];
+            for (int x = 0; x < size; x += 1) {
+                if (perm[x] < 0) {
+                    throw error("indicators do not determine the "
+                                + "characteristic");
+                }
+                if (seen[perm[x]]) {
+                    throw error("inconsistent indicators");
+                }
+                seen[perm[x]] = true;
+            }
+            result = result * _partitions[size][size]
+                + rank(perm, seen, new int[size + 1], _partitions);
+        }
+        return result;
+    }
+
+    /** Return the keys, as described by KeySpace.describe, whose
+     *  characteristic has SIGNATURE. */
+    List<String> lookup(long signature) {
+        ArrayList<String> result = new ArrayList<>();
+        int d = Arrays.binarySearch(_signatures, signature);
+        if (d >= 0) {
+            long end = d + 1 < _starts.length ? _starts[d + 1] : _total;
+            for (long i = _starts[d]; i < end; i += 1) {
+                result.add(_keys.describe(key(i)));
+            }
+        }
+        return result;
+    }
+
+    /** Return key I, in signature order. */
+    private long key(long i) {
+        return _segments[(int) (i / SEGMENT_KEYS)]
+            .getInt((int) (i % SEGMENT_KEYS) * Integer.BYTES) & 0xffffffffL;
+    }
+
+    /** Leading tag of a catalogue file ("ENCY"). */
+    private static final int MAGIC = 0x454e4359;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the fixed part of the header. */
+    private static final int PREAMBLE = 40;
+
+    /** Number of composites in a characteristic (AD, BE, CF). */
+    private static final int PAIRS = 3;
+
+    /** Largest number of keys catalogued (keys are stored as unsigned
+     *  ints). */
+    private static final long MAX_KEYS = 1L << 32;
+
+    /** Keys per mapped segment. */
+    private static final long SEGMENT_KEYS = 1L << 28;
+
+    /** Records sorted at a time by each worker. */
+    private static final int RUN_SIZE = 1 << 20;
+
+    /** Size of the I/O buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Initial directory capacity, in longs. */
+    private static final int DIRECTORY_CHUNK = 1 << 12;
+
+    /** The keys I refer to. */
+    private final KeySpace _keys;
+
+    /** Partition counts for my alphabet size (see partitions). */
+    private final long[][] _partitions;
+
+    /** Distinct signatures, in increasing order. */
+    private final long[] _signatures;
+
+    /** Index of the first key with each signature. */
+    private final long[] _starts;
+
+    /** Number of keys. */
+    private final long _total;
+
+    /** The mapped keys. */
+    private final MappedByteBuffer[] _segments;
+}
@@ -0,0 +1,102 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the cycle-structure catalogue.
+ *  @author William Tai
+ */
+public class CycleCatalogueTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** A configuration over A-H with 24 rotor orders of 512 settings
+     *  each. */
+    private static final String CONFIG =
+        "A-H 4 2"
+        + " R R (AB) (CD) (EF) (GH)"
+        + " S R (AH) (BG) (CF) (DE)"
+        + " F N (ABC)"
+        + " G N (DEFGH)"
+        + " X MB (AFB) (CEH)"
+        + " Y MAE (ABCDEFGH)"
+        + " Z MC (AD) (BCG)";
+
+    /** Return a catalogue of CONFIG, built with small runs. */
+    private static CycleCatalogue catalogue() throws IOException {
+        Path file = tempFile();
+        CycleCatalogue.build(Configuration.read(new Scanner(CONFIG)),
+                             file, 3, 500);
+        return CycleCatalogue.open(file);
+    }
+
+    @Test
+    public void testIndicators() throws IOException {
+        CycleCatalogue catalogue = catalogue();
+        assertEquals(24 * 512, catalogue.size());
+        Machine machine =
+            Configuration.read(new Scanner(CONFIG)).newMachine();
+        String[] keys = {"S G Y X CAH", "R F Z Y AAA", "R G X Z HBE"};
+        for (String key : keys) {
+            List<String> indicators = new ArrayList<>();
+            for (char c = 'A'; c <= 'H'; c += 1) {
+                String doubled = "" + c + (char) ('A' + (c + 3) % 8)
+                    + (char) ('H' - c + 'A');
+                Configuration.setUp(machine, "* " + key + " (AE) (BG)");
+                indicators.add(machine.convert(doubled + doubled));
+            }
+            List<String> found =
+                catalogue.lookup(catalogue.signature(indicators));
+            assertTrue(found.contains(key));
+            assertTrue(found.size() < catalogue.size());
+        }
+    }
+
+    @Test
+    public void testLengths() throws IOException {
+        CycleCatalogue catalogue = catalogue();
+        assertEquals(catalogue.signature("4 4/2 2 2 2/1 1 3 3"),
+                     catalogue.signature("4,4 / 2,2,2,2 / 3,3,1,1"));
+        assertTrue(catalogue.signature("4 4/2 2 2 2/1 1 3 3")
+                   != catalogue.signature("4 4/2 2 2 2/2 2 2 2"));
+        long total = 0;
+        int[][] halves = {{4}, {3, 1}, {2, 2}, {2, 1, 1}, {1, 1, 1, 1}};
+        for (int[] a : halves) {
+            for (int[] b : halves) {
+                for (int[] c : halves) {
+                    total += catalogue.lookup(catalogue.signature(
+                        doubled(a) + "/" + doubled(b) + "/" + doubled(c)))
+                        .size();
+                }
+            }
+        }
+        assertEquals(catalogue.size(), total);
+    }
+
+    /** Return the cycle lengths HALF, each repeated, separated by
+     *  spaces. */
+    private static String doubled(int[] half) {
+        String result = "";
+        for (int len : half) {
+            result += len + " " + len + " ";
+        }
+        return result.trim();
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadLengths() throws IOException {
+        catalogue().signature("4 4/2 2 2/1 1 3 3");
+    }
+}
@@ -0,0 +1,85 @@
+package enigma;
+
+/** A candidate depth: two messages of an archive that appear to have been
+ *  enciphered with overlapping keystream.  Character K of the first
+ *  message lines up with character K + offset() of the second.
+ *  @author William Tai
+ */
+final class Depth implements Comparable<Depth> {
+
+    /** A candidate pairing message FIRST with SECOND at OFFSET, whose
+     *  overlap of OVERLAP characters has MATCHES coincidences, in an
+     *  alphabet of SIZE characters. */
+    Depth(int first, int second, int offset, int overlap, int matches,
+          int size) {
+        _first = first;
+        _second = second;
+        _offset = offset;
+        _overlap = overlap;
+        _matches = matches;
+        double p = 1.0 / size;
+        _score = (matches - overlap * p) / Math.sqrt(overlap * p * (1 - p));
+    }
+
+    /** Return the index of the first message. */
+    int first() {
+        return _first;
+    }
+
+    /** Return the index of the second message. */
+    int second() {
+        return _second;
+    }
+
+    /** Return the offset of the second message relative to the first. */
+    int offset() {
+        return _offset;
+    }
+
+    /** Return the number of characters compared. */
+    int overlap() {
+        return _overlap;
+    }
+
+    /** Return the number of coincidences in the overlap. */
+    int matches() {
+        return _matches;
+    }
+
+    /** Return the number of standard deviations by which matches()
+     *  exceeds its expectation for unrelated random texts. */
+    double score() {
+        return _score;
+    }
+
+    /** Orders candidates from most to least likely. */
+    @Override
+    public int compareTo(Depth other) {
+        int c = Double.compare(other._score, _score);
+        if (c == 0) {
+            c = Integer.compare(_first, other._first);
+        }
+        if (c == 0) {
+            c = Integer.compare(_second, other._second);
+        }
+        return c != 0 ? c : Integer.compare(_offset, other._offset);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d %d %d %d %d %.2f", _first, _second, _offset,
+                             _overlap, _matches, _score);
+    }
+
+    /** Message indices. */
+    private final int _first, _second;
+
+    /** Alignment of the second message. */
+    private final int _offset;
+
+    /** Characters compared and coincidences among them. */
+    private final int _overlap, _matches;
+
+    /** Significance of the coincidences. */
+    private final double _score;
+}
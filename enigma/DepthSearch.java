@@ -0,0 +1,464 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** Finds messages in an archive of ciphertexts that were enciphered with
+ *  overlapping keystream (that are "in depth").  Where two messages share
+ *  keystream, their ciphertexts agree wherever their plaintexts do, so
+ *  aligned characters coincide at the plaintext rate rather than at
+ *  1/(alphabet size); candidates are ranked by how far their coincidence
+ *  counts exceed the random expectation.
+ *
+ *  Messages are packed (see PackedText) so that coincidences are counted
+ *  a word of characters at a time.  Archives of at most exactLimit
+ *  messages are searched exhaustively: every pair at every offset up to
+ *  maxOffset.  Larger archives are bucketed first: each message's
+ *  GRAM-character substrings are indexed by hash, and only pairs that
+ *  share a substring, at the offset that aligns the two occurrences, are
+ *  counted in full.  This finds depths whose plaintexts share a phrase in
+ *  the overlap (stereotyped openings, call signs, repeated reports), at
+ *  any offset, while comparing far fewer than all pairs.  Substrings
+ *  occurring in more than bucketLimit places are not used to pair
+ *  messages.  Either way, the work is spread over the common ForkJoin pool.
+ *  @author William Tai
+ */
+public final class DepthSearch {
+
+    /** Search for depths as specified by ARGS, which has the form
+     *      [OPTION...] CONFIG ARCHIVE
+     *  CONFIG supplies the alphabet.  Each non-blank line of ARCHIVE is a
+     *  message (whitespace within it is ignored); messages are numbered
+     *  from 1 in order of appearance.  The options are --max-offset=N,
+     *  --top=N, --gram=N, --exact-limit=N, --bucket-limit=N and
+     *  --min-overlap=N, each setting the parameter of that name.  Prints
+     *  the best candidates, one per line, as
+     *      FIRST SECOND OFFSET OVERLAP MATCHES SCORE. */
+    public static void main(String... args) {
+        try {
+            ArrayList<String> rest = new ArrayList<>();
+            int[] values = new int[OPTIONS.length];
+            Arrays.fill(values, -1);
+            for (String arg : args) {
+                int k = option(arg);
+                if (k >= 0) {
+                    values[k] = value(arg);
+                } else {
+                    rest.add(arg);
+                }
+            }
+            if (rest.size() != 2) {
+                throw error("Usage: java enigma.DepthSearch [OPTION...] "
+                            + "CONFIG ARCHIVE");
+            }
+            Alphabet alphabet = Configuration.read(rest.get(0)).alphabet();
+            DepthSearch search = new DepthSearch(alphabet.size());
+            search.configure(values);
+            for (Depth depth
+                     : search.search(readArchive(rest.get(1), alphabet))) {
+                System.out.println(depth);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the index in OPTIONS of the option ARG, or -1 if ARG is
+     *  not an option. */
+    private static int option(String arg) {
+        for (int k = 0; k < OPTIONS.length; k += 1) {
+            if (arg.startsWith("--" + OPTIONS[k] + "=")) {
+                return k;
+            }
+        }
+        if (arg.startsWith("--")) {
+            throw error("unknown option: %s", arg);
+        }
+        return -1;
+    }
+
+    /** Return the non-negative value of the option ARG. */
+    private static int value(String arg) {
+        try {
+            int v = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            if (v >= 0) {
+                return v;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", arg);
+    }
+
+    /** Set my parameters from VALUES, indexed as OPTIONS, leaving those
+     *  that are negative unchanged. */
+    private void configure(int[] values) {
+        if (values[0] >= 0) {
+            setMaxOffset(values[0]);
+        }
+        if (values[1] >= 0) {
+            setTop(values[1]);
+        }
+        if (values[2] >= 0) {
+            setGram(values[2]);
+        }
+        if (values[3] >= 0) {
+            setExactLimit(values[3]);
+        }
+        if (values[4] >= 0) {
+            setBucketLimit(values[4]);
+        }
+        if (values[5] >= 0) {
+            setMinOverlap(values[5]);
+        }
+    }
+
+    /** Return the messages in the archive FILE as alphabet indices of
+     *  ALPHABET. */
+    static List<int[]> readArchive(String file, Alphabet alphabet) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(file));
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+        ArrayList<int[]> result = new ArrayList<>();
+        for (String line : lines) {
+            String msg = line.toUpperCase().replaceAll("\\s+", "");
+            if (msg.isEmpty()) {
+                continue;
+            }
+            int[] text = new int[msg.length()];
+            for (int k = 0; k < text.length; k += 1) {
+                text[k] = alphabet.toInt(msg.charAt(k));
+            }
+            result.add(text);
+        }
+        return result;
+    }
+
+    /** A search over messages in an alphabet of SIZE characters. */
+    DepthSearch(int size) {
+        _size = size;
+        _bits = PackedText.bitsFor(size);
+        if (_bits > PackedText.MAX_BITS) {
+            throw error("alphabet too large for depth search");
+        }
+    }
+
+    /** Compare messages at offsets of up to MAXOFFSET characters either
+     *  way in exhaustive searches. */
+    void setMaxOffset(int maxOffset) {
+        _maxOffset = maxOffset;
+    }
+
+    /** Report at most TOP candidates. */
+    void setTop(int top) {
+        _top = top;
+    }
+
+    /** Pair messages in bucketed searches by shared substrings of GRAM
+     *  characters. */
+    void setGram(int gram) {
+        if (gram < 1 || gram * _bits > Long.SIZE - 1) {
+            throw error("bad substring length: %d", gram);
+        }
+        _gram = gram;
+    }
+
+    /** Search archives of up to LIMIT messages exhaustively. */
+    void setExactLimit(int limit) {
+        _exactLimit = limit;
+    }
+
+    /** Ignore substrings with more than LIMIT occurrences when pairing. */
+    void setBucketLimit(int limit) {
+        _bucketLimit = limit;
+    }
+
+    /** Ignore alignments whose overlap is shorter than MINOVERLAP. */
+    void setMinOverlap(int minOverlap) {
+        _minOverlap = Math.max(1, minOverlap);
+    }
+
+    /** Return the best candidate depths among MESSAGES (each an array of
+     *  alphabet indices), most likely first.  Message numbers in the
+     *  result are 1 + their indices in MESSAGES. */
+    List<Depth> search(List<int[]> messages) {
+        if (messages.size() > MAX_MESSAGES) {
+            throw error("archive too large");
+        }
+        _texts = new PackedText[messages.size()];
+        for (int i = 0; i < _texts.length; i += 1) {
+            _texts[i] = new PackedText(messages.get(i), _bits);
+        }
+        int work;
+        if (_texts.length <= _exactLimit) {
+            _candidates = null;
+            work = _texts.length;
+        } else {
+            _candidates = candidates(messages);
+            work = _candidates.length;
+        }
+        ArrayList<Depth> result =
+            new ArrayList<>(ForkJoinPool.commonPool()
+                            .invoke(new Shard(0, work)));
+        Collections.sort(result);
+        _texts = null;
+        _candidates = null;
+        return result;
+    }
+
+    /** Return the distinct (first, second, offset) triples, encoded as by
+     *  candidate, of pairs of MESSAGES that share a substring of _gram
+     *  characters at the offset that aligns it, in increasing order. */
+    private long[] candidates(List<int[]> messages) {
+        int total = 0;
+        for (int[] text : messages) {
+            total += Math.max(0, Math.min(text.length, MAX_INDEXED)
+                              - _gram + 1);
+        }
+        long[] postings = new long[total];
+        int n = 0;
+        long mask = (1L << (_gram * _bits)) - 1;
+        for (int i = 0; i < messages.size(); i += 1) {
+            int[] text = messages.get(i);
+            long gram = 0;
+            for (int k = 0; k < Math.min(text.length, MAX_INDEXED); k += 1) {
+                gram = ((gram << _bits) | text[k]) & mask;
+                if (k + 1 >= _gram) {
+                    int p = k + 1 - _gram;
+                    postings[n] = ((gram * HASH_MULTIPLIER) >>> HASH_SHIFT)
+                        << (MESSAGE_BITS + POSITION_BITS)
+                        | (long) i << POSITION_BITS | p;
+                    n += 1;
+                }
+            }
+        }
+        Arrays.parallelSort(postings);
+
+        long pairs = 0;
+        for (int lo = 0, hi; lo < n; lo = hi) {
+            hi = bucketEnd(postings, lo, n);
+            if (hi - lo <= _bucketLimit) {
+                pairs += (long) (hi - lo) * (hi - lo - 1) / 2;
+            }
+        }
+        if (pairs > Integer.MAX_VALUE - 8) {
+            throw error("too many candidate pairs; lower --bucket-limit");
+        }
+        long[] result = new long[(int) pairs];
+        int m = 0;
+        for (int lo = 0, hi; lo < n; lo = hi) {
+            hi = bucketEnd(postings, lo, n);
+            if (hi - lo > _bucketLimit) {
+                continue;
+            }
+            for (int a = lo; a < hi; a += 1) {
+                for (int b = a + 1; b < hi; b += 1) {
+                    int first = message(postings[a]);
+                    int second = message(postings[b]);
+                    if (first != second) {
+                        result[m] = candidate(first, second,
+                                              position(postings[b])
+                                              - position(postings[a]));
+                        m += 1;
+                    }
+                }
+            }
+        }
+        Arrays.parallelSort(result, 0, m);
+        int distinct = 0;
+        for (int k = 0; k < m; k += 1) {
+            if (k == 0 || result[k] != result[k - 1]) {
+                result[distinct] = result[k];
+                distinct += 1;
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    /** Return the end of the run of POSTINGS[LO .. N-1] whose substring
+     *  hashes equal that of POSTINGS[LO]. */
+    private static int bucketEnd(long[] postings, int lo, int n) {
+        long hash = postings[lo] >>> (MESSAGE_BITS + POSITION_BITS);
+        int hi = lo + 1;
+        while (hi < n
+               && postings[hi] >>> (MESSAGE_BITS + POSITION_BITS) == hash) {
+            hi += 1;
+        }
+        return hi;
+    }
+
+    /** Return the message index of POSTING. */
+    private static int message(long posting) {
+        return (int) (posting >>> POSITION_BITS) & ((1 << MESSAGE_BITS) - 1);
+    }
+
+    /** Return the substring position of POSTING. */
+    private static int position(long posting) {
+        return (int) posting & ((1 << POSITION_BITS) - 1);
+    }
+
+    /** Return the encoding of the alignment of message FIRST with message
+     *  SECOND (FIRST < SECOND) at OFFSET. */
+    private static long candidate(int first, int second, int offset) {
+        return (long) first << (MESSAGE_BITS + OFFSET_BITS)
+            | (long) second << OFFSET_BITS | (offset + OFFSET_BIAS);
+    }
+
+    /** Add to BEST, which holds at most _top elements, the alignment of
+     *  message I with message J at OFFSET, if it overlaps enough and is
+     *  among the _top best seen.  The first SEED coincidences are the
+     *  shared substring that proposed the alignment, and are not counted
+     *  as evidence. */
+    private void compare(int i, int j, int offset, int seed,
+                         PriorityQueue<Depth> best) {
+        PackedText a = _texts[i], b = _texts[j];
+        int start = Math.max(0, -offset);
+        int len = Math.min(a.length() - start, b.length() - start - offset);
+        if (len - seed < _minOverlap || _top == 0) {
+            return;
+        }
+        int matches = a.coincidences(start, b, start + offset, len);
+        best.add(new Depth(i + 1, j + 1, offset, len - seed, matches - seed,
+                           _size));
+        if (best.size() > _top) {
+            best.poll();
+        }
+    }
+
+    /** The best candidates among a range of work items: first messages in
+     *  exhaustive searches, indices into _candidates in bucketed ones. */
+    private class Shard extends RecursiveTask<PriorityQueue<Depth>> {
+
+        /** RecursiveTask is serializable; shards are never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        /** The shard of work items LO .. HI-1. */
+        Shard(int lo, int hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected PriorityQueue<Depth> compute() {
+            if (_hi - _lo > grain()) {
+                int mid = (_lo + _hi) >>> 1;
+                Shard left = new Shard(_lo, mid);
+                left.fork();
+                PriorityQueue<Depth> best = new Shard(mid, _hi).compute();
+                for (Depth depth : left.join()) {
+                    best.add(depth);
+                    if (best.size() > _top) {
+                        best.poll();
+                    }
+                }
+                return best;
+            }
+            PriorityQueue<Depth> best =
+                new PriorityQueue<>(Comparator.reverseOrder());
+            for (int w = _lo; w < _hi; w += 1) {
+                if (_candidates == null) {
+                    for (int j = w + 1; j < _texts.length; j += 1) {
+                        for (int d = -_maxOffset; d <= _maxOffset; d += 1) {
+                            compare(w, j, d, 0, best);
+                        }
+                    }
+                } else {
+                    long c = _candidates[w];
+                    compare((int) (c >>> (MESSAGE_BITS + OFFSET_BITS)),
+                            (int) (c >>> OFFSET_BITS)
+                            & ((1 << MESSAGE_BITS) - 1),
+                            (int) (c & ((1L << OFFSET_BITS) - 1))
+                            - OFFSET_BIAS, _gram, best);
+                }
+            }
+            return best;
+        }
+
+        /** Return the number of work items worth a task of their own. */
+        private int grain() {
+            return _candidates == null ? 1 : CANDIDATE_GRAIN;
+        }
+
+        /** Bounds of my work items. */
+        private final int _lo, _hi;
+    }
+
+    /** Option names, in the order configure expects their values. */
+    private static final String[] OPTIONS = {
+        "max-offset", "top", "gram", "exact-limit", "bucket-limit",
+        "min-overlap",
+    };
+
+    /** Bits of a posting or candidate holding a message index. */
+    private static final int MESSAGE_BITS = 20;
+
+    /** Bits of a posting holding a substring position. */
+    private static final int POSITION_BITS = 18;
+
+    /** Bits of a candidate holding its (biased) offset. */
+    private static final int OFFSET_BITS = 24;
+
+    /** Added to offsets to make them non-negative. */
+    private static final int OFFSET_BIAS = 1 << (OFFSET_BITS - 1);
+
+    /** Largest number of messages searched. */
+    private static final int MAX_MESSAGES = 1 << MESSAGE_BITS;
+
+    /** Substrings are indexed only if they start before this position. */
+    private static final int MAX_INDEXED = 1 << POSITION_BITS;
+
+    /** Multiplier used to hash substrings. */
+    private static final long HASH_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /** Shift reducing a substring hash to the bits left in a posting. */
+    private static final int HASH_SHIFT = MESSAGE_BITS + POSITION_BITS;
+
+    /** Number of candidates verified by one leaf task. */
+    private static final int CANDIDATE_GRAIN = 1024;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Bits per packed character. */
+    private final int _bits;
+
+    /** Largest offset tried in exhaustive searches. */
+    private int _maxOffset = 25;
+
+    /** Number of candidates reported. */
+    private int _top = 20;
+
+    /** Length of the substrings that pair messages. */
+    private int _gram = 5;
+
+    /** Largest archive searched exhaustively. */
+    private int _exactLimit = 2000;
+
+    /** Largest number of occurrences of a substring used for pairing. */
+    private int _bucketLimit = 64;
+
+    /** Shortest overlap considered. */
+    private int _minOverlap = 20;
+
+    /** Packed messages being searched. */
+    private PackedText[] _texts;
+
+    /** Encoded candidate alignments, or null in exhaustive searches. */
+    private long[] _candidates;
+}
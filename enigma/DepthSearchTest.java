@@ -0,0 +1,134 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Tests of bit-parallel coincidence counting and depth search.
+ *  @author William Tai
+ */
+public class DepthSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Words from which plaintexts are made. */
+    private static final String[] WORDS = {
+        "THE", "AND", "ENEMY", "CONVOY", "AT", "SEA", "WEATHER", "REPORT",
+        "NORTH", "WEST", "WIND", "STRONG", "TO", "OF", "IN", "POSITION",
+        "SQUARE", "HEADING", "EAST", "NO", "CONTACT", "STOP", "SUBMARINE",
+    };
+
+    /** Return a plaintext of LEN letters built from WORDS using RANDOM. */
+    private static String plaintext(int len, Random random) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < len) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.substring(0, len);
+    }
+
+    @Test
+    public void testCoincidences() {
+        Random random = new Random(3);
+        for (int bits = 1; bits <= PackedText.MAX_BITS; bits += 1) {
+            int[] x = new int[97], y = new int[83];
+            for (int k = 0; k < x.length; k += 1) {
+                x[k] = random.nextInt(Math.min(3, 1 << bits));
+            }
+            for (int k = 0; k < y.length; k += 1) {
+                y[k] = random.nextInt(Math.min(3, 1 << bits));
+            }
+            PackedText a = new PackedText(x, bits);
+            PackedText b = new PackedText(y, bits);
+            for (int s = 0; s < 20; s += 1) {
+                for (int t = 0; t < 20; t += 1) {
+                    int len = Math.min(x.length - s, y.length - t);
+                    int expected = 0;
+                    for (int k = 0; k < len; k += 1) {
+                        expected += x[s + k] == y[t + k] ? 1 : 0;
+                        assertEquals(x[s + k], a.charAt(s + k));
+                    }
+                    assertEquals(expected, a.coincidences(s, b, t, len));
+                }
+            }
+        }
+    }
+
+    /** Return an archive of COUNT messages of LEN letters enciphered
+     *  under settings chosen by RANDOM, except that messages 3 and 8 are
+     *  enciphered from the same setting, and message 11 from the setting
+     *  message 5 reaches after 7 characters.  The plaintexts of messages
+     *  in depth share a phrase where they overlap. */
+    private static List<int[]> archive(int count, int len, Random random) {
+        Machine machine = Configuration.read(CONFIG).newMachine();
+        String[] plain = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            plain[i] = plaintext(len, random);
+        }
+        plain[8] = plain[3].substring(0, 30) + plain[8].substring(30);
+        plain[11] = plain[5].substring(7, 37) + plain[11].substring(30);
+        String[] settings = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            settings[i] = "";
+            for (int k = 0; k < 4; k += 1) {
+                settings[i] += (char) ('A' + random.nextInt(26));
+            }
+        }
+        settings[8] = settings[3];
+        settings[11] = settings[5];
+        ArrayList<int[]> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            Configuration.setUp(machine, "* B BETA III IV I " + settings[i]);
+            if (i == 11) {
+                machine.advance(7);
+            }
+            result.add(indices(machine.convert(plain[i])));
+        }
+        return result;
+    }
+
+    /** Assert that the best two of DEPTHS are the planted ones. */
+    private static void assertPlanted(List<Depth> depths) {
+        assertTrue(depths.size() >= 2);
+        for (int k = 0; k < 2; k += 1) {
+            Depth depth = depths.get(k);
+            if (depth.first() == 4) {
+                assertEquals(9, depth.second());
+                assertEquals(0, depth.offset());
+            } else {
+                assertEquals(6, depth.first());
+                assertEquals(12, depth.second());
+                assertEquals(-7, depth.offset());
+            }
+        }
+    }
+
+    @Test
+    public void testExhaustive() {
+        DepthSearch search = new DepthSearch(26);
+        search.setMaxOffset(10);
+        search.setTop(5);
+        List<Depth> depths = search.search(archive(14, 1500,
+                                                   new Random(7)));
+        assertEquals(5, depths.size());
+        assertPlanted(depths);
+    }
+
+    @Test
+    public void testBucketed() {
+        DepthSearch search = new DepthSearch(26);
+        search.setExactLimit(0);
+        search.setGram(8);
+        search.setTop(5);
+        assertPlanted(search.search(archive(40, 1500, new Random(11))));
+    }
+}
@@ -0,0 +1,358 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/** Generates, for a particular rotor order, a hidden class whose single
+ *  method converts a run of characters with the slot count, notch
+ *  positions and rotor tables built in as constants and the stepping
+ *  logic unrolled, so that the JIT sees straight-line code rather than
+ *  virtual calls through Rotor.  Stepping rules other than Enigma's are
+ *  not unrolled; the generated code calls the rule's step through a
+ *  constant method handle.  The class is compiled in memory from
+ *  generated source and defined with Lookup.defineHiddenClassWithClassData;
+ *  when no compiler is available, compile returns null and callers use
+ *  the interpreter path.
+ *
+ *  The source depends only on the machine's structure (slot count,
+ *  and for Enigma stepping the moving rotors and their notches), not on
+ *  the wirings or rings, which arrive as class data.  So each class file
+ *  is compiled once and defined again for each set of tables, and a new
+ *  key from a key sheet costs a class definition rather than a
+ *  compilation.  Both the class files and the handles on their
+ *  definitions are kept only for the most recently used keys; hidden
+ *  classes no longer in use may then be unloaded.
+ *
+ *  The generated method is
+ *      static void run(int[] pos, int[][] entry, int[][] exit,
+ *                      int[] text, int len)
+ *  where POS holds the settings of all slots (updated on return), ENTRY
+ *  and EXIT are a machine's fused plugboard and rightmost-rotor tables,
+ *  and TEXT[0 .. LEN-1] holds alphabet indices, converted in place.
+ *  @author William Tai
+ */
+final class EngineCompiler {
+
+    /** Not instantiable. */
+    private EngineCompiler() {
+    }
+
+    /** Return a handle on the run method specialized for ROTORS (slot
+     *  order, reflector first) moving according to STEPPING, or null if
+     *  none can be generated. */
+    static MethodHandle compile(Rotor[] rotors, Stepping stepping) {
+        String key = key(rotors) + stepping.spec();
+        MethodHandle result;
+        long hits;
+        synchronized (HANDLES) {
+            result = HANDLES.get(key);
+            if (result != null) {
+                _handleHits += 1;
+                return result;
+            }
+            hits = _handleHits;
+            _handleHits = 0;
+        }
+        CacheEvent event = new CacheEvent();
+        if (event.shouldCommit()) {
+            event.cache = "compiled engine";
+            event.hits = hits;
+            event.commit();
+        }
+        result = generate(rotors, stepping);
+        if (result != null) {
+            remember(HANDLES, key, result, MAX_HANDLES);
+        }
+        return result;
+    }
+
+    /** Put VALUE in MAP, an access-ordered map, under KEY, dropping the
+     *  least recently used entries beyond LIMIT. */
+    private static <V> void remember(LinkedHashMap<String, V> map,
+                                     String key, V value, int limit) {
+        synchronized (map) {
+            map.put(key, value);
+            Iterator<String> eldest = map.keySet().iterator();
+            while (map.size() > limit) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Return the class file compiled from SOURCE, compiling it only if
+     *  it is not among those compiled recently, or null if it cannot be
+     *  compiled. */
+    private static byte[] classFile(String source) {
+        byte[] result;
+        synchronized (CLASSES) {
+            result = CLASSES.get(source);
+            if (result == null && FAILED.contains(source)) {
+                return null;
+            }
+        }
+        if (result == null) {
+            result = compileSource(source);
+            if (result == null) {
+                synchronized (CLASSES) {
+                    FAILED.add(source);
+                }
+            } else {
+                remember(CLASSES, source, result, MAX_CLASSES);
+            }
+        }
+        return result;
+    }
+
+    /** Return a string that identifies the tables and stepping of
+     *  ROTORS. */
+    private static String key(Rotor[] rotors) {
+        StringBuilder key = new StringBuilder();
+        for (Rotor r : rotors) {
+            key.append(r.size()).append(r.rotates() ? 'M' : 'N');
+            key.append(r.permutation().cycles()).append('@');
+            key.append(r.ring()).append('/');
+            for (int p = 0; p < r.size(); p += 1) {
+                if (r.notchAt(p)) {
+                    key.append(p).append(',');
+                }
+            }
+            key.append(';');
+        }
+        return key.toString();
+    }
+
+    /** Return a handle on a newly generated run method for ROTORS and
+     *  STEPPING, or null if it cannot be generated. */
+    private static MethodHandle generate(Rotor[] rotors, Stepping stepping) {
+        boolean unrolled = stepping instanceof EnigmaStepping;
+        int n = rotors[0].size();
+        int last = rotors.length - 1;
+        Object[] tables = new Object[2 * rotors.length];
+        for (int i = 1; i <= last; i += 1) {
+            int[][] forward = new int[n][];
+            int[][] backward = new int[n][];
+            for (int s = 0; s < n; s += 1) {
+                forward[s] = rotors[i].forwardTable(s);
+                backward[s] = rotors[i].backwardTable(s);
+            }
+            tables[2 * i] = forward;
+            tables[2 * i + 1] = backward;
+        }
+        tables[0] = rotors[0].forwardTable(0);
+        try {
+            tables[1] = MethodHandles.lookup()
+                .findVirtual(Stepping.class, "step", STEP_TYPE)
+                .bindTo(stepping);
+        } catch (ReflectiveOperationException excp) {
+            return null;
+        }
+        byte[] bytes = classFile(source(rotors, unrolled));
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(bytes, tables, true);
+            return lookup.findStatic(lookup.lookupClass(), "run", RUN_TYPE);
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return null;
+        }
+    }
+
+    /** Return the source of the run method's class for ROTORS, with
+     *  Enigma stepping unrolled iff UNROLLED. */
+    private static String source(Rotor[] rotors, boolean unrolled) {
+        int n = rotors[0].size();
+        int last = rotors.length - 1;
+        StringBuilder src = new StringBuilder();
+        src.append("package enigma;\n")
+            .append("import java.lang.invoke.MethodHandle;\n")
+            .append("import java.lang.invoke.MethodHandles;\n")
+            .append("final class ").append(CLASS_NAME).append(" {\n")
+            .append("  private static final Object[] T;\n")
+            .append("  static {\n    try {\n")
+            .append("      T = MethodHandles.classData(")
+            .append("MethodHandles.lookup(), \"_\", Object[].class);\n")
+            .append("    } catch (IllegalAccessException e) {\n")
+            .append("      throw new ExceptionInInitializerError(e);\n")
+            .append("    }\n  }\n")
+            .append("  private static final int[] R = (int[]) T[0];\n")
+            .append("  private static final MethodHandle S = ")
+            .append("(MethodHandle) T[1];\n");
+        for (int i = 1; i <= last; i += 1) {
+            src.append("  private static final int[][] F").append(i)
+                .append(" = (int[][]) T[").append(2 * i).append("];\n")
+                .append("  private static final int[][] B").append(i)
+                .append(" = (int[][]) T[").append(2 * i + 1).append("];\n");
+        }
+        src.append("  static void run(int[] pos, int[][] entry, ")
+            .append("int[][] exit, int[] text, int len)")
+            .append(" throws Throwable {\n");
+        for (int i = 1; i <= last; i += 1) {
+            src.append("    int p").append(i).append(" = pos[").append(i)
+                .append("];\n");
+        }
+        src.append("    for (int j = 0; j < len; j += 1) {\n");
+        if (unrolled) {
+            stepping(src, rotors, n);
+        } else {
+            src.append("      S.invokeExact(pos);\n");
+            for (int i = 1; i <= last; i += 1) {
+                src.append("      p").append(i).append(" = pos[").append(i)
+                    .append("];\n");
+            }
+        }
+        src.append("      int t = entry[p").append(last)
+            .append("][text[j]];\n");
+        for (int i = last - 1; i > 0; i -= 1) {
+            src.append("      t = F").append(i).append("[p").append(i)
+                .append("][t];\n");
+        }
+        src.append("      t = R[t];\n");
+        for (int i = 1; i < last; i += 1) {
+            src.append("      t = B").append(i).append("[p").append(i)
+                .append("][t];\n");
+        }
+        src.append("      text[j] = exit[p").append(last).append("][t];\n")
+            .append("    }\n");
+        for (int i = 1; i <= last; i += 1) {
+            src.append("    pos[").append(i).append("] = p").append(i)
+                .append(";\n");
+        }
+        src.append("  }\n}\n");
+        return src.toString();
+    }
+
+    /** Append to SRC the unrolled stepping logic for ROTORS, whose
+     *  alphabet has N characters: the rightmost rotor always advances, and
+     *  a moving rotor whose right neighbor is at a notch advances together
+     *  with that neighbor. */
+    private static void stepping(StringBuilder src, Rotor[] rotors, int n) {
+        int last = rotors.length - 1;
+        for (int i = 1; i < last; i += 1) {
+            src.append("      boolean a").append(i).append(" = false;\n");
+        }
+        src.append("      boolean a").append(last).append(" = true;\n");
+        for (int i = last - 1; i > 0; i -= 1) {
+            String notches = notchTest(rotors[i + 1], "p" + (i + 1));
+            if (rotors[i].rotates() && notches != null) {
+                src.append("      if (").append(notches).append(") { a")
+                    .append(i).append(" = true; a").append(i + 1)
+                    .append(" = true; }\n");
+            }
+        }
+        for (int i = last; i > 0; i -= 1) {
+            if (rotors[i].rotates()) {
+                src.append("      if (a").append(i).append(") { p")
+                    .append(i).append(" = p").append(i).append(" == ")
+                    .append(n - 1).append(" ? 0 : p").append(i)
+                    .append(" + 1; }\n");
+            }
+        }
+    }
+
+    /** Return a boolean expression testing whether ROTOR, whose setting is
+     *  in variable VAR, is at a notch, or null if it never is. */
+    private static String notchTest(Rotor rotor, String var) {
+        StringBuilder test = new StringBuilder();
+        for (int p = 0; p < rotor.size(); p += 1) {
+            if (rotor.notchAt(p)) {
+                if (test.length() > 0) {
+                    test.append(" || ");
+                }
+                test.append(var).append(" == ").append(p);
+            }
+        }
+        return test.length() == 0 ? null : test.toString();
+    }
+
+    /** Return the class file compiled from SOURCE, or null if there is no
+     *  compiler or compilation fails. */
+    private static byte[] compileSource(String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileObject input =
+            new SimpleJavaFileObject(URI.create("string:///enigma/"
+                                                + CLASS_NAME + ".java"),
+                                     JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignored) {
+                    return source;
+                }
+            };
+        StandardJavaFileManager files =
+            javac.getStandardFileManager(null, null, null);
+        JavaFileManager memory =
+            new ForwardingJavaFileManager<JavaFileManager>(files) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(
+                    Location location, String name, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                    return new SimpleJavaFileObject(
+                        URI.create("mem:///" + name + ".class"), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return bytes;
+                        }
+                    };
+                }
+            };
+        boolean ok = javac.getTask(null, memory, d -> { }, List.of("-g:none"),
+                                   null, List.of(input)).call();
+        return ok ? bytes.toByteArray() : null;
+    }
+
+    /** Type of the generated run method. */
+    private static final MethodType RUN_TYPE =
+        MethodType.methodType(void.class, int[].class, int[][].class,
+                              int[][].class, int[].class, int.class);
+
+    /** Type of Stepping.step. */
+    private static final MethodType STEP_TYPE =
+        MethodType.methodType(void.class, int[].class);
+
+    /** Simple name of generated classes. */
+    private static final String CLASS_NAME = "CompiledEngine";
+
+    /** Most class files and handles kept. */
+    private static final int MAX_CLASSES = 64, MAX_HANDLES = 64;
+
+    /** Recently compiled class files, by source, least recently used
+     *  first. */
+    private static final LinkedHashMap<String, byte[]> CLASSES =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Sources that failed to compile (as when there is no compiler),
+     *  guarded by CLASSES's lock.  There is at most one per machine
+     *  structure. */
+    private static final HashSet<String> FAILED = new HashSet<>();
+
+    /** Recently generated run methods, by rotor key (see key), least
+     *  recently used first. */
+    private static final LinkedHashMap<String, MethodHandle> HANDLES =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Hits in HANDLES since its last miss, guarded by its lock. */
+    private static long _handleHits;
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** Enigma stepping: the rightmost rotor always advances, and a moving
+ *  rotor whose right neighbor is at a notch advances together with that
+ *  neighbor, so a middle rotor at its notch steps twice in a row (the
+ *  double step).
+ *  @author William Tai
+ */
+final class EnigmaStepping implements Stepping {
+
+    /** Stepping for ROTORS, in slot order. */
+    EnigmaStepping(Rotor[] rotors) {
+        _size = rotors[0].size();
+        _last = rotors.length - 1;
+        if (_last >= Long.SIZE) {
+            throw EnigmaException.error("too many rotor slots");
+        }
+        _rotates = new boolean[rotors.length];
+        _notch = new boolean[rotors.length][_size];
+        for (int i = 1; i <= _last; i += 1) {
+            _rotates[i] = rotors[i].rotates();
+            for (int p = 0; p < _size; p += 1) {
+                _notch[i][p] = rotors[i].notchAt(p);
+            }
+        }
+        _nextNotch = new int[_size];
+        Arrays.fill(_nextNotch, Integer.MAX_VALUE);
+        boolean carries = _last > 1 && _rotates[_last - 1];
+        for (int k = 2 * _size - 1; carries && k >= 0; k -= 1) {
+            int p = k % _size;
+            if (_notch[_last][p]) {
+                _nextNotch[p] = 0;
+            } else if (_nextNotch[(p + 1) % _size] != Integer.MAX_VALUE) {
+                _nextNotch[p] = _nextNotch[(p + 1) % _size] + 1;
+            }
+        }
+    }
+
+    @Override
+    public void step(int[] positions) {
+        long advancing = 1L << _last;
+        for (int i = _last - 1; i > 0; i--) {
+            if (_rotates[i] && _notch[i + 1][positions[i + 1]]) {
+                advancing |= (1L << i) | (1L << (i + 1));
+            }
+        }
+        for (int i = _last; i > 0; i--) {
+            if (_rotates[i] && (advancing & (1L << i)) != 0) {
+                int p = positions[i] + 1;
+                positions[i] = p == _size ? 0 : p;
+            }
+        }
+    }
+
+    /** Advance POSITIONS by N key presses.  Runs of key presses that move
+     *  only the rightmost rotor are taken in one jump, so this takes time
+     *  proportional to the number of times any other rotor moves. */
+    @Override
+    public void advance(int[] positions, long n) {
+        if (!_rotates[_last]) {
+            return;
+        }
+        while (n > 0) {
+            if (!quiet(positions)) {
+                step(positions);
+                n -= 1;
+            } else {
+                long run = Math.min(n, _nextNotch[positions[_last]]);
+                positions[_last] =
+                    (int) ((positions[_last] + run) % _size);
+                n -= run;
+            }
+        }
+    }
+
+    /** Return true iff the next key press will move only the rightmost
+     *  rotor, given POSITIONS. */
+    private boolean quiet(int[] positions) {
+        for (int i = _last - 1; i > 0; i--) {
+            if (_rotates[i] && _notch[i + 1][positions[i + 1]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String spec() {
+        return "enigma";
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Index of the rightmost slot. */
+    private final int _last;
+
+    /** _rotates[I] iff slot I holds a moving rotor. */
+    private final boolean[] _rotates;
+
+    /** _notch[I][P] iff the rotor in slot I has a notch at setting P. */
+    private final boolean[][] _notch;
+
+    /** _nextNotch[P] is the number of presses that take the rightmost
+     *  rotor from P to a notch that moves its neighbor (MAX_VALUE if
+     *  there is none). */
+    private final int[] _nextNotch;
+}
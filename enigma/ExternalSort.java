@@ -0,0 +1,305 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/** A sort of (long, long) records, by their first components, in bounded
+ *  memory.  Producers add records through Writers, each of which sorts a
+ *  buffer of a fixed number of records at a time and writes it out as a
+ *  run in a temporary directory; merge then combines the runs, at most
+ *  FAN_IN at a time.  Records with equal first components come out in
+ *  increasing order of their second components, provided each Writer is
+ *  given its records in that order.
+ *  @author William Tai
+ */
+final class ExternalSort implements Closeable {
+
+    /** Records written by a producer. */
+    interface Sink {
+        /** Accept the record (FIRST, SECOND). */
+        void accept(long first, long second) throws IOException;
+    }
+
+    /** A source of records. */
+    interface Producer {
+        /** Add records to OUT. */
+        void produce(Writer out) throws IOException;
+    }
+
+    /** A sort whose runs, of at most RUNSIZE records, are kept in a new
+     *  temporary directory in DIR. */
+    ExternalSort(Path dir, int runSize) throws IOException {
+        _dir = Files.createTempDirectory(dir, "sortruns");
+        _runSize = runSize;
+    }
+
+    /** Run THREADS copies of PRODUCER concurrently, each with a Writer of
+     *  its own, and wait for them to finish.  An EnigmaException thrown by
+     *  a producer is rethrown. */
+    void fill(int threads, Producer producer) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                workers.add(pool.submit(() -> {
+                    Writer out = new Writer();
+                    producer.produce(out);
+                    out.flush();
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException(excp);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IOException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Pass every record added so far to SINK, in order, and forget
+     *  them. */
+    void merge(Sink sink) throws IOException {
+        List<Path> runs = new ArrayList<>(_runs);
+        _runs.clear();
+        while (runs.size() > FAN_IN) {
+            ArrayList<Path> merged = new ArrayList<>();
+            for (int k = 0; k < runs.size(); k += FAN_IN) {
+                List<Path> group =
+                    runs.subList(k, Math.min(runs.size(), k + FAN_IN));
+                Path run = Files.createTempFile(_dir, "run", ".bin");
+                try (DataOutputStream out = output(run)) {
+                    merge(group, (first, second) -> {
+                        out.writeLong(first);
+                        out.writeLong(second);
+                    });
+                }
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        merge(runs, sink);
+    }
+
+    /** Pass the records of the sorted RUNS to SINK, merged, and delete
+     *  the RUNS. */
+    private static void merge(List<Path> runs, Sink sink)
+        throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                sink.accept(reader._first, reader._second);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+    }
+
+    /** Delete my temporary files. */
+    @Override
+    public void close() {
+        try (Stream<Path> files = Files.list(_dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(_dir);
+        } catch (IOException excp) {
+            /* Leave the temporary files behind. */
+        }
+    }
+
+    /** Return a buffered stream writing to FILE from its start. */
+    static DataOutputStream output(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file, CREATE, WRITE, TRUNCATE_EXISTING),
+            BUFFER_SIZE));
+    }
+
+    /** A buffer through which one thread adds records. */
+    final class Writer implements Sink {
+
+        @Override
+        public void accept(long first, long second) throws IOException {
+            _first[_n] = first;
+            _second[_n] = second;
+            _n += 1;
+            if (_n == _runSize) {
+                flush();
+            }
+        }
+
+        /** Write out the records accepted since the last flush. */
+        void flush() throws IOException {
+            if (_n > 0) {
+                _runs.add(writeRun());
+                _n = 0;
+            }
+        }
+
+        /** Radix-sort my records by their first components, stably, and
+         *  write them to a new run file, which is returned. */
+        private Path writeRun() throws IOException {
+            long[] p = _first, k = _second, tp = _scratch1, tk = _scratch2;
+            int mask = (1 << RADIX_BITS) - 1;
+            for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+                Arrays.fill(_count, 0);
+                for (int i = 0; i < _n; i += 1) {
+                    _count[digit(p[i], shift) + 1] += 1;
+                }
+                if (_count[digit(p[0], shift) + 1] == _n) {
+                    continue;
+                }
+                for (int d = 1; d <= mask; d += 1) {
+                    _count[d] += _count[d - 1];
+                }
+                for (int i = 0; i < _n; i += 1) {
+                    int d = digit(p[i], shift);
+                    tp[_count[d]] = p[i];
+                    tk[_count[d]] = k[i];
+                    _count[d] += 1;
+                }
+                long[] t = p;
+                p = tp;
+                tp = t;
+                t = k;
+                k = tk;
+                tk = t;
+            }
+            Path run = Files.createTempFile(_dir, "run", ".bin");
+            try (DataOutputStream out = output(run)) {
+                for (int i = 0; i < _n; i += 1) {
+                    out.writeLong(p[i]);
+                    out.writeLong(k[i]);
+                }
+            }
+            return run;
+        }
+
+        /** Return the radix-sort digit of V at SHIFT, ordered as V is by
+         *  Long.compare. */
+        private int digit(long v, int shift) {
+            return (int) ((v ^ Long.MIN_VALUE) >>> shift)
+                & ((1 << RADIX_BITS) - 1);
+        }
+
+        /** Buffered records, as parallel arrays. */
+        private final long[] _first = new long[_runSize],
+            _second = new long[_runSize];
+
+        /** Sorting temporaries. */
+        private final long[] _scratch1 = new long[_runSize],
+            _scratch2 = new long[_runSize];
+
+        /** Digit counts. */
+        private final int[] _count = new int[(1 << RADIX_BITS) + 1];
+
+        /** Number of buffered records. */
+        private int _n;
+    }
+
+    /** One sorted run being merged. */
+    private static final class RunReader
+        implements Comparable<RunReader> {
+
+        /** A reader of the records in RUN. */
+        RunReader(Path run) throws IOException {
+            _in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(run), MERGE_BUFFER_SIZE));
+        }
+
+        /** Read my next record, returning false if there are no more. */
+        boolean advance() throws IOException {
+            try {
+                _first = _in.readLong();
+            } catch (EOFException excp) {
+                return false;
+            }
+            _second = _in.readLong();
+            return true;
+        }
+
+        /** Close my file. */
+        void close() throws IOException {
+            _in.close();
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int c = Long.compare(_first, other._first);
+            return c != 0 ? c : Long.compare(_second, other._second);
+        }
+
+        /** Source of records. */
+        private final DataInputStream _in;
+
+        /** Current record. */
+        private long _first, _second;
+    }
+
+    /** Largest number of runs merged at once. */
+    private static final int FAN_IN = 64;
+
+    /** Bits per radix-sort digit. */
+    private static final int RADIX_BITS = 16;
+
+    /** Size of the output buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Size of the input buffer of each run being merged. */
+    private static final int MERGE_BUFFER_SIZE = 1 << 14;
+
+    /** Directory holding the runs. */
+    private final Path _dir;
+
+    /** Records per run. */
+    private final int _runSize;
+
+    /** Runs written and not yet merged. */
+    private final List<Path> _runs =
+        Collections.synchronizedList(new ArrayList<>());
+}
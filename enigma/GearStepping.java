@@ -0,0 +1,92 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Gear-driven stepping: every moving rotor is geared directly to the
+ *  keyboard and advances a fixed number of positions on each key press,
+ *  with no carries between rotors.
+ *  @author William Tai
+ */
+final class GearStepping implements Stepping {
+
+    /** Stepping for ROTORS, in slot order, with gear ratios given by SPEC
+     *  ("gear" or "gear:R1,R2,...", counting from the rightmost moving
+     *  rotor). */
+    GearStepping(String spec, Rotor[] rotors) {
+        _spec = spec;
+        _size = rotors[0].size();
+        int moving = 0;
+        for (Rotor r : rotors) {
+            if (r.rotates()) {
+                moving += 1;
+            }
+        }
+        int[] ratios = ratios(spec, moving);
+        _ratio = new int[rotors.length];
+        for (int i = rotors.length - 1, k = 0; i > 0; i -= 1) {
+            if (rotors[i].rotates()) {
+                _ratio[i] = Math.floorMod(ratios[k], _size);
+                k += 1;
+            }
+        }
+    }
+
+    /** Return the gear ratios given by SPEC for MOVING moving rotors,
+     *  rightmost first.  Throws an EnigmaException if SPEC is malformed
+     *  or gives fewer than MOVING ratios. */
+    static int[] ratios(String spec, int moving) {
+        String[] parts = spec.split(":", 2);
+        if (parts.length == 1) {
+            int[] result = new int[moving];
+            for (int k = 0; k < moving; k += 1) {
+                result[k] = k + 1;
+            }
+            return result;
+        }
+        String[] fields = parts[1].split(",");
+        if (fields.length < moving) {
+            throw error("too few gear ratios in %s", spec);
+        }
+        int[] result = new int[fields.length];
+        try {
+            for (int k = 0; k < fields.length; k += 1) {
+                result[k] = Integer.parseInt(fields[k]);
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad gear ratio in %s", spec);
+        }
+        return result;
+    }
+
+    @Override
+    public void step(int[] positions) {
+        for (int i = 1; i < positions.length; i += 1) {
+            int p = positions[i] + _ratio[i];
+            positions[i] = p >= _size ? p - _size : p;
+        }
+    }
+
+    /** Advance POSITIONS by N key presses, in time proportional to the
+     *  number of rotors. */
+    @Override
+    public void advance(int[] positions, long n) {
+        long turns = n % _size;
+        for (int i = 1; i < positions.length; i += 1) {
+            positions[i] = (int) ((positions[i] + turns * _ratio[i]) % _size);
+        }
+    }
+
+    @Override
+    public String spec() {
+        return _spec;
+    }
+
+    /** The SPEC that selects me. */
+    private final String _spec;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** _ratio[I] is the advance of slot I per key press. */
+    private final int[] _ratio;
+}
@@ -0,0 +1,154 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A key search spread over any number of worker processes.  A hit is a
+ *  key (rotor order and rotor settings) under which a machine with an
+ *  empty plugboard enciphers a crib into text agreeing with the start of
+ *  an intercepted ciphertext in at least a given number of places.  The
+ *  coordinator divides the keys, ranked in the Gray-code order of
+ *  KeySpace.graySetting, into shards of consecutive ranks and leases them
+ *  to workers, which connect to it over TCP; shards whose leases expire,
+ *  or whose workers disconnect, are leased again.  Workers count matches
+ *  with a CribEvaluator, which the Gray-code order lets reuse most of its
+ *  work from one key to the next.
+ *
+ *  The protocol is line-oriented.  A worker sends HELLO and receives
+ *      JOB MINMATCHES CRIB CIPHERTEXT N
+ *  followed by the N lines of the configuration file.  It then repeatedly
+ *  sends LEASE and receives one of
+ *      SHARD ID FIRST COUNT LEASE   search ranks FIRST .. FIRST+COUNT-1,
+ *      WAIT MILLIS                  all shards are leased; ask later,
+ *      DONE                         the search is over.
+ *  While searching shard ID, whose lease lasts LEASE milliseconds, it
+ *  sends HIT ID KEY MATCHES for each hit and RENEW ID about every half
+ *  lease, and finally COMPLETE ID.  The coordinator ignores HIT, RENEW
+ *  and COMPLETE for shards whose leases the connection no longer holds.
+ *  @author William Tai
+ */
+public final class KeySearch {
+
+    /** Run a coordinator or worker as specified by ARGS, which has one of
+     *  the forms
+     *      coordinate [OPTION...] CONFIG CRIB CIPHERTEXT
+     *      work HOST:PORT
+     *  The coordinator's options are --port=N (default: any free port,
+     *  which is reported on the standard error), --shard=N (keys per
+     *  shard), --lease=MILLIS and --min-matches=N (default: the length of
+     *  the crib).  When every shard has been searched, it prints the hits,
+     *  one per line, as the key (rotor names and settings) followed by the
+     *  number of matching characters.  A worker searches shards until the
+     *  coordinator reports that the search is over. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 2 && args[0].equals("work")) {
+                int colon = args[1].lastIndexOf(':');
+                if (colon < 0) {
+                    throw error("expected HOST:PORT, not %s", args[1]);
+                }
+                SearchWorker.run(args[1].substring(0, colon),
+                                 port(args[1].substring(colon + 1)));
+                return;
+            }
+            if (args.length < 4 || !args[0].equals("coordinate")) {
+                throw error("Usage: java enigma.KeySearch (coordinate "
+                            + "[OPTION...] CONFIG CRIB CIPHERTEXT | work "
+                            + "HOST:PORT)");
+            }
+            coordinate(args);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Run the coordinator specified by ARGS (see main). */
+    private static void coordinate(String[] args) {
+        int port = 0, shard = SHARD_SIZE, minMatches = -1;
+        long lease = LEASE_MILLIS;
+        int n = args.length;
+        for (int k = 1; k < n - 3; k += 1) {
+            String arg = args[k];
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--port=")) {
+                port = port(value);
+            } else if (arg.startsWith("--shard=")) {
+                shard = positive(arg, value);
+            } else if (arg.startsWith("--lease=")) {
+                lease = positive(arg, value);
+            } else if (arg.startsWith("--min-matches=")) {
+                minMatches = positive(arg, value);
+            } else {
+                throw error("unknown option: %s", arg);
+            }
+        }
+        String config;
+        try {
+            config = Files.readString(Paths.get(args[n - 3]));
+        } catch (IOException excp) {
+            throw error("could not open %s", args[n - 3]);
+        }
+        String crib = args[n - 2];
+        if (minMatches < 0) {
+            minMatches = crib.length();
+        }
+        try (SearchCoordinator coordinator =
+                 new SearchCoordinator(config, crib, args[n - 1],
+                                       minMatches, shard, lease)) {
+            System.err.printf("Listening on port %d%n",
+                              coordinator.start(port));
+            KeySpace keys = coordinator.keys();
+            for (Map.Entry<Long, Integer> hit
+                     : coordinator.await().entrySet()) {
+                System.out.printf("%s %d%n", keys.describe(hit.getKey()),
+                                  hit.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("coordinator failed: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Return the port number PORT. */
+    private static int port(String port) {
+        try {
+            int result = Integer.parseInt(port);
+            if (result >= 0 && result <= MAX_PORT) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad port: %s", port);
+    }
+
+    /** Return VALUE, the value of option ARG, which must be a positive
+     *  integer. */
+    private static int positive(String arg, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", arg);
+    }
+
+    /** Default keys per shard. */
+    static final int SHARD_SIZE = 1 << 16;
+
+    /** Default lease duration, in milliseconds. */
+    static final long LEASE_MILLIS = 30_000;
+
+    /** Largest port number. */
+    private static final int MAX_PORT = 65535;
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/** Tests of the distributed key search, with workers in separate JVMs
+ *  talking to the coordinator over local sockets.
+ *  @author William Tai
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** A configuration over A-H with 24 rotor orders of 512 settings. */
+    private static final String CONFIG =
+        "A-H 4 2\n"
+        + " R R (AB) (CD) (EF) (GH)\n"
+        + " S R (AH) (BG) (CF) (DE)\n"
+        + " F N (ABC)\n"
+        + " G N (DEFGH)\n"
+        + " X MB (AFB) (CEH)\n"
+        + " Y MAE (ABCDEFGH)\n"
+        + " Z MC (AD) (BCG)\n";
+
+    @Test
+    public void testSearch() throws Exception {
+        Configuration config = Configuration.read(new Scanner(CONFIG));
+        KeySpace keys = new KeySpace(config);
+        long planted = 123;
+        Machine machine = config.newMachine();
+        Configuration.setUp(machine, "* " + keys.describe(planted));
+        String crib = "HEADBAGGEDCABBAGE";
+        String cipher = machine.convert(crib) + "ABC";
+
+        try (SearchCoordinator coordinator =
+                 new SearchCoordinator(CONFIG, crib, cipher, crib.length(),
+                                       500, 200);
+             Socket rogue = new Socket("localhost",
+                                       coordinator.start(0))) {
+            int port = rogue.getPort();
+            PrintWriter out = new PrintWriter(rogue.getOutputStream());
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(rogue.getInputStream()));
+            out.println("LEASE");
+            out.flush();
+            assertEquals("SHARD 0 0 500 200", in.readLine());
+            try (Socket stale = new Socket("localhost", port)) {
+                PrintWriter staleOut =
+                    new PrintWriter(stale.getOutputStream());
+                staleOut.println("HIT 0 5 17");
+                staleOut.println("COMPLETE 0");
+                staleOut.println("LEASE");
+                staleOut.flush();
+                assertEquals("SHARD 1 500 500 200", new BufferedReader(
+                    new InputStreamReader(stale.getInputStream()))
+                             .readLine());
+            }
+
+            String java =
+                Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString();
+            ArrayList<Process> workers = new ArrayList<>();
+            for (int w = 0; w < 2; w += 1) {
+                workers.add(new ProcessBuilder(
+                    java, "-cp", System.getProperty("java.class.path"),
+                    "enigma.KeySearch", "work", "localhost:" + port)
+                            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                            .redirectError(ProcessBuilder.Redirect.INHERIT)
+                            .start());
+            }
+            try {
+                Map<Long, Integer> hits = coordinator.await();
+                for (Process worker : workers) {
+                    assertTrue(worker.waitFor(10, TimeUnit.SECONDS));
+                    assertEquals(0, worker.exitValue());
+                }
+                assertEquals(Integer.valueOf(crib.length()),
+                             hits.get(planted));
+                for (long key : hits.keySet()) {
+                    Configuration.setUp(machine, "* " + keys.describe(key));
+                    assertEquals(cipher.substring(0, crib.length()),
+                                 machine.convert(crib));
+                }
+            } finally {
+                for (Process worker : workers) {
+                    worker.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testShortCiphertext() {
+        new SearchCoordinator(CONFIG, "HEADBAG", "HEAD", 3, 100, 100);
+    }
+}
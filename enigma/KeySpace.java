@@ -0,0 +1,188 @@
+package enigma;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static enigma.EnigmaException.*;
+
+/** The keys (rotor order and rotor settings, without plugboard) of a
+ *  configuration, numbered as the key-search tools number them: key K
+ *  uses rotor order K / settings() (in the order of
+ *  Configuration.rotorOrders) with the settings whose digits, in base
+ *  alphabet size and leftmost rotor first, are K % settings().  A
+ *  KeySpace can be saved with the files that refer to its keys, so that
+ *  they can be described without the configuration.
+ *  @author William Tai
+ */
+final class KeySpace {
+
+    /** The keys of machines configured by CONFIG. */
+    KeySpace(Configuration config) {
+        this(alphabet(config.alphabet()),
+             config.rotorOrders().toArray(new String[0][]));
+    }
+
+    /** The keys using ORDERS (each of the same length) over the alphabet
+     *  whose characters, in order, are ALPHABET. */
+    private KeySpace(String alphabet, String[][] orders) {
+        if (orders.length == 0) {
+            throw error("configuration allows no rotor order");
+        }
+        _alphabet = alphabet;
+        _orders = orders;
+        long settings = 1;
+        for (int k = 1; k < orders[0].length; k += 1) {
+            if (settings > Long.MAX_VALUE / orders.length / size()) {
+                throw error("too many keys");
+            }
+            settings *= size();
+        }
+        _settings = settings;
+    }
+
+    /** Return the characters of ALPHABET, in order. */
+    private static String alphabet(Alphabet alphabet) {
+        StringBuilder chars = new StringBuilder();
+        for (int k = 0; k < alphabet.size(); k += 1) {
+            chars.append(alphabet.toChar(k));
+        }
+        return chars.toString();
+    }
+
+    /** Return the key space written by write to IN. */
+    static KeySpace read(DataInput in) throws IOException {
+        String alphabet = in.readUTF();
+        int numRotors = in.readUnsignedByte();
+        String[][] orders = new String[in.readInt()][numRotors];
+        for (String[] order : orders) {
+            for (int k = 0; k < numRotors; k += 1) {
+                order[k] = in.readUTF();
+            }
+        }
+        return new KeySpace(alphabet, orders);
+    }
+
+    /** Write me to OUT. */
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(_alphabet);
+        out.writeByte(numRotors());
+        out.writeInt(_orders.length);
+        for (String[] order : _orders) {
+            for (String name : order) {
+                out.writeUTF(name);
+            }
+        }
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _alphabet.length();
+    }
+
+    /** Return the index of C in my alphabet. */
+    int index(char c) {
+        int result = _alphabet.indexOf(c);
+        if (result < 0) {
+            throw error("character %c not in alphabet", c);
+        }
+        return result;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _orders[0].length;
+    }
+
+    /** Return the number of rotor orders. */
+    int orders() {
+        return _orders.length;
+    }
+
+    /** Return rotor order K. */
+    String[] order(int k) {
+        return _orders[k].clone();
+    }
+
+    /** Return the number of settings of each rotor order. */
+    long settings() {
+        return _settings;
+    }
+
+    /** Return the number of keys. */
+    long count() {
+        return _orders.length * _settings;
+    }
+
+    /** Return the key using rotor order ORDER with the settings, by slot
+     *  after the reflector, SETTING. */
+    long key(int order, int[] setting) {
+        long result = 0;
+        for (int s : setting) {
+            result = result * size() + s;
+        }
+        return order * _settings + result;
+    }
+
+    /** Fill SETTING with the rotor settings of KEY, as for key, and
+     *  return the index of its rotor order. */
+    int decode(long key, int[] setting) {
+        for (int k = setting.length - 1; k >= 0; k -= 1) {
+            setting[k] = (int) (key % size());
+            key /= size();
+        }
+        return (int) key;
+    }
+
+    /** Fill SETTING with the rotor settings of the key of rank RANK in
+     *  Gray-code order, and return the index of its rotor order.  Ranks
+     *  run through the rotor orders as keys do, but within each order the
+     *  settings follow the reflected base-size() Gray code, leftmost rotor
+     *  most significant: consecutive ranks differ in the setting of one
+     *  rotor, by one position, and that rotor is usually the rightmost. */
+    int graySetting(long rank, int[] setting) {
+        int order = decode(rank, setting);
+        int parity = 0;
+        for (int k = 0; k < setting.length; k += 1) {
+            int digit = setting[k];
+            if (parity != 0) {
+                setting[k] = size() - 1 - digit;
+            }
+            parity = (parity * size() + digit) & 1;
+        }
+        return order;
+    }
+
+    /** Advance SETTING, as for key, to the setting of the next key, or
+     *  to all zeros after the last. */
+    void nextSetting(int[] setting) {
+        for (int k = setting.length - 1; k >= 0; k -= 1) {
+            setting[k] += 1;
+            if (setting[k] < size()) {
+                return;
+            }
+            setting[k] = 0;
+        }
+    }
+
+    /** Return KEY as rotor names followed by rotor settings, as in a
+     *  settings line without its leading '*' and plugboard. */
+    String describe(long key) {
+        char[] setting = new char[numRotors() - 1];
+        for (int k = setting.length - 1; k >= 0; k -= 1) {
+            setting[k] = _alphabet.charAt((int) (key % size()));
+            key /= size();
+        }
+        return String.join(" ", _orders[(int) key]) + " "
+            + new String(setting);
+    }
+
+    /** Characters of the alphabet, in order. */
+    private final String _alphabet;
+
+    /** Rotor orders, by index. */
+    private final String[][] _orders;
+
+    /** Settings per rotor order. */
+    private final long _settings;
+}
@@ -0,0 +1,108 @@
+package enigma;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/** A spliterator over the encipherment, as alphabet indices, of a range
+ *  of a text by a machine whose rotor settings at the start of the range
+ *  it holds.  It enciphers through a core of the machine (see Core),
+ *  whose tables never change once built, so later ring settings or rotor
+ *  orders do not affect it.  It keeps its rotor settings to itself, and
+ *  each piece of a split gets its own copy of the core, so the pieces
+ *  run independently.  A split hands off the first
+ *  half of the range and jumps its own settings to the middle with the
+ *  stepping rule's advance, without enciphering the first half.  Every
+ *  character of the text must be in the machine's alphabet.
+ *  @author William Tai
+ */
+final class KeystreamSpliterator implements Spliterator.OfInt {
+
+    /** A spliterator over characters ORIGIN .. FENCE-1 of TEXT, enciphered
+     *  over ALPHABET by CORE, for my use only, with rotors moving
+     *  according to STEPPING from the settings POSITIONS (by slot, not
+     *  copied). */
+    KeystreamSpliterator(Alphabet alphabet, Core core, Stepping stepping,
+                         CharSequence text, int[] positions, int origin,
+                         int fence) {
+        _alphabet = alphabet;
+        _core = core;
+        _stepping = stepping;
+        _text = text;
+        _positions = positions;
+        _origin = origin;
+        _fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+        if (_origin >= _fence) {
+            return false;
+        }
+        action.accept(convert(_alphabet.toInt(_text.charAt(_origin))));
+        _origin += 1;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action) {
+        for (; _origin < _fence; _origin += 1) {
+            action.accept(convert(_alphabet.toInt(_text.charAt(_origin))));
+        }
+    }
+
+    @Override
+    public Spliterator.OfInt trySplit() {
+        int mid = (_origin + _fence) >>> 1;
+        if (mid - _origin < MIN_SPLIT) {
+            return null;
+        }
+        KeystreamSpliterator prefix =
+            new KeystreamSpliterator(_alphabet, _core.copy(), _stepping,
+                                     _text, _positions.clone(), _origin,
+                                     mid);
+        _stepping.advance(_positions, mid - _origin);
+        _origin = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return _fence - _origin;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    /** Return the encipherment of the alphabet index X after advancing my
+     *  rotors. */
+    private int convert(int x) {
+        _stepping.step(_positions);
+        return _core.convert(_positions, x);
+    }
+
+    /** Fewest characters handed off by a split. */
+    private static final int MIN_SPLIT = 1 << 10;
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The path through the machine's rotors and plugboard. */
+    private final Core _core;
+
+    /** Their stepping rule. */
+    private final Stepping _stepping;
+
+    /** The text enciphered. */
+    private final CharSequence _text;
+
+    /** Rotor settings before character _origin, by slot. */
+    private final int[] _positions;
+
+    /** Next character to encipher. */
+    private int _origin;
+
+    /** End of my range. */
+    private final int _fence;
+}
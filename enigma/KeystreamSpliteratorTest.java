@@ -0,0 +1,137 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Scanner;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the splitting keystream spliterator and Machine.stream.
+ *  @author William Tai
+ */
+public class KeystreamSpliteratorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Settings used. */
+    private static final String SETTINGS = "* R F X Y Z ABCD (AE)";
+
+    /** A configuration over A-F with two fixed and three moving rotors,
+     *  whose header is followed by HEADER. */
+    private static Configuration config(String header) {
+        return Configuration.read(new Scanner(
+            "A-F 5 3 " + header
+            + " R R (AB) (CD) (EF)"
+            + " F N (ABC)"
+            + " X MBE (AFB) (CE)"
+            + " Y MA (ABCDEF)"
+            + " Z MCF (AD) (BC)"));
+    }
+
+    /** Return a message of N letters from A-F. */
+    private static String message(int n) {
+        char[] text = new char[n];
+        for (int k = 0; k < n; k += 1) {
+            text[k] = (char) ('A' + k * 7 % 13 % 6);
+        }
+        return new String(text);
+    }
+
+    /** Return the letters A-F with the alphabet indices INDICES. */
+    private static String letters(int[] indices) {
+        char[] result = new char[indices.length];
+        for (int k = 0; k < indices.length; k += 1) {
+            result[k] = (char) ('A' + indices[k]);
+        }
+        return new String(result);
+    }
+
+    /** Return the letters A-F whose alphabet indices remain in
+     *  SPLITERATOR. */
+    private static String drain(Spliterator.OfInt spliterator) {
+        StringBuilder result = new StringBuilder();
+        spliterator.forEachRemaining(
+            (int x) -> result.append((char) ('A' + x)));
+        return result.toString();
+    }
+
+    @Test
+    public void testParallelStream() {
+        String msg = message(20000);
+        String[] specs = {"enigma", "odometer", "multinotch", "gear:1,5,2"};
+        for (String spec : specs) {
+            Configuration config = config("stepping=" + spec);
+            Machine streamed = setUpMachine(config, SETTINGS);
+            Machine converted = setUpMachine(config, SETTINGS);
+            assertEquals(spec, converted.convert(msg),
+                         letters(streamed.stream(msg, true).toArray()));
+            assertEquals(spec, converted.convert("ABCDEF"),
+                         streamed.convert("ABCDEF"));
+        }
+    }
+
+    @Test
+    public void testSequentialStream() {
+        String msg = message(3000);
+        Configuration config = config("");
+        Machine streamed = setUpMachine(config, SETTINGS);
+        Machine converted = setUpMachine(config, SETTINGS);
+        assertEquals(converted.convert(msg),
+                     letters(streamed.stream(msg, false).toArray()));
+        assertEquals(converted.convert("ABCDEF"),
+                     streamed.convert("ABCDEF"));
+    }
+
+    @Test
+    public void testSplit() {
+        String msg = message(5000);
+        Configuration config = config("");
+        Machine machine = setUpMachine(config, SETTINGS);
+        String expected = setUpMachine(config, SETTINGS).convert(msg);
+
+        Spliterator.OfInt suffix = machine.spliterator(msg);
+        assertEquals(5000, suffix.estimateSize());
+        assertTrue(suffix.hasCharacteristics(Spliterator.SIZED
+                                             | Spliterator.SUBSIZED
+                                             | Spliterator.ORDERED));
+        Spliterator.OfInt prefix = suffix.trySplit();
+        assertEquals(2500, prefix.estimateSize());
+        assertEquals(2500, suffix.estimateSize());
+        Spliterator.OfInt quarter = prefix.trySplit();
+        assertEquals(1250, quarter.estimateSize());
+        assertEquals(1250, prefix.estimateSize());
+        assertNull(quarter.trySplit());
+
+        assertTrue(quarter.tryAdvance(
+            (int x) -> assertEquals(expected.charAt(0), 'A' + x)));
+        assertEquals(1249, quarter.estimateSize());
+        assertEquals(expected.substring(2500), drain(suffix));
+        assertEquals(expected.substring(1, 1250), drain(quarter));
+        assertEquals(expected.substring(1250, 2500), drain(prefix));
+        assertEquals(0, prefix.estimateSize());
+        assertFalse(prefix.tryAdvance((int x) -> fail("advanced past end")));
+    }
+
+    @Test
+    public void testLaterChanges() {
+        String msg = message(3000);
+        Configuration config = config("");
+        String expected = setUpMachine(config, SETTINGS).convert(msg);
+        Machine machine = setUpMachine(config, SETTINGS);
+        Spliterator.OfInt keystream = machine.spliterator(msg);
+        machine.setRings("BBBB");
+        assertEquals(expected, drain(keystream));
+
+        machine = setUpMachine(config, SETTINGS);
+        IntStream stream = machine.stream(msg, true);
+        Configuration.setUp(machine, "* R F Z Y X FEDC BBBB (BC)");
+        assertEquals(expected, letters(stream.toArray()));
+    }
+}
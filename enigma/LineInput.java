@@ -0,0 +1,117 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
+
+import static enigma.EnigmaException.*;
+
+/** A line-at-a-time reader over a byte stream that keeps track of how many
+ *  bytes and lines it has consumed, so that a later run can reopen the
+ *  same file positioned at a line boundary.  Lines end at '\n'; a
+ *  preceding '\r' is dropped, as with Scanner.nextLine().
+ *  @author William Tai
+ */
+class LineInput implements Closeable {
+
+    /** A reader for the lines of IN, whose first byte lies at byte OFFSET
+     *  and line number LINE of the underlying source. */
+    LineInput(InputStream in, long offset, long line) {
+        _in = new BufferedInputStream(in);
+        _offset = offset;
+        _line = line;
+    }
+
+    /** A reader for the lines of IN, starting at its beginning. */
+    LineInput(InputStream in) {
+        this(in, 0, 0);
+    }
+
+    /** Return a reader for the file named NAME, positioned at byte OFFSET,
+     *  which is the start of line number LINE. */
+    static LineInput open(String name, long offset, long line) {
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(name));
+            channel.position(offset);
+            return new LineInput(Channels.newInputStream(channel),
+                                 offset, line);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return true iff there is another line to read. */
+    boolean hasNextLine() {
+        try {
+            _in.mark(1);
+            int c = _in.read();
+            _in.reset();
+            return c >= 0;
+        } catch (IOException excp) {
+            throw error("error reading input: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the next line, without its terminator. */
+    String nextLine() {
+        try {
+            _buffer.reset();
+            int c = _in.read();
+            if (c < 0) {
+                throw new NoSuchElementException("No line found");
+            }
+            while (c >= 0 && c != '\n') {
+                _buffer.write(c);
+                c = _in.read();
+            }
+            _offset += _buffer.size() + (c >= 0 ? 1 : 0);
+            _line += 1;
+            int len = _buffer.size();
+            byte[] bytes = _buffer.toByteArray();
+            if (len > 0 && bytes[len - 1] == '\r') {
+                len -= 1;
+            }
+            return new String(bytes, 0, len, CHARSET);
+        } catch (IOException excp) {
+            throw error("error reading input: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the byte offset of the start of the next unread line. */
+    long offset() {
+        return _offset;
+    }
+
+    /** Return the number of lines read so far (including any skipped by
+     *  the starting offset). */
+    long lineNumber() {
+        return _line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    /** Character set used to decode lines (the one Scanner uses). */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Underlying byte source. */
+    private final BufferedInputStream _in;
+
+    /** Bytes of the line being read. */
+    private final ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+
+    /** Byte offset of the next unread line. */
+    private long _offset;
+
+    /** Number of lines consumed. */
+    private long _line;
+}
@@ -1,8 +1,11 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandle;
 import java.util.HashMap;
 import java.util.Collection;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import static enigma.EnigmaException.*;
 
@@ -30,6 +33,40 @@ class Machine {
     /** The plugboard. */
     private Permutation _plugboard;
 
+    /** Plugboard followed by the rightmost rotor, for each of its
+     *  settings. */
+    private int[][] _entry;
+
+    /** Inverse of the rightmost rotor followed by the plugboard, for each
+     *  of its settings. */
+    private int[][] _exit;
+
+    /** Scratch copy of the rotor settings, by slot. */
+    private int[] _positions;
+
+    /** Name of the stepping rule to use. */
+    private String _steppingSpec = Stepping.DEFAULT;
+
+    /** Stepping rule for the inserted rotors. */
+    private Stepping _stepping;
+
+    /** True iff convert(String) should use a compiled engine. */
+    private boolean _compile;
+
+    /** The compiled engine for the current rotors, or null if not yet
+     *  generated. */
+    private MethodHandle _engine;
+
+    /** True iff the virtual reflector is on. */
+    private boolean _virtualReflector;
+
+    /** Slots 1.._foldDepth are folded into the virtual reflector. */
+    private final int _foldDepth;
+
+    /** The path through my current rotors and plugboard, or null if not
+     *  yet made. */
+    private Core _core;
+
     /** Initializes a Machine.
      *
      * @param alpha the alphabet
@@ -49,12 +86,19 @@ class Machine {
         _pawls = pawls;
         _allRotors = new HashMap<>();
         usedRotors = new Rotor[numRotors];
+        _positions = new int[numRotors];
+        _foldDepth = Math.max(0, numRotors - 3);
         for (Rotor rotor: allRotors) {
             _allRotors.put(rotor.name(), rotor);
         }
         _plugboard = new Permutation("", alpha);
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numRotors;
@@ -91,6 +135,24 @@ class Machine {
         if (!usedRotors[0].reflecting()) {
             throw EnigmaException.error("First rotor should be reflector!");
         }
+        for (int i = 1; i < usedRotors.length; i += 1) {
+            usedRotors[i].setRing(0);
+        }
+        _stepping = Stepping.create(_steppingSpec, usedRotors);
+        fusePlugboard();
+        _engine = null;
+    }
+
+    /** Use the stepping rule named by SPEC (see Stepping) from the next
+     *  insertRotors on.  The default is Stepping.DEFAULT. */
+    void setStepping(String spec) {
+        Stepping.check(spec);
+        _steppingSpec = spec;
+    }
+
+    /** Return the stepping rule for my current rotors. */
+    Stepping stepping() {
+        return _stepping;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -109,9 +171,121 @@ class Machine {
         }
     }
 
+    /** Set the rotor in each slot K after the reflector to the alphabet
+     *  index SETTING[K - 1]. */
+    void setRotors(int[] setting) {
+        for (int i = 1; i < numRotors(); i++) {
+            usedRotors[i].set(setting[i - 1]);
+        }
+    }
+
+    /** Set the ring settings of the rotors after the reflector according
+     *  to RINGS, a string of numRotors()-1 letters, the first for the
+     *  leftmost of them.  The rings are folded into the rotors' tables
+     *  (see Rotor.setRing) and the plugboard and reflector caches rebuilt
+     *  here, so conversion costs the same with rings as without. */
+    void setRings(String rings) {
+        if (rings.length() != numRotors() - 1) {
+            throw error("bad ring setting: %s", rings);
+        }
+        for (int i = 1; i < numRotors(); i += 1) {
+            char c = rings.charAt(i - 1);
+            if (!_alphabet.contains(c)) {
+                throw error("bad ring setting: %s", rings);
+            }
+            usedRotors[i].setRing(_alphabet.toInt(c));
+        }
+        fusePlugboard();
+        _engine = null;
+    }
+
+    /** Return the ring setting of the rotor in slot K. */
+    int rotorRing(int k) {
+        return usedRotors[k].ring();
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        fusePlugboard();
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Fold the plugboard into the tables of the rightmost rotor, so that
+     *  for each setting S of that rotor, _entry[S] maps a plaintext index
+     *  through the plugboard and the rotor, and _exit[S] maps back
+     *  through the rotor's inverse and the plugboard, and discard my core.
+     *  Does nothing until rotors have been inserted. */
+    private void fusePlugboard() {
+        Rotor fast = usedRotors[numRotors() - 1];
+        if (fast == null) {
+            return;
+        }
+        int n = _alphabet.size();
+        _entry = new int[n][n];
+        _exit = new int[n][n];
+        for (int s = 0; s < n; s += 1) {
+            int[] forward = fast.forwardTable(s);
+            int[] backward = fast.backwardTable(s);
+            for (int x = 0; x < n; x += 1) {
+                _entry[s][x] = forward[_plugboard.permute(x)];
+                _exit[s][x] = _plugboard.permute(backward[x]);
+            }
+        }
+        _core = null;
+    }
+
+    /** Return a snapshot of my rotor order, rotor positions and plugboard.
+     *  Its stream offsets are 0. */
+    MachineState snapshot() {
+        String[] names = new String[numRotors()];
+        int[] positions = new int[numRotors()];
+        int[] rings = new int[numRotors()];
+        for (int i = 0; i < numRotors(); i += 1) {
+            names[i] = usedRotors[i].name();
+            positions[i] = usedRotors[i].setting();
+            rings[i] = usedRotors[i].ring();
+        }
+        return new MachineState(names, positions, rings,
+                                _plugboard.cycles(), 0, 0, 0);
+    }
+
+    /** Put me in the state recorded by STATE, as if its rotors had been
+     *  inserted and set and its plugboard installed. */
+    void restore(MachineState state) {
+        if (state.rotors().length != numRotors()) {
+            throw error("checkpoint does not match configuration");
+        }
+        insertRotors(state.rotors());
+        for (int i = 1; i < numRotors(); i += 1) {
+            usedRotors[i].set(state.position(i));
+            usedRotors[i].setRing(state.ring(i));
+        }
+        _engine = null;
+        setPlugboard(new Permutation(state.plugboard(), _alphabet));
+    }
+
+    /** Use a compiled engine for convert(String) iff ENABLED.  The first
+     *  conversion after rotors are inserted generates (or reuses) a class
+     *  specialized for the rotor order; see EngineCompiler.  If no engine
+     *  can be generated, conversion uses the interpreter path. */
+    void setCompiledEngine(boolean enabled) {
+        _compile = enabled;
+        _engine = null;
+    }
+
+    /** Turn the virtual reflector on iff ENABLED.  When on, convert(String)
+     *  treats the reflector and every rotor to the left of the two
+     *  rightmost slots as one cached permutation, rebuilt only after one
+     *  of those rotors moves, so that most characters pass through just
+     *  the two rightmost rotors and one composite lookup (see Core). */
+    void setVirtualReflector(boolean enabled) {
+        _virtualReflector = enabled;
+        _core = null;
     }
 
     /** Returns the result of converting the input character C (as an
@@ -119,21 +293,7 @@ class Machine {
 
      *  the machine. */
     int convert(int c) {
-        ArrayList<Rotor> sub = new ArrayList<Rotor>();
-        sub.add(usedRotors[usedRotors.length - 1]);
-        for (int i = usedRotors.length - 2; i > 0; i--) {
-            if (usedRotors[i].rotates() && usedRotors[i + 1].atNotch()) {
-                if (sub.contains(usedRotors[i + 1])) {
-                    sub.add(usedRotors[i]);
-                } else {
-                    sub.add(usedRotors[i]);
-                    sub.add(usedRotors[i + 1]);
-                }
-            }
-        }
-        for (Rotor r: sub) {
-            r.advance();
-        }
+        advanceRotors();
 
         int to = usedRotors[usedRotors.length - 1].convertForward(c
                 - _alphabet.toChar(0));
@@ -149,16 +309,183 @@ class Machine {
         return fro + _alphabet.toChar(0);
     }
 
+    /** Return the setting of the rotor in slot K. */
+    int rotorSetting(int k) {
+        return usedRotors[k].setting();
+    }
+
+    /** Return the rotor in slot K. */
+    Rotor rotor(int k) {
+        return usedRotors[k];
+    }
+
+    /** Return true iff the rotor in slot K moves. */
+    boolean rotorRotates(int k) {
+        return usedRotors[k].rotates();
+    }
+
+    /** Advance my rotors as when converting a character, without
+     *  converting anything. */
+    void step() {
+        advanceRotors();
+    }
+
+    /** Fill TABLE with the permutation that my rotors, without the
+     *  plugboard, apply to each alphabet index at their current settings. */
+    void coreTable(int[] table) {
+        int last = usedRotors.length - 1;
+        for (int x = 0; x < table.length; x += 1) {
+            int to = x;
+            for (int i = last; i > 0; i--) {
+                Rotor r = usedRotors[i];
+                to = r.forwardTable(r.setting())[to];
+            }
+            to = usedRotors[0].forwardTable(0)[to];
+            for (int i = 1; i <= last; i++) {
+                Rotor r = usedRotors[i];
+                to = r.backwardTable(r.setting())[to];
+            }
+            table[x] = to;
+        }
+    }
+
+    /** Return a new core for my current rotors, rings and plugboard,
+     *  with the reflector and the rotors in slots 1 .. numRotors()-3
+     *  folded into a virtual reflector iff FOLD (see Core). */
+    Core core(boolean fold) {
+        return new Core(usedRotors, _entry, _exit, fold ? _foldDepth : 0);
+    }
+
+    /** Advance my rotors by one key press according to my stepping
+     *  rule. */
+    private void advanceRotors() {
+        int[] pos = _positions;
+        for (int i = 1; i < pos.length; i++) {
+            pos[i] = usedRotors[i].setting();
+        }
+        _stepping.step(pos);
+        updateRotors();
+    }
+
+    /** Advance my rotors as for N key presses, without converting
+     *  anything, using the stepping rule's jump-ahead. */
+    void advance(long n) {
+        int[] pos = _positions;
+        for (int i = 1; i < pos.length; i++) {
+            pos[i] = usedRotors[i].setting();
+        }
+        _stepping.advance(pos, n);
+        updateRotors();
+    }
+
+    /** Set each rotor whose setting differs from _positions to match. */
+    private void updateRotors() {
+        int[] pos = _positions;
+        for (int i = 1; i < pos.length; i++) {
+            if (pos[i] != usedRotors[i].setting()) {
+                usedRotors[i].set(pos[i]);
+            }
+        }
+    }
+
+    /** Return the index of the result of converting the plaintext index
+     *  X through the plugboard, rotors and plugboard again, after first
+     *  advancing the machine. */
+    private int convertIndex(int x) {
+        advanceRotors();
+        if (_core == null) {
+            _core = core(_virtualReflector);
+        }
+        return _core.convert(_positions, x);
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
         String msg1 = msg.toUpperCase().replaceAll("\\s+", "");
         char[] temp = msg1.toCharArray();
+        if (compiledEngine() != null) {
+            return convertCompiled(temp);
+        }
         char[] result = new char[msg1.length()];
         for (int i = 0; i < temp.length; i++) {
-            char plug = _plugboard.permute(temp[i]);
-            int conversion = convert(plug) - _alphabet.toChar(0);
-            result[i] = _alphabet.toChar(_plugboard.permute(conversion));
+            result[i] = _alphabet.toChar(convertIndex(
+                    _alphabet.toInt(temp[i])));
+        }
+        return new String(result);
+    }
+
+    /** Convert the alphabet indices TEXT in place, updating the state of
+     *  the rotors accordingly. */
+    void convert(int[] text) {
+        for (int i = 0; i < text.length; i++) {
+            text[i] = convertIndex(text[i]);
+        }
+    }
+
+    /** Return a spliterator over the encipherment of TEXT, as alphabet
+     *  indices, from my current settings, and advance me past TEXT as
+     *  convert would.  Every character of TEXT must be in my alphabet
+     *  (strip whitespace first).  The spliterator splits by jumping ahead,
+     *  so TEXT is enciphered in parallel pieces in encounter order.  It
+     *  uses a core (which copies my rotors' table rows), so it does not
+     *  see later changes to me, including new ring settings or rotors. */
+    Spliterator.OfInt spliterator(CharSequence text) {
+        int[] pos = new int[numRotors()];
+        for (int i = 1; i < numRotors(); i += 1) {
+            pos[i] = usedRotors[i].setting();
+        }
+        Spliterator.OfInt result =
+            new KeystreamSpliterator(_alphabet, core(_virtualReflector),
+                                     _stepping, text, pos, 0,
+                                     text.length());
+        advance(text.length());
+        return result;
+    }
+
+    /** Return a stream of the encipherment of TEXT, as for spliterator,
+     *  which is parallel iff PARALLEL. */
+    IntStream stream(CharSequence text, boolean parallel) {
+        return StreamSupport.intStream(spliterator(text), parallel);
+    }
+
+    /** Return the compiled engine for my current rotors, or null if
+     *  compiled engines are off or unavailable. */
+    private MethodHandle compiledEngine() {
+        if (!_compile || usedRotors[0] == null) {
+            return null;
+        }
+        if (_engine == null) {
+            _engine = EngineCompiler.compile(usedRotors, _stepping);
+            if (_engine == null) {
+                _compile = false;
+            }
+        }
+        return _engine;
+    }
+
+    /** Return the conversion of the characters MSG using the compiled
+     *  engine, updating the state of the rotors accordingly. */
+    private String convertCompiled(char[] msg) {
+        int[] text = new int[msg.length];
+        for (int i = 0; i < msg.length; i += 1) {
+            text[i] = _alphabet.toInt(msg[i]);
+        }
+        int[] pos = new int[numRotors()];
+        for (int i = 1; i < numRotors(); i += 1) {
+            pos[i] = usedRotors[i].setting();
+        }
+        try {
+            _engine.invokeExact(pos, _entry, _exit, text, text.length);
+        } catch (Throwable excp) {
+            throw error("compiled engine failed: %s", excp);
+        }
+        for (int i = 1; i < numRotors(); i += 1) {
+            usedRotors[i].set(pos[i]);
+        }
+        char[] result = new char[text.length];
+        for (int i = 0; i < text.length; i += 1) {
+            result[i] = _alphabet.toChar(text[i]);
         }
         return new String(result);
     }
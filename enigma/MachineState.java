@@ -0,0 +1,200 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static enigma.EnigmaException.*;
+
+/** An immutable snapshot of everything needed to resume a Machine partway
+ *  through a stream: the rotor order, rotor positions, ring settings and
+ *  plugboard, plus
+ *  the input and output offsets reached when it was taken.  Its binary
+ *  form is a few dozen bytes.
+ *  @author William Tai
+ */
+final class MachineState {
+
+    /** A snapshot of a machine whose slots hold the rotors named ROTORS
+     *  at positions POSITIONS, with plugboard PLUGBOARD in cycle notation,
+     *  taken after reading INPUTOFFSET bytes (LINE lines) of input and
+     *  writing OUTPUTOFFSET bytes of output. */
+    MachineState(String[] rotors, int[] positions, String plugboard,
+                 long inputOffset, long line, long outputOffset) {
+        this(rotors, positions, new int[positions.length], plugboard,
+             inputOffset, line, outputOffset);
+    }
+
+    /** A snapshot as for the constructor above, whose rotors have ring
+     *  settings RINGS (by slot). */
+    MachineState(String[] rotors, int[] positions, int[] rings,
+                 String plugboard, long inputOffset, long line,
+                 long outputOffset) {
+        if (rotors.length != positions.length
+            || rings.length != positions.length) {
+            throw error("rotor and position counts differ");
+        }
+        _rotors = rotors.clone();
+        _positions = positions.clone();
+        _rings = rings.clone();
+        _plugboard = plugboard;
+        _inputOffset = inputOffset;
+        _line = line;
+        _outputOffset = outputOffset;
+    }
+
+    /** Return a copy of me recording input byte offset INPUTOFFSET, line
+     *  number LINE and output byte offset OUTPUTOFFSET. */
+    MachineState withOffsets(long inputOffset, long line, long outputOffset) {
+        return new MachineState(_rotors, _positions, _rings, _plugboard,
+                                inputOffset, line, outputOffset);
+    }
+
+    /** Return the names of the rotors in slot order (reflector first). */
+    String[] rotors() {
+        return _rotors.clone();
+    }
+
+    /** Return the position of the rotor in slot K. */
+    int position(int k) {
+        return _positions[k];
+    }
+
+    /** Return the ring setting of the rotor in slot K. */
+    int ring(int k) {
+        return _rings[k];
+    }
+
+    /** Return the plugboard in cycle notation. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the byte offset of the first unread input line. */
+    long inputOffset() {
+        return _inputOffset;
+    }
+
+    /** Return the number of input lines consumed. */
+    long line() {
+        return _line;
+    }
+
+    /** Return the number of output bytes written. */
+    long outputOffset() {
+        return _outputOffset;
+    }
+
+    /** Return my binary encoding. */
+    byte[] toBytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(_rotors.length);
+            for (int i = 0; i < _rotors.length; i += 1) {
+                out.writeUTF(_rotors[i]);
+                out.writeShort(_positions[i]);
+            }
+            out.writeUTF(_plugboard);
+            out.writeLong(_inputOffset);
+            out.writeLong(_line);
+            out.writeLong(_outputOffset);
+            for (int ring : _rings) {
+                out.writeShort(ring);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("could not encode machine state");
+        }
+    }
+
+    /** Return the state encoded in DATA by toBytes().  Encodings from
+     *  before ring settings, which end after the output offset, have
+     *  rings all 0. */
+    static MachineState fromBytes(byte[] data) {
+        try {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) {
+                throw error("not a machine checkpoint");
+            }
+            int n = in.readUnsignedByte();
+            String[] rotors = new String[n];
+            int[] positions = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                rotors[i] = in.readUTF();
+                positions[i] = in.readUnsignedShort();
+            }
+            String plugboard = in.readUTF();
+            long inputOffset = in.readLong();
+            long line = in.readLong();
+            long outputOffset = in.readLong();
+            int[] rings = new int[n];
+            if (in.available() > 0) {
+                for (int i = 0; i < n; i += 1) {
+                    rings[i] = in.readUnsignedShort();
+                }
+            }
+            return new MachineState(rotors, positions, rings, plugboard,
+                                    inputOffset, line, outputOffset);
+        } catch (IOException excp) {
+            throw error("corrupt machine checkpoint");
+        }
+    }
+
+    /** Write me to FILE, replacing it atomically so that a crash never
+     *  leaves a partly written checkpoint behind. */
+    void save(Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, toBytes());
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", file);
+        }
+    }
+
+    /** Return the state saved in FILE. */
+    static MachineState load(Path file) {
+        try {
+            return fromBytes(Files.readAllBytes(file));
+        } catch (NoSuchFileException excp) {
+            throw error("no checkpoint to resume from: %s", file);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+    }
+
+    /** Leading tag of an encoded state ("ENCK"). */
+    private static final int MAGIC = 0x454e434b;
+
+    /** Rotor names in slot order. */
+    private final String[] _rotors;
+
+    /** Rotor positions in slot order. */
+    private final int[] _positions;
+
+    /** Ring settings in slot order. */
+    private final int[] _rings;
+
+    /** Plugboard cycles. */
+    private final String _plugboard;
+
+    /** Input offset, in bytes. */
+    private final long _inputOffset;
+
+    /** Input lines consumed. */
+    private final long _line;
+
+    /** Output offset, in bytes. */
+    private final long _outputOffset;
+}
@@ -0,0 +1,82 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+
+/** Tests of machine snapshots and the line reader used to resume input.
+ *  @author William Tai
+ */
+public class MachineStateTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a naval machine set to B Beta I II III AXLE, with a
+     *  plugboard. */
+    private static Machine axleMachine() {
+        Machine mach = navalMachine();
+        Configuration.setUp(mach, "* B Beta I II III AXLE"
+                            + " (HQ) (EX) (IP) (TR) (BY)");
+        return mach;
+    }
+
+    @Test
+    public void testCycles() {
+        Permutation p = new Permutation("(BA) (CDE)", UPPER);
+        assertEquals("(AB) (CDE)", p.cycles());
+        assertEquals("", new Permutation("", UPPER).cycles());
+    }
+
+    @Test
+    public void testRestoreContinuesStream() {
+        Machine mach = axleMachine();
+        mach.convert("FROM HIS SHOULDER HIAWATHA");
+        MachineState state = mach.snapshot().withOffsets(27, 1, 30);
+        String expected = mach.convert("TOOK THE CAMERA OF ROSEWOOD");
+
+        Machine other = axleMachine();
+        MachineState copy = MachineState.fromBytes(state.toBytes());
+        other.restore(copy);
+        assertEquals(expected, other.convert("TOOK THE CAMERA OF ROSEWOOD"));
+        assertEquals(27, copy.inputOffset());
+        assertEquals(1, copy.line());
+        assertEquals(30, copy.outputOffset());
+    }
+
+    @Test
+    public void testRestoreRings() {
+        Machine mach = axleMachine();
+        mach.setRings("BCDE");
+        mach.convert("FROM HIS SHOULDER HIAWATHA");
+        MachineState state = mach.snapshot();
+        String expected = mach.convert("TOOK THE CAMERA OF ROSEWOOD");
+
+        Machine other = axleMachine();
+        other.restore(MachineState.fromBytes(state.toBytes()));
+        assertEquals(2, other.rotorRing(2));
+        assertEquals(expected, other.convert("TOOK THE CAMERA OF ROSEWOOD"));
+    }
+
+    @Test
+    public void testLineOffsets() {
+        byte[] text = "* B\r\nab\n\nlast".getBytes(StandardCharsets.UTF_8);
+        LineInput in = new LineInput(new ByteArrayInputStream(text));
+        assertEquals("* B", in.nextLine());
+        assertEquals(5, in.offset());
+        assertEquals("ab", in.nextLine());
+        assertEquals("", in.nextLine());
+        assertEquals(9, in.offset());
+        assertEquals("last", in.nextLine());
+        assertFalse(in.hasNextLine());
+        assertEquals(text.length, in.offset());
+        assertEquals(4, in.lineNumber());
+    }
+}
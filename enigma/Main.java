@@ -4,12 +4,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
 import java.util.Scanner;
-import java.util.Arrays;
 
 import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
 
 /** Enigma simulator.
  *  @author William Tai
@@ -24,7 +29,22 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  Options may appear anywhere among ARGS.  --checkpoint[=N] saves the
+     *  machine state and stream offsets to the sidecar file ARGS[1].ckpt
+     *  every N input lines (default 10000), removing it once the input is
+     *  exhausted.  --resume continues an interrupted run from that sidecar
+     *  instead of from the start of the input.  Both require an input
+     *  file.  --packed-input reads the input as records in the packed
+     *  format of PackedCodec instead of as text, and --packed-output
+     *  writes each converted message as a packed record instead of in
+     *  groups of five; neither may be combined with checkpoints.  A
+     *  settings line holding several settings separated by '|' sets up a
+     *  cascade of machines (see Cascade), which converts the messages
+     *  that follow through each in turn.  Running
+     *  with -Denigma.compile=true converts messages with engines generated
+     *  for each rotor order (see EngineCompiler). */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -37,23 +57,101 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
-        if (args.length < 1 || args.length > 3) {
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                parseOption(arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() < 1 || files.size() > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
+        if (_checkpointInterval > 0 && files.size() < 2) {
+            throw error("checkpoints require an input file");
+        }
+        if (_checkpointInterval > 0 && (_packedInput || _packedOutput)) {
+            throw error("checkpoints require text input and output");
+        }
 
-        _config = getInput(args[0]);
+        _config = getInput(files.get(0));
+        PackedCodec codec = null;
+        if (_packedInput || _packedOutput) {
+            _configuration = Configuration.read(_config);
+            codec = new PackedCodec(_configuration.alphabet());
+        }
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        long outputOffset = 0;
+        if (_packedInput) {
+            try {
+                _input = codec.new Input(files.size() > 1
+                    ? Files.newInputStream(Paths.get(files.get(1)))
+                    : System.in);
+            } catch (IOException excp) {
+                throw error("could not open %s", files.get(1));
+            }
+        } else if (files.size() > 1) {
+            String name = files.get(1);
+            if (_checkpointInterval > 0) {
+                _checkpointFile = Paths.get(name + CHECKPOINT_SUFFIX);
+            }
+            if (_resume) {
+                _resumeState = MachineState.load(_checkpointFile);
+                _input = LineInput.open(name, _resumeState.inputOffset(),
+                                        _resumeState.line());
+                outputOffset = _resumeState.outputOffset();
+            } else {
+                _input = LineInput.open(name, 0, 0);
+            }
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineInput(System.in);
         }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        if (files.size() > 2) {
+            _output = getOutput(files.get(2), outputOffset);
         } else {
             _output = System.out;
         }
+        if (_packedOutput) {
+            _packedWriter = codec.new Writer(_output);
+        }
+    }
+
+    /** A Main that applies a machine built from CONFIG to the messages
+     *  in INPUT, sending the results to OUTPUT. */
+    Main(Configuration config, LineInput input, PrintStream output) {
+        _configuration = config;
+        _input = input;
+        _output = output;
+    }
+
+    /** Record the command-line option OPTION. */
+    private void parseOption(String option) {
+        if (option.equals("--resume")) {
+            _resume = true;
+            if (_checkpointInterval == 0) {
+                _checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+            }
+        } else if (option.equals("--packed-input")) {
+            _packedInput = true;
+        } else if (option.equals("--packed-output")) {
+            _packedOutput = true;
+        } else if (option.equals("--checkpoint")) {
+            _checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        } else if (option.startsWith("--checkpoint=")) {
+            String interval = option.substring(option.indexOf('=') + 1);
+            try {
+                _checkpointInterval = Integer.parseInt(interval);
+            } catch (NumberFormatException excp) {
+                throw error("bad checkpoint interval: %s", option);
+            }
+            if (_checkpointInterval <= 0) {
+                throw error("bad checkpoint interval: %s", option);
+            }
+        } else {
+            throw error("unknown option: %s", option);
+        }
     }
 
     /** Return a Scanner reading from the file named NAME. */
@@ -65,10 +163,16 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a PrintStream writing to the file named NAME, keeping its
+     *  first OFFSET bytes and discarding the rest. */
+    private PrintStream getOutput(String name, long offset) {
         try {
-            return new PrintStream(new File(name));
+            FileChannel channel = FileChannel.open(Paths.get(name),
+                                                   CREATE, WRITE);
+            channel.truncate(offset);
+            channel.position(offset);
+            _outputChannel = channel;
+            return new PrintStream(Channels.newOutputStream(channel));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -77,122 +181,150 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
         Machine terminator = readConfig();
-        String line = _input.nextLine();
+        if (_resumeState != null) {
+            terminator.restore(_resumeState);
+        } else {
+            String line = _input.nextLine();
 
-        if (!line.contains("*")) {
-            throw EnigmaException.error("Bad Setting");
-        }
+            if (!line.contains("*")) {
+                throw EnigmaException.error("Bad Setting");
+            }
 
-        setUp(terminator, line);
+            settings(terminator, line);
+        }
+        _lastCheckpoint = _input.lineNumber();
 
         while (_input.hasNextLine()) {
             String inp = _input.nextLine();
             if (inp.contains("*")) {
-                setUp(terminator, inp);
+                settings(terminator, inp);
                 if (_input.hasNextLine()) {
                     String sub = _input.nextLine();
-                    String message = terminator.convert(sub);
+                    String message = convert(terminator, sub);
                     printMessageLine(message);
                 }
             } else {
-                String message = terminator.convert(inp);
+                String message = convert(terminator, inp);
                 printMessageLine(message);
             }
+            if (_checkpointFile != null
+                && _input.lineNumber() - _lastCheckpoint
+                   >= _checkpointInterval) {
+                checkpoint(terminator);
+            }
+        }
+        flushOutput();
+        if (_checkpointFile != null) {
+            try {
+                Files.deleteIfExists(_checkpointFile);
+            } catch (IOException excp) {
+                throw error("could not remove %s", _checkpointFile);
+            }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Save the state of M and the current stream offsets to the
+     *  checkpoint file. */
+    private void checkpoint(Machine M) {
+        flushOutput();
+        long written = 0;
         try {
-            ArrayList<Rotor> allRotors = new ArrayList<>();
-            String alpha = _config.next();
-            _alphabet = new CharacterRange(alpha.charAt(0),
-                    alpha.charAt(alpha.length() - 1));
-            numRotors = _config.nextInt();
-            pawls = _config.nextInt();
-            rname = _config.next().toUpperCase();
-            while (_config.hasNext()) {
-                allRotors.add(readRotor());
+            if (_outputChannel != null) {
+                written = _outputChannel.position();
             }
-            return new Machine(_alphabet, numRotors, pawls, allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+        } catch (IOException excp) {
+            throw error("could not checkpoint output");
         }
+        M.snapshot().withOffsets(_input.offset(), _input.lineNumber(),
+                                 written).save(_checkpointFile);
+        _lastCheckpoint = _input.lineNumber();
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            Rotor r;
-            String permutation = "";
-            String type = _config.next();
-            String per = _config.next();
-            while (per.contains(")")) {
-                permutation += per + " ";
-                if (_config.hasNext()) {
-                    per = _config.next();
-                } else {
-                    break;
-                }
-            }
-            if (type.equals("R")) {
-                r = new Reflector(rname, new Permutation(permutation,
-                        _alphabet));
-            } else if (type.equals("N")) {
-                r = new FixedRotor(rname, new Permutation(permutation,
-                        _alphabet));
-            } else {
-                r = new MovingRotor(rname,
-                        new Permutation(permutation, _alphabet),
-                        type.substring(1));
-            }
-            rname = per.toUpperCase();
-            return r;
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config, unless a configuration was supplied already. */
+    private Machine readConfig() {
+        if (_configuration == null) {
+            _configuration = Configuration.read(_config);
+        }
+        return newMachine(_configuration);
+    }
+
+    /** Return a new machine for CONFIG, set up to convert messages as
+     *  Main does. */
+    static Machine newMachine(Configuration config) {
+        Machine machine = config.newMachine();
+        machine.setVirtualReflector(true);
+        machine.setCompiledEngine(Boolean.getBoolean(COMPILE_PROPERTY));
+        return machine;
+    }
+
+    /** Set up M according to SETTINGS, or, if it holds several settings
+     *  separated by '|', set up a cascade of machines in M's place. */
+    private void settings(Machine M, String settings) {
+        if (!settings.contains("|")) {
+            _cascade = null;
+            setUp(M, settings);
+        } else if (_checkpointFile != null) {
+            throw error("checkpoints do not support cascades");
+        } else {
+            _cascade = Cascade.setUp(_configuration, settings);
         }
     }
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
-        Permutation plugboard;
-        String[] info = settings.split(" ");
-
-        if (M.numRotors() > info.length - 1) {
-            throw  EnigmaException.error("Incorrect format");
+        SetUpEvent event = new SetUpEvent();
+        event.begin();
+        Configuration.setUp(M, settings);
+        event.end();
+        if (event.shouldCommit()) {
+            event.rotors = String.join(" ", M.snapshot().rotors());
+            event.plugboardSize = M.plugboard().cycleCount();
+            event.commit();
         }
+    }
 
-        String[] insertedRotors = Arrays.copyOfRange(info, 1,
-                numRotors + 1);
-
-        if (numRotors + 1 >= info.length) {
-            throw EnigmaException.error("Bad input");
+    /** Return the conversion of MSG by M, or by _cascade if set. */
+    private String convert(Machine M, String msg) {
+        MessageEvent event = new MessageEvent();
+        event.begin();
+        String result =
+            _cascade != null ? _cascade.convert(msg) : M.convert(msg);
+        event.end();
+        if (event.shouldCommit()) {
+            event.length = result.length();
+            event.commit();
         }
+        return result;
+    }
 
-        String setting = info[numRotors + 1];
-
-        M.insertRotors(insertedRotors);
-        M.setRotors(setting);
-
-        if (info.length > numRotors + 1) {
-            String[] sub = Arrays.copyOfRange(info, numRotors + 2,
-                    info.length);
-            String perm = "";
-            for (String s: sub) {
-                perm += s + " ";
+    /** Send everything written so far on to _output's destination. */
+    private void flushOutput() {
+        if (_packedWriter != null) {
+            try {
+                _packedWriter.flush();
+            } catch (IOException excp) {
+                throw error("could not write output");
             }
-            plugboard = new Permutation(perm, _alphabet);
-            M.setPlugboard(plugboard);
         }
+        _output.flush();
     }
 
     /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
+     *  have fewer letters), or as a packed record when writing packed
+     *  output. */
     private void printMessageLine(String msg) {
+        if (_packedWriter != null) {
+            try {
+                _packedWriter.message(msg);
+            } catch (IOException excp) {
+                throw error("could not write output");
+            }
+            return;
+        }
         char[] sub = msg.toCharArray();
         char[] chars = new char[5];
         String result = "";
@@ -213,24 +345,53 @@ public final class Main {
         _output.println((new String(chars)).substring(0, count));
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
-
     /** Source of input messages. */
-    private Scanner _input;
+    private LineInput _input;
 
     /** Source of machine configuration. */
     private Scanner _config;
 
+    /** The parsed machine configuration, or null until it is read. */
+    private Configuration _configuration;
+
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
-    /** The number of Rotors. */
-    private int numRotors;
+    /** Channel beneath _output when it is a file, else null. */
+    private FileChannel _outputChannel;
+
+    /** Cascade converting messages in place of the machine, or null. */
+    private Cascade _cascade;
+
+    /** Encoder of packed records onto _output, or null when writing
+     *  text. */
+    private PackedCodec.Writer _packedWriter;
+
+    /** True iff the input and the output, respectively, are packed. */
+    private boolean _packedInput, _packedOutput;
+
+    /** System property that, when "true", turns on compiled engines
+     *  (see EngineCompiler). */
+    private static final String COMPILE_PROPERTY = "enigma.compile";
+
+    /** Suffix appended to the input file name to form its checkpoint. */
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    /** Input lines between checkpoints when no interval is given. */
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+
+    /** Input lines between checkpoints, or 0 if not checkpointing. */
+    private int _checkpointInterval;
+
+    /** True iff resuming from a checkpoint. */
+    private boolean _resume;
+
+    /** Checkpoint file, or null if not checkpointing. */
+    private Path _checkpointFile;
 
-    /** The number of pawls. */
-    private int pawls;
+    /** State to resume from, or null when starting afresh. */
+    private MachineState _resumeState;
 
-    /** The name of the rotor currently. */
-    private String rname;
+    /** Input line number at the last checkpoint. */
+    private long _lastCheckpoint;
 }
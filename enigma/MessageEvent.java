@@ -0,0 +1,23 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event marking the conversion of one message.  Off by
+ *  default; see SetUpEvent.
+ *  @author William Tai
+ */
+@Name("enigma.Message")
+@Label("Message Conversion")
+@Category("Enigma")
+@Description("One message converted by a machine")
+@Enabled(false)
+class MessageEvent extends jdk.jfr.Event {
+
+    /** Number of characters converted. */
+    @Label("Length")
+    int length;
+}
@@ -0,0 +1,308 @@
+package enigma;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static enigma.EnigmaException.*;
+
+/** Converts messages on a pool of threads in two lanes, so that short
+ *  interactive messages are not stuck behind long bulk ones.  A message
+ *  of at most interactiveLimit characters goes to the interactive lane
+ *  and is converted whole.  A longer one goes to the bulk lane as a job
+ *  that is converted a slice of at most sliceSize characters at a time;
+ *  its machine keeps its rotor settings between slices, and after each
+ *  slice the job goes to the back of the bulk lane.  A free thread always
+ *  takes interactive work first, so an interactive message waits for at
+ *  most one slice per thread, however much bulk work is queued, and bulk
+ *  jobs share the threads round-robin.
+ *
+ *  Each message's machine is used by the scheduler until its future
+ *  completes, and must not be used elsewhere, or given another message,
+ *  in the meantime.
+ *  @author William Tai
+ */
+final class MessageScheduler implements Closeable {
+
+    /** Queue depth and wait-time measurements of one lane. */
+    static final class Lane {
+
+        /** Return the number of tasks waiting in the lane. */
+        int depth() {
+            return _depth;
+        }
+
+        /** Return the number of tasks started (for the bulk lane, slices
+         *  of jobs). */
+        long started() {
+            return _started;
+        }
+
+        /** Return the mean nanoseconds a task waited before starting. */
+        double meanWait() {
+            return _started == 0 ? 0 : _totalWait / (double) _started;
+        }
+
+        /** Return the most nanoseconds a task waited before starting. */
+        long maxWait() {
+            return _maxWait;
+        }
+
+        /** Return an upper bound, within a factor of two, of the wait in
+         *  nanoseconds at or below which a fraction P of tasks started. */
+        long waitPercentile(double p) {
+            long target = (long) Math.ceil(p * _started), seen = 0;
+            for (int b = 0; b < _histogram.length(); b += 1) {
+                seen += _histogram.get(b);
+                if (seen >= target && seen > 0) {
+                    return b == 0 ? 0 : 1L << b;
+                }
+            }
+            return _maxWait;
+        }
+
+        /** Record a task that waited WAIT nanoseconds.  Called with the
+         *  scheduler's lock held. */
+        private void started(long wait) {
+            _started += 1;
+            _totalWait += wait;
+            _maxWait = Math.max(_maxWait, wait);
+            _histogram.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(
+                                           Math.max(0, wait)));
+        }
+
+        /** Tasks waiting. */
+        private volatile int _depth;
+
+        /** Tasks started. */
+        private volatile long _started;
+
+        /** Total and greatest waits. */
+        private volatile long _totalWait, _maxWait;
+
+        /** Number of waits of each bit length. */
+        private final AtomicLongArray _histogram =
+            new AtomicLongArray(Long.SIZE + 1);
+    }
+
+    /** A scheduler running THREADS threads, sending messages of at most
+     *  INTERACTIVELIMIT characters to the interactive lane and converting
+     *  others in slices of SLICESIZE characters. */
+    MessageScheduler(int threads, int sliceSize, int interactiveLimit) {
+        if (threads < 1 || sliceSize < 1 || interactiveLimit < 0) {
+            throw error("bad scheduler parameters");
+        }
+        _sliceSize = sliceSize;
+        _interactiveLimit = interactiveLimit;
+        _threads = new Thread[threads];
+        for (int t = 0; t < threads; t += 1) {
+            _threads[t] = new Thread(this::work, "scheduler-" + t);
+            _threads[t].setDaemon(true);
+            _threads[t].start();
+        }
+    }
+
+    /** A scheduler with THREADS threads and the default slice size and
+     *  interactive limit. */
+    MessageScheduler(int threads) {
+        this(threads, SLICE_SIZE, INTERACTIVE_LIMIT);
+    }
+
+    /** Return a future for the conversion of MSG by MACHINE, ignoring
+     *  whitespace and case as Machine.convert does. */
+    CompletableFuture<String> submit(Machine machine, String msg) {
+        Task task = new Task(machine, msg);
+        _lock.lock();
+        try {
+            if (_closed) {
+                throw error("scheduler closed");
+            }
+            task._queued = System.nanoTime();
+            if (msg.length() <= _interactiveLimit) {
+                _interactive.add(task);
+                _interactiveLane._depth = _interactive.size();
+            } else {
+                _bulk.add(task);
+                _bulkLane._depth = _bulk.size();
+            }
+            _ready.signal();
+        } finally {
+            _lock.unlock();
+        }
+        return task._result;
+    }
+
+    /** Return the measurements of the interactive lane. */
+    Lane interactive() {
+        return _interactiveLane;
+    }
+
+    /** Return the measurements of the bulk lane. */
+    Lane bulk() {
+        return _bulkLane;
+    }
+
+    /** Stop my threads once the work already submitted is done, and wait
+     *  for them to finish (unless called from one of them, or
+     *  interrupted). */
+    @Override
+    public void close() {
+        _lock.lock();
+        try {
+            _closed = true;
+            _ready.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+        for (Thread thread : _threads) {
+            if (thread == Thread.currentThread()) {
+                continue;
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Run tasks, interactive ones first, until closed and idle. */
+    private void work() {
+        while (true) {
+            Task task;
+            boolean bulk;
+            _lock.lock();
+            try {
+                while (_interactive.isEmpty() && _bulk.isEmpty()) {
+                    if (_closed) {
+                        return;
+                    }
+                    _ready.awaitUninterruptibly();
+                }
+                bulk = _interactive.isEmpty();
+                Lane lane = bulk ? _bulkLane : _interactiveLane;
+                task = bulk ? _bulk.poll() : _interactive.poll();
+                lane._depth = bulk ? _bulk.size() : _interactive.size();
+                lane.started(System.nanoTime() - task._queued);
+            } finally {
+                _lock.unlock();
+            }
+            try {
+                if (!bulk) {
+                    task._result.complete(task._machine.convert(task._msg));
+                } else if (task.slice(_sliceSize)) {
+                    task._result.complete(task.output());
+                } else {
+                    _lock.lock();
+                    try {
+                        task._queued = System.nanoTime();
+                        _bulk.add(task);
+                        _bulkLane._depth = _bulk.size();
+                        _ready.signal();
+                    } finally {
+                        _lock.unlock();
+                    }
+                }
+            } catch (Throwable excp) {
+                task._result.completeExceptionally(excp);
+            }
+        }
+    }
+
+    /** One message and its progress. */
+    private static final class Task {
+
+        /** The conversion of MSG by MACHINE. */
+        Task(Machine machine, String msg) {
+            _machine = machine;
+            _msg = msg;
+        }
+
+        /** Convert up to SIZE more characters, and return true iff the
+         *  message is done. */
+        boolean slice(int size) {
+            Alphabet alpha = _machine.alphabet();
+            if (_text == null) {
+                _text = _msg.toUpperCase().replaceAll("\\s+", "")
+                    .toCharArray();
+                _slice = new int[Math.min(size, _text.length)];
+            }
+            int n = Math.min(_slice.length, _text.length - _done);
+            int[] slice = n == _slice.length ? _slice : new int[n];
+            for (int i = 0; i < n; i += 1) {
+                slice[i] = alpha.toInt(_text[_done + i]);
+            }
+            _machine.convert(slice);
+            for (int i = 0; i < n; i += 1) {
+                _text[_done + i] = alpha.toChar(slice[i]);
+            }
+            _done += n;
+            return _done == _text.length;
+        }
+
+        /** Return the converted message. */
+        String output() {
+            return new String(_text);
+        }
+
+        /** The machine converting. */
+        private final Machine _machine;
+
+        /** The message. */
+        private final String _msg;
+
+        /** For bulk messages, the letters of the message, converted in
+         *  place; null until the first slice. */
+        private char[] _text;
+
+        /** Scratch alphabet indices of a slice. */
+        private int[] _slice;
+
+        /** Characters of _text converted. */
+        private int _done;
+
+        /** Time last queued. */
+        private long _queued;
+
+        /** The result. */
+        private final CompletableFuture<String> _result =
+            new CompletableFuture<>();
+    }
+
+    /** Default characters per bulk slice. */
+    static final int SLICE_SIZE = 1 << 10;
+
+    /** Default longest interactive message. */
+    static final int INTERACTIVE_LIMIT = 1 << 10;
+
+    /** Characters per bulk slice. */
+    private final int _sliceSize;
+
+    /** Longest interactive message. */
+    private final int _interactiveLimit;
+
+    /** My threads. */
+    private final Thread[] _threads;
+
+    /** Guards the queues. */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /** Signalled when work arrives or I close. */
+    private final Condition _ready = _lock.newCondition();
+
+    /** Queued interactive messages. */
+    private final ArrayDeque<Task> _interactive = new ArrayDeque<>();
+
+    /** Queued bulk jobs, each waiting for its next slice. */
+    private final ArrayDeque<Task> _bulk = new ArrayDeque<>();
+
+    /** Lane measurements. */
+    private final Lane _interactiveLane = new Lane(), _bulkLane = new Lane();
+
+    /** True once closed. */
+    private boolean _closed;
+}
@@ -0,0 +1,140 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the two-lane message scheduler.
+ *  @author William Tai
+ */
+public class MessageSchedulerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Settings used. */
+    private static final String SETTINGS =
+        "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return N random letters, in groups of five, from RANDOM. */
+    private static String text(int n, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            if (i > 0 && i % 5 == 0) {
+                result.append(' ');
+            }
+            result.append((char) ('A' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testConversions() throws IOException, InterruptedException,
+                                         ExecutionException {
+        Configuration config = Configuration.read(CONFIG);
+        Random random = new Random(50);
+        String[] msgs = new String[30];
+        Machine[] machines = new Machine[msgs.length];
+        CompletableFuture<?>[] results = new CompletableFuture<?>[msgs.length];
+        try (MessageScheduler scheduler = new MessageScheduler(3, 100, 50)) {
+            for (int k = 0; k < msgs.length; k += 1) {
+                msgs[k] = text(k % 3 == 0 ? 1000 + k : 1 + k, random);
+                machines[k] = setUpMachine(config, SETTINGS);
+                results[k] = scheduler.submit(machines[k], msgs[k]);
+            }
+            for (int k = 0; k < msgs.length; k += 1) {
+                Machine reference = setUpMachine(config, SETTINGS);
+                assertEquals(reference.convert(msgs[k]), results[k].get());
+            }
+            assertEquals(20, scheduler.interactive().started());
+            assertEquals(10 + 9 * 11, scheduler.bulk().started());
+            assertEquals(0, scheduler.bulk().depth());
+        }
+        Machine machine = setUpMachine(config, SETTINGS);
+        machine.convert(msgs[3]);
+        assertEquals(machine.rotorSetting(4), machines[3].rotorSetting(4));
+        assertEquals(machine.rotorSetting(3), machines[3].rotorSetting(3));
+    }
+
+    @Test
+    public void testInteractiveFirst() throws IOException,
+                                              InterruptedException,
+                                              ExecutionException {
+        Configuration config = Configuration.read(CONFIG);
+        Random random = new Random(51);
+        String bulk = text(1 << 22, random);
+        try (MessageScheduler scheduler =
+             new MessageScheduler(1, 1 << 10, 100)) {
+            CompletableFuture<String> bulkResult =
+                scheduler.submit(setUpMachine(config, SETTINGS), bulk);
+            for (int k = 0; k < 20; k += 1) {
+                String msg = text(20, random);
+                Machine machine = setUpMachine(config, SETTINGS);
+                assertEquals(setUpMachine(config, SETTINGS).convert(msg),
+                             scheduler.submit(machine, msg).get());
+            }
+            assertFalse(bulkResult.isDone());
+            assertEquals(20, scheduler.interactive().started());
+            Machine reference = setUpMachine(config, SETTINGS);
+            assertEquals(reference.convert(bulk), bulkResult.get());
+        }
+    }
+
+    @Test
+    public void testBadMessage() throws IOException, InterruptedException,
+                                        ExecutionException {
+        Configuration config = Configuration.read(CONFIG);
+        try (MessageScheduler scheduler = new MessageScheduler(1, 4, 4)) {
+            for (String msg : new String[] { "AB3", "ABCDEFGH3" }) {
+                try {
+                    Machine machine = setUpMachine(config, SETTINGS);
+                    scheduler.submit(machine, msg).get();
+                    fail("bad message converted");
+                } catch (ExecutionException excp) {
+                    assertTrue(excp.getCause() instanceof EnigmaException);
+                }
+            }
+            Machine failing = new Machine(UPPER, 5, 3, new ArrayList<>()) {
+                @Override
+                String convert(String msg) {
+                    throw new StackOverflowError();
+                }
+            };
+            try {
+                scheduler.submit(failing, "AB").get();
+                fail("failing machine converted");
+            } catch (ExecutionException excp) {
+                assertTrue(excp.getCause() instanceof StackOverflowError);
+            }
+            Machine machine = setUpMachine(config, SETTINGS);
+            assertEquals(setUpMachine(config, SETTINGS).convert("AB"),
+                         scheduler.submit(machine, "AB").get());
+        }
+    }
+
+    @Test
+    public void testCloseWaits() throws IOException {
+        Configuration config = Configuration.read(CONFIG);
+        Random random = new Random(52);
+        CompletableFuture<?>[] results = new CompletableFuture<?>[6];
+        MessageScheduler scheduler = new MessageScheduler(2, 1 << 10, 10);
+        for (int k = 0; k < results.length; k += 1) {
+            results[k] = scheduler.submit(setUpMachine(config, SETTINGS),
+                                          text(1 << 16, random));
+        }
+        scheduler.close();
+        for (CompletableFuture<?> result : results) {
+            assertTrue(result.isDone());
+        }
+    }
+}
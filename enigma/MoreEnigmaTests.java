@@ -5,6 +5,10 @@ import static org.junit.Assert.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import javax.tools.ToolProvider;
+
+import static enigma.TestUtils.*;
+
 /** Some extra tests for Enigma.
  *  @author William Tai
  */
@@ -40,6 +44,117 @@ public class MoreEnigmaTests {
         assertEquals("AABA", getSetting(ac, machineRotors));
     }
 
+    @Test
+    public void testPlugboardAfterRotors() {
+        Alphabet ac = new CharacterRange('A', 'D');
+        Rotor[] machineRotors = {
+            new Reflector("R1", new Permutation("(AC) (BD)", ac)),
+            new MovingRotor("R2", new Permutation("(ABDC)", ac), "C"),
+            new MovingRotor("R3", new Permutation("(AB) (CD)", ac), "A"),
+        };
+        String[] rotors = {"R1", "R2", "R3"};
+        Machine plain = new Machine(ac, 3, 2,
+                new ArrayList<>(Arrays.asList(machineRotors)));
+        plain.insertRotors(rotors);
+        plain.setRotors("BA");
+        String expected = "";
+        Permutation plug = new Permutation("(AD)", ac);
+        for (char c : "ABCDDCBA".toCharArray()) {
+            int out = plain.convert(plug.permute(c)) - 'A';
+            expected += ac.toChar(plug.permute(out));
+        }
+
+        Machine plugged = new Machine(ac, 3, 2,
+                new ArrayList<>(Arrays.asList(machineRotors)));
+        plugged.insertRotors(rotors);
+        plugged.setRotors("BA");
+        plugged.setPlugboard(plug);
+        assertEquals(expected, plugged.convert("ABCD DCBA"));
+    }
+
+    @Test
+    public void testVirtualReflector() {
+        String[] rotors = {"B", "Beta", "I", "II", "III"};
+        Machine reference = navalMachine();
+        reference.insertRotors(rotors);
+        reference.setRotors("AXDT");
+        Machine folded = navalMachine();
+        folded.setVirtualReflector(true);
+        folded.insertRotors(rotors);
+        folded.setRotors("AXDT");
+
+        String msg = "";
+        for (int i = 0; i < 3000; i += 1) {
+            msg += (char) ('A' + (i * 7 + i / 26) % 26);
+        }
+        assertEquals(reference.convert(msg), folded.convert(msg));
+    }
+
+    @Test
+    public void testCompiledEngine() {
+        String[] rotors = {"B", "Beta", "I", "II", "III"};
+        Permutation plugboard = new Permutation("(AQ) (EP) (YZ)",
+                                                TestUtils.UPPER);
+        Machine reference = navalMachine();
+        reference.insertRotors(rotors);
+        reference.setRotors("AXDT");
+        reference.setPlugboard(plugboard);
+        Machine compiled = navalMachine();
+        compiled.setCompiledEngine(true);
+        compiled.insertRotors(rotors);
+        compiled.setRotors("AXDT");
+        compiled.setPlugboard(plugboard);
+
+        String msg = "";
+        for (int i = 0; i < 3000; i += 1) {
+            msg += (char) ('A' + (i * 7 + i / 26) % 26);
+        }
+        assertEquals(reference.convert(msg), compiled.convert(msg));
+        assertEquals(reference.convert("FROM HIS SHOULDER"),
+                     compiled.convert("FROM HIS SHOULDER"));
+
+        if (ToolProvider.getSystemJavaCompiler() != null) {
+            Rotor[] order = {
+                new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)),
+                new FixedRotor("Beta",
+                               new Permutation(NAVALA.get("Beta"), UPPER)),
+                new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                                "Q"),
+            };
+            assertNotNull("no engine generated", EngineCompiler.compile(
+                order, Stepping.create(Stepping.DEFAULT, order)));
+            order[2].setRing(3);
+            assertNotNull("no engine generated for new rings",
+                          EngineCompiler.compile(
+                              order, Stepping.create(Stepping.DEFAULT,
+                                                     order)));
+        }
+    }
+
+    @Test
+    public void testRings() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        mach.setRotors("AAAA");
+        assertEquals("BDZGO", mach.convert("AAAAA"));
+        mach.setRotors("AAAA");
+        mach.setRings("ABBB");
+        assertEquals(1, mach.rotorRing(4));
+        assertEquals("EWTYX", mach.convert("AAAAA"));
+        mach.setVirtualReflector(true);
+        mach.setRotors("AAAA");
+        assertEquals("EWTYX", mach.convert("AAAAA"));
+
+        Machine other = navalMachine();
+        Configuration.setUp(other, "* B Beta I II III AAAA ABBB (AB)");
+        String cipher = other.convert("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
+        Configuration.setUp(other, "* B Beta I II III AAAA ABBB (AB)");
+        assertEquals("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", other.convert(cipher));
+        Configuration.setUp(other, "* B Beta I II III AAAA");
+        assertEquals(0, other.rotorRing(4));
+        assertEquals("BDZGO", other.convert("AAAAA"));
+    }
+
     /** Helper method to get the String
      * representation of the current Rotor settings */
     private String getSetting(Alphabet alph, Rotor[] machineRotors) {
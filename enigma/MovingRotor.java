@@ -16,6 +16,9 @@ class MovingRotor extends Rotor {
     /** Notches that allow others to advance. */
     private String _notches;
 
+    /** _notchAt[P] is true iff setting P is at a notch. */
+    private boolean[] _notchAt;
+
     /** Inputted permutation. */
     private Permutation _permutation;
 
@@ -31,6 +34,14 @@ class MovingRotor extends Rotor {
         super(name, perm);
         _permutation = perm;
         _notches = notches;
+        _notchAt = new boolean[perm.size()];
+        for (int p = 0; p < perm.size(); p += 1) {
+            for (char notch : notches.toCharArray()) {
+                if (notch == p + perm.alphabet().toChar(0)) {
+                    _notchAt[p] = true;
+                }
+            }
+        }
     }
 
     @Override
@@ -45,27 +56,12 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        char[] sub = _notches.toCharArray();
-        for (char notch: sub) {
-            if (notch == setting() + _permutation.alphabet().toChar(0)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    @Override
-    int convertForward(int p) {
-        int temp = _permutation.wrap(p + setting());
-        int temp1 = _permutation.permute(temp);
-        return _permutation.wrap(temp1 - setting());
+        return _notchAt[setting()];
     }
 
     @Override
-    int convertBackward(int e) {
-        int temp = _permutation.wrap(e + setting());
-        int temp1 = _permutation.invert(temp);
-        return _permutation.wrap(temp1 - setting());
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
     }
 
 }
@@ -0,0 +1,457 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A table of n-gram log-probabilities over the alphabet of a
+ *  configuration, for scoring candidate plaintexts, and the tool that
+ *  builds one from plaintext corpora.
+ *
+ *  The corpora are memory-mapped and cut into regions that worker
+ *  threads take in turn.  Each worker reads its regions byte by byte (as
+ *  ISO-8859-1), folds case, drops every character outside the alphabet,
+ *  and counts each n-gram that starts in the region, reading past its
+ *  end for the last few, in a long[] of its own indexed by the n-gram's
+ *  value in base alphabet size.  The workers' counts are summed at the
+ *  end.  N-grams that never occur get the log-probability of FLOOR
+ *  occurrences.
+ *
+ *  File layout (big-endian): a 32-byte preamble (magic, version, n,
+ *  alphabet size, total n-grams counted, table offset), then the
+ *  alphabet's characters, then size^n floats, the natural logarithms of
+ *  the n-grams' probabilities.  The floats are mapped, not read, when a
+ *  table is opened.
+ *  @author William Tai
+ */
+public final class NgramTable {
+
+    /** Build a table or score text as specified by ARGS, which has one of
+     *  the forms
+     *      build [--n=N] [--threads=T] CONFIG TABLE CORPUS...
+     *      score TABLE TEXT
+     *  The first writes to TABLE the N-gram table (default N: 4) of the
+     *  CORPUS files over the alphabet of CONFIG using T threads (default:
+     *  one per processor).  The second prints the log-probability of TEXT
+     *  under TABLE. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 3 && args[0].equals("score")) {
+                NgramTable table = open(Paths.get(args[1]));
+                System.out.printf("%.3f%n", table.score(args[2]));
+                return;
+            }
+            int k = 1, n = DEFAULT_N;
+            int threads = Runtime.getRuntime().availableProcessors();
+            for (; k < args.length && args[k].startsWith("--"); k += 1) {
+                String value = args[k].substring(args[k].indexOf('=') + 1);
+                if (args[k].startsWith("--n=")) {
+                    n = positive(args[k], value);
+                } else if (args[k].startsWith("--threads=")) {
+                    threads = positive(args[k], value);
+                } else {
+                    throw error("unknown option: %s", args[k]);
+                }
+            }
+            if (args.length - k < 3 || !args[0].equals("build")) {
+                throw error("Usage: java enigma.NgramTable (build [--n=N] "
+                            + "[--threads=T] CONFIG TABLE CORPUS... | "
+                            + "score TABLE TEXT)");
+            }
+            Path[] corpora = new Path[args.length - k - 2];
+            for (int i = 0; i < corpora.length; i += 1) {
+                corpora[i] = Paths.get(args[k + 2 + i]);
+            }
+            build(Configuration.read(args[k]).alphabet(), n, corpora,
+                  Paths.get(args[k + 1]), threads, REGION);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return VALUE, the value of option ARG, which must be a positive
+     *  integer. */
+    private static int positive(String arg, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", arg);
+    }
+
+    /** Write to FILE the N-gram table over ALPHABET of CORPORA, using
+     *  THREADS workers taking regions of at most REGION bytes (or fewer
+     *  workers, if there is not memory for each to keep its own
+     *  counts). */
+    static void build(Alphabet alphabet, int n, Path[] corpora, Path file,
+                      int threads, long region) {
+        int size = alphabet.size();
+        long cells = 1;
+        for (int k = 0; k < n; k += 1) {
+            cells *= size;
+            if (cells > MAX_CELLS) {
+                throw error("%d-gram table too large", n);
+            }
+        }
+        threads = workers(threads, cells);
+        byte[] fold = fold(alphabet);
+        FileChannel[] channels = new FileChannel[corpora.length];
+        try {
+            long[] starts = new long[0];
+            int[] owners = new int[0];
+            int regions = 0;
+            for (int f = 0; f < corpora.length; f += 1) {
+                try {
+                    channels[f] = FileChannel.open(corpora[f], READ);
+                } catch (IOException excp) {
+                    throw error("could not open %s", corpora[f]);
+                }
+                long length = channels[f].size();
+                int count = (int) ((length + region - 1) / region);
+                starts = Arrays.copyOf(starts, regions + count);
+                owners = Arrays.copyOf(owners, regions + count);
+                for (int r = 0; r < count; r += 1) {
+                    starts[regions] = r * region;
+                    owners[regions] = f;
+                    regions += 1;
+                }
+            }
+            long[] counts = count(channels, starts, owners, region, fold,
+                                  size, n, (int) cells, threads);
+            write(file, alphabet, n, counts);
+        } catch (IOException excp) {
+            throw error("could not build n-gram table %s: %s", file,
+                        excp.getMessage());
+        } finally {
+            for (FileChannel channel : channels) {
+                try {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                } catch (IOException excp) {
+                    /* Ignore. */
+                }
+            }
+        }
+    }
+
+    /** Return the number of workers, at most THREADS, each of which
+     *  can keep its own CELLS counts in half the memory now free for
+     *  them to grow into, leaving the rest for the table written. */
+    private static int workers(int threads, long cells) {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory()
+            - (runtime.totalMemory() - runtime.freeMemory());
+        long fit = free / 2 / (cells * Long.BYTES);
+        if (fit < 1) {
+            throw error("not enough memory to count %d n-grams", cells);
+        }
+        return (int) Math.min(threads, fit);
+    }
+
+    /** Return the table giving, for each byte, the index in ALPHABET of
+     *  the character it encodes in ISO-8859-1 with case folded, or -1. */
+    private static byte[] fold(Alphabet alphabet) {
+        if (alphabet.size() > Byte.MAX_VALUE) {
+            throw error("alphabet too large for n-gram tables");
+        }
+        byte[] result = new byte[BYTE_VALUES];
+        for (int b = 0; b < BYTE_VALUES; b += 1) {
+            char c = Character.toUpperCase((char) b);
+            result[b] = (byte) (alphabet.contains(c) ? alphabet.toInt(c)
+                                : -1);
+            if (result[b] < 0 && alphabet.contains((char) b)) {
+                result[b] = (byte) alphabet.toInt((char) b);
+            }
+        }
+        return result;
+    }
+
+    /** Return the counts, summed over THREADS workers, of the N-grams over
+     *  an alphabet of SIZE characters in the regions of CHANNELS: region R
+     *  covers REGION bytes of CHANNELS[OWNERS[R]] from STARTS[R].  FOLD
+     *  maps bytes to alphabet indices.  The counts are indexed by n-gram
+     *  value, of which there are CELLS. */
+    private static long[] count(FileChannel[] channels, long[] starts,
+                                int[] owners, long region, byte[] fold,
+                                int size, int n, int cells, int threads)
+        throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<long[]>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                workers.add(pool.submit(() -> {
+                    long[] counts = new long[cells];
+                    for (int r = next.getAndIncrement(); r < starts.length;
+                         r = next.getAndIncrement()) {
+                        countRegion(channels[owners[r]], starts[r],
+                                    starts[r] + region, fold, size, n,
+                                    counts);
+                    }
+                    return counts;
+                }));
+            }
+            long[] result = null;
+            for (Future<long[]> worker : workers) {
+                long[] counts = worker.get();
+                if (result == null) {
+                    result = counts;
+                } else {
+                    for (int i = 0; i < cells; i += 1) {
+                        result[i] += counts[i];
+                    }
+                }
+            }
+            return result;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException(excp);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IOException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Add to COUNTS the N-grams of the text in CHANNEL that start at or
+     *  after byte START and before byte END, where FOLD maps bytes to
+     *  indices in an alphabet of SIZE characters. */
+    private static void countRegion(FileChannel channel, long start,
+                                    long end, byte[] fold, int size, int n,
+                                    long[] counts)
+        throws IOException {
+        int high = counts.length / size;
+        int gram = 0, filled = 0, tail = 0;
+        long length = channel.size();
+        long pos = start;
+        long window = Math.min(length, end + TAIL_BYTES) - pos;
+        boolean done = false;
+        while (!done && pos < length) {
+            MappedByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, pos, window);
+            int limit = (int) window;
+            for (int i = 0; i < limit; i += 1) {
+                int c = fold[bytes.get(i) & BYTE_MASK];
+                if (c < 0) {
+                    continue;
+                }
+                if (pos + i >= end) {
+                    if (tail == n - 1) {
+                        done = true;
+                        break;
+                    }
+                    tail += 1;
+                }
+                gram = (gram % high) * size + c;
+                filled += 1;
+                if (filled >= n) {
+                    counts[gram] += 1;
+                }
+            }
+            pos += window;
+            done |= pos >= end && tail == n - 1;
+            window = Math.min(length - pos, TAIL_BYTES);
+        }
+    }
+
+    /** Write to FILE the table over ALPHABET of the N-grams counted in
+     *  COUNTS. */
+    private static void write(Path file, Alphabet alphabet, int n,
+                              long[] counts) throws IOException {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        StringBuilder chars = new StringBuilder();
+        for (int k = 0; k < alphabet.size(); k += 1) {
+            chars.append(alphabet.toChar(k));
+        }
+        header.writeUTF(chars.toString());
+        header.flush();
+        long offset = (PREAMBLE + bytes.size() + 7) & ~7L;
+        double floor = Math.log(FLOOR / Math.max(total, 1));
+        try (DataOutputStream out = ExternalSort.output(file)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(alphabet.size());
+            out.writeLong(total);
+            out.writeLong(offset);
+            bytes.writeTo(out);
+            out.write(new byte[(int) (offset - PREAMBLE - bytes.size())]);
+            for (long c : counts) {
+                out.writeFloat((float) (c == 0 ? floor
+                                        : Math.log((double) c / total)));
+            }
+        }
+    }
+
+    /** A table of N-grams over the characters ALPHABET, counted from TOTAL
+     *  n-grams, with log-probabilities PROBABILITIES. */
+    private NgramTable(String alphabet, int n, long total,
+                       FloatBuffer probabilities) {
+        _alphabet = alphabet;
+        _n = n;
+        _total = total;
+        _probabilities = probabilities;
+        _high = probabilities.capacity() / alphabet.length();
+    }
+
+    /** Return the table in FILE, whose log-probabilities are mapped
+     *  read-only. */
+    static NgramTable open(Path file) {
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE);
+            in.read(preamble, 0);
+            if (preamble.getInt(0) != MAGIC
+                || preamble.getInt(4) != VERSION) {
+                throw error("not an n-gram table");
+            }
+            int n = preamble.getInt(8), size = preamble.getInt(12);
+            long total = preamble.getLong(16), offset = preamble.getLong(24);
+            long cells = 1;
+            for (int k = 0; k < n && cells <= MAX_CELLS; k += 1) {
+                cells *= size;
+            }
+            if (cells > MAX_CELLS
+                || offset + cells * Float.BYTES > in.size()) {
+                throw error("n-gram table %s is damaged", file);
+            }
+            ByteBuffer head = ByteBuffer.allocate((int) offset - PREAMBLE);
+            in.read(head, PREAMBLE);
+            String alphabet = new DataInputStream(new ByteArrayInputStream(
+                head.array())).readUTF();
+            FloatBuffer probabilities =
+                in.map(FileChannel.MapMode.READ_ONLY, offset,
+                       cells * Float.BYTES).asFloatBuffer();
+            return new NgramTable(alphabet, n, total, probabilities);
+        } catch (IOException excp) {
+            throw error("could not open n-gram table %s", file);
+        }
+    }
+
+    /** Return the length of my n-grams. */
+    int n() {
+        return _n;
+    }
+
+    /** Return the number of n-grams I was counted from. */
+    long total() {
+        return _total;
+    }
+
+    /** Return the characters of my alphabet, in order. */
+    String alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the log-probability of the n-gram whose characters, as
+     *  alphabet indices, are the digits of GRAM in base alphabet size. */
+    float logProbability(int gram) {
+        return _probabilities.get(gram);
+    }
+
+    /** Return the sum of the log-probabilities of the n-grams of TEXT, a
+     *  sequence of alphabet indices. */
+    double score(int[] text) {
+        int size = _alphabet.length();
+        int gram = 0;
+        double result = 0;
+        for (int k = 0; k < text.length; k += 1) {
+            gram = (gram % _high) * size + text[k];
+            if (k >= _n - 1) {
+                result += _probabilities.get(gram);
+            }
+        }
+        return result;
+    }
+
+    /** Return the sum of the log-probabilities of the n-grams of TEXT,
+     *  ignoring whitespace and case. */
+    double score(String text) {
+        String msg = text.toUpperCase().replaceAll("\\s+", "");
+        int[] indices = new int[msg.length()];
+        for (int k = 0; k < indices.length; k += 1) {
+            indices[k] = _alphabet.indexOf(msg.charAt(k));
+            if (indices[k] < 0) {
+                throw error("character %c not in alphabet", msg.charAt(k));
+            }
+        }
+        return score(indices);
+    }
+
+    /** Leading tag of an n-gram table file ("ENNG"). */
+    private static final int MAGIC = 0x454e4e47;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the fixed part of the header. */
+    private static final int PREAMBLE = 32;
+
+    /** Default n-gram length. */
+    private static final int DEFAULT_N = 4;
+
+    /** Largest number of distinct n-grams in a table. */
+    private static final long MAX_CELLS = 1L << 24;
+
+    /** Count assumed for n-grams that never occur. */
+    private static final double FLOOR = 0.01;
+
+    /** Bytes per region of a corpus. */
+    private static final long REGION = 1L << 26;
+
+    /** Bytes mapped at a time past the end of a region. */
+    private static final long TAIL_BYTES = 1 << 12;
+
+    /** Number of byte values. */
+    private static final int BYTE_VALUES = 256;
+
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Characters of my alphabet. */
+    private final String _alphabet;
+
+    /** N-gram length. */
+    private final int _n;
+
+    /** N-grams counted. */
+    private final long _total;
+
+    /** Log-probabilities, by n-gram value. */
+    private final FloatBuffer _probabilities;
+
+    /** Number of n-grams divided by alphabet size. */
+    private final int _high;
+}
@@ -0,0 +1,79 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** Tests of n-gram table building and scoring.
+ *  @author William Tai
+ */
+public class NgramTableTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Return a new temporary corpus file holding TEXT. */
+    private static Path corpus(String text) throws IOException {
+        Path file = tempFile();
+        Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    /** Return the letters of TEXT from A to H, case folded. */
+    private static String letters(String text) {
+        return text.toUpperCase().replaceAll("[^A-H]", "");
+    }
+
+    /** Return the number of occurrences of GRAM in letters(TEXT). */
+    private static int occurrences(String text, String gram) {
+        String letters = letters(text);
+        int result = 0;
+        for (int k = 0; k + gram.length() <= letters.length(); k += 1) {
+            if (letters.startsWith(gram, k)) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testCounts() throws IOException {
+        String first = "A bad cafe; a faced bead!\nDeaf Ed fed a cabbage. ",
+            second = "ACE. HEAD, bagged: ahead...";
+        Path[] corpora = { corpus(first), corpus(second) };
+        Path file = tempFile();
+        Alphabet alphabet = new CharacterRange('A', 'H');
+        for (int region : new int[] {1, 3, 7, 1000}) {
+            NgramTable.build(alphabet, 3, corpora, file, 3, region);
+            NgramTable table = NgramTable.open(file);
+            assertEquals(3, table.n());
+            assertEquals("ABCDEFGH", table.alphabet());
+            long total = letters(first).length() - 2
+                + letters(second).length() - 2;
+            assertEquals(total, table.total());
+            String[] grams = {"BAD", "EAD", "AGG", "HEA", "ACE", "CAB"};
+            for (String gram : grams) {
+                long count = occurrences(first, gram)
+                    + occurrences(second, gram);
+                int value = 0;
+                for (char c : gram.toCharArray()) {
+                    value = value * 8 + c - 'A';
+                }
+                assertEquals(Math.log((double) count / table.total()),
+                             table.logProbability(value), 1e-5);
+            }
+            assertEquals(table.logProbability(0),
+                         table.logProbability(8 * 8 * 8 - 1), 0);
+            assertTrue(table.score("BAD HEAD") > table.score("HHHHHHH"));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package enigma;
+
+/** Stepping with carries but no double step: the rightmost rotor always
+ *  advances, and any other moving rotor advances when the rotor to its
+ *  right advances from one of its carry positions.  With the rotors'
+ *  notches as carry positions this is Typex-style multi-notch stepping;
+ *  with the last position of each rotor as its only carry position it is
+ *  a plain odometer.
+ *  @author William Tai
+ */
+final class NotchStepping implements Stepping {
+
+    /** Return odometer stepping for ROTORS, in slot order. */
+    static NotchStepping odometer(Rotor[] rotors) {
+        int n = rotors[0].size();
+        boolean[][] carry = new boolean[rotors.length][n];
+        for (int i = 1; i < rotors.length; i += 1) {
+            carry[i][n - 1] = true;
+        }
+        return new NotchStepping("odometer", rotors, carry);
+    }
+
+    /** Return multi-notch stepping for ROTORS, in slot order. */
+    static NotchStepping multinotch(Rotor[] rotors) {
+        int n = rotors[0].size();
+        boolean[][] carry = new boolean[rotors.length][n];
+        for (int i = 1; i < rotors.length; i += 1) {
+            for (int p = 0; p < n; p += 1) {
+                carry[i][p] = rotors[i].notchAt(p);
+            }
+        }
+        return new NotchStepping("multinotch", rotors, carry);
+    }
+
+    /** Stepping named SPEC for ROTORS, where CARRY[I][P] iff the rotor in
+     *  slot I moves its left neighbor when it advances from P. */
+    private NotchStepping(String spec, Rotor[] rotors, boolean[][] carry) {
+        _spec = spec;
+        _size = rotors[0].size();
+        _last = rotors.length - 1;
+        _rotates = new boolean[rotors.length];
+        _carry = carry;
+        _carries = new int[rotors.length][_size + 1];
+        for (int i = 1; i <= _last; i += 1) {
+            _rotates[i] = rotors[i].rotates();
+            for (int p = 0; p < _size; p += 1) {
+                _carries[i][p + 1] = _carries[i][p] + (carry[i][p] ? 1 : 0);
+            }
+        }
+    }
+
+    @Override
+    public void step(int[] positions) {
+        for (int i = _last; i > 0 && _rotates[i]; i -= 1) {
+            int p = positions[i];
+            positions[i] = p + 1 == _size ? 0 : p + 1;
+            if (!_carry[i][p]) {
+                break;
+            }
+        }
+    }
+
+    /** Advance POSITIONS by N key presses, in time proportional to the
+     *  number of rotors. */
+    @Override
+    public void advance(int[] positions, long n) {
+        for (int i = _last; i > 0 && _rotates[i] && n > 0; i -= 1) {
+            int p = positions[i];
+            int rem = (int) (n % _size);
+            long carried = (n / _size) * _carries[i][_size];
+            if (p + rem <= _size) {
+                carried += _carries[i][p + rem] - _carries[i][p];
+            } else {
+                carried += _carries[i][_size] - _carries[i][p]
+                    + _carries[i][p + rem - _size];
+            }
+            positions[i] = (p + rem) % _size;
+            n = carried;
+        }
+    }
+
+    @Override
+    public String spec() {
+        return _spec;
+    }
+
+    /** The SPEC that selects me. */
+    private final String _spec;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Index of the rightmost slot. */
+    private final int _last;
+
+    /** _rotates[I] iff slot I holds a moving rotor. */
+    private final boolean[] _rotates;
+
+    /** _carry[I][P] iff slot I carries when advancing from P. */
+    private final boolean[][] _carry;
+
+    /** _carries[I][P] is the number of carry positions of slot I below
+     *  P. */
+    private final int[][] _carries;
+}
@@ -0,0 +1,433 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static enigma.EnigmaException.*;
+
+/** A compact binary form for streams of messages, storing each alphabet
+ *  index in PackedText.bitsFor(alphabet size) bits (five for A-Z) instead
+ *  of a byte plus a share of the group separators.
+ *
+ *  A stream is a sequence of records.  Each starts with an unsigned
+ *  LEB128 varint holding (LENGTH << 1) | KIND.  A message record (KIND 0)
+ *  continues with its LENGTH alphabet indices packed most significant bit
+ *  first and padded to a whole byte; a line record (KIND 1) continues
+ *  with LENGTH bytes of UTF-8 text, such as a settings line.  Records are
+ *  encoded into and decoded from ByteBuffers, so they can be streamed
+ *  through buffers of any size (see Writer and Input).
+ *  @author William Tai
+ */
+public final class PackedCodec {
+
+    /** Convert between the classic text form and the packed form as
+     *  specified by ARGS, which has one of the forms
+     *      pack CONFIG TEXT PACKED
+     *      unpack CONFIG PACKED TEXT
+     *  over the alphabet of CONFIG.  In TEXT, lines containing '*' and
+     *  lines with characters outside the alphabet (besides whitespace)
+     *  are kept as line records; the others are messages, which unpack
+     *  writes in groups of five. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 4 || !(args[0].equals("pack")
+                                      || args[0].equals("unpack"))) {
+                throw error("Usage: java enigma.PackedCodec (pack | unpack)"
+                            + " CONFIG INPUT OUTPUT");
+            }
+            PackedCodec codec =
+                new PackedCodec(Configuration.read(args[1]).alphabet());
+            if (args[0].equals("pack")) {
+                codec.pack(args[2], args[3]);
+            } else {
+                codec.unpack(args[2], args[3]);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A codec for messages over ALPHABET. */
+    PackedCodec(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _bits = PackedText.bitsFor(alphabet.size());
+        if (_bits > MAX_BITS) {
+            throw error("alphabet too large to pack");
+        }
+    }
+
+    /** Return the number of bits per character. */
+    int bits() {
+        return _bits;
+    }
+
+    /** Return the most bytes a record of LENGTH characters (or bytes) can
+     *  take. */
+    int maxRecordLength(int length) {
+        return MAX_VARINT + (int) (((long) length * Math.max(_bits, Byte.SIZE)
+                                    + Byte.SIZE - 1) / Byte.SIZE);
+    }
+
+    /** Append the message record for MSG, whose characters must be in my
+     *  alphabet, to OUT, which must have room for it (see
+     *  maxRecordLength). */
+    void encodeMessage(CharSequence msg, ByteBuffer out) {
+        int len = msg.length();
+        putVarint(((long) len << 1) | MESSAGE, out);
+        long acc = 0;
+        int held = 0;
+        for (int k = 0; k < len; k += 1) {
+            acc = (acc << _bits) | _alphabet.toInt(msg.charAt(k));
+            held += _bits;
+            while (held >= Byte.SIZE) {
+                held -= Byte.SIZE;
+                out.put((byte) (acc >>> held));
+            }
+        }
+        if (held > 0) {
+            out.put((byte) (acc << (Byte.SIZE - held)));
+        }
+    }
+
+    /** Append the line record for LINE to OUT, which must have room for
+     *  it. */
+    void encodeLine(String line, ByteBuffer out) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        putVarint(((long) bytes.length << 1) | LINE, out);
+        out.put(bytes);
+    }
+
+    /** Decode the record at the start of IN's remaining bytes, returning
+     *  the message's characters or the line, and advancing IN past it.
+     *  If IN does not hold a whole record, return null and leave IN
+     *  unchanged. */
+    String decode(ByteBuffer in) {
+        int start = in.position();
+        long header = 0;
+        for (int shift = 0;; shift += VARINT_BITS) {
+            if (!in.hasRemaining()) {
+                in.position(start);
+                return null;
+            }
+            byte b = in.get();
+            header |= (long) (b & VARINT_MASK) << shift;
+            if (b >= 0) {
+                break;
+            }
+            if (shift >= Long.SIZE - VARINT_BITS) {
+                throw error("corrupt packed record");
+            }
+        }
+        long len = header >>> 1;
+        _message = (header & 1) == MESSAGE;
+        long bytes = _message ? (len * _bits + Byte.SIZE - 1) / Byte.SIZE
+            : len;
+        if (len > Integer.MAX_VALUE || bytes > in.remaining()) {
+            in.position(start);
+            return null;
+        }
+        if (!_message) {
+            byte[] text = new byte[(int) len];
+            in.get(text);
+            return new String(text, StandardCharsets.UTF_8);
+        }
+        char[] result = new char[(int) len];
+        long acc = 0;
+        int held = 0, mask = (1 << _bits) - 1;
+        for (int k = 0; k < result.length; k += 1) {
+            while (held < _bits) {
+                acc = (acc << Byte.SIZE) | (in.get() & BYTE_MASK);
+                held += Byte.SIZE;
+            }
+            held -= _bits;
+            int index = (int) (acc >>> held) & mask;
+            if (index >= _alphabet.size()) {
+                throw error("corrupt packed message");
+            }
+            result[k] = _alphabet.toChar(index);
+        }
+        return new String(result);
+    }
+
+    /** Return true iff the last record decoded was a message. */
+    boolean lastWasMessage() {
+        return _message;
+    }
+
+    /** Append the unsigned LEB128 encoding of V to OUT. */
+    private static void putVarint(long v, ByteBuffer out) {
+        while ((v & ~VARINT_MASK) != 0) {
+            out.put((byte) ((v & VARINT_MASK) | ~VARINT_MASK));
+            v >>>= VARINT_BITS;
+        }
+        out.put((byte) v);
+    }
+
+    /** Return MSG in groups of five characters separated by blanks. */
+    static String group(String msg) {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < msg.length(); k += GROUP) {
+            if (k > 0) {
+                result.append(' ');
+            }
+            result.append(msg, k, Math.min(msg.length(), k + GROUP));
+        }
+        return result.toString();
+    }
+
+    /** Return the message in grouped text LINE, or null if LINE is not a
+     *  message in my alphabet. */
+    String ungroup(String line) {
+        if (line.contains("*")) {
+            return null;
+        }
+        String msg = line.toUpperCase().replaceAll("\\s+", "");
+        for (int k = 0; k < msg.length(); k += 1) {
+            if (!_alphabet.contains(msg.charAt(k))) {
+                return null;
+            }
+        }
+        return msg;
+    }
+
+    /** Pack the text file named TEXT into the file named PACKED. */
+    private void pack(String text, String packed) {
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(text));
+             Writer out = new Writer(Files.newOutputStream(
+                 Paths.get(packed)))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String msg = ungroup(line);
+                if (msg != null) {
+                    out.message(msg);
+                } else {
+                    out.line(line);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not pack %s: %s", text, excp.getMessage());
+        }
+    }
+
+    /** Unpack the file named PACKED into the text file named TEXT. */
+    private void unpack(String packed, String text) {
+        try (Input in = new Input(Files.newInputStream(Paths.get(packed)));
+             PrintStream out = new PrintStream(
+                 Files.newOutputStream(Paths.get(text)), false,
+                 StandardCharsets.UTF_8)) {
+            while (in.hasNextLine()) {
+                String line = in.nextLine();
+                out.println(in.wasMessage() ? group(line) : line);
+            }
+        } catch (IOException excp) {
+            throw error("could not unpack %s: %s", packed, excp.getMessage());
+        }
+    }
+
+    /** A stream of records written to an OutputStream through a
+     *  buffer. */
+    final class Writer implements Flushable, Closeable {
+
+        /** A writer of records to OUT. */
+        Writer(OutputStream out) {
+            _out = out;
+        }
+
+        /** Write a message record for MSG. */
+        void message(CharSequence msg) throws IOException {
+            reserve(maxRecordLength(msg.length()));
+            encodeMessage(msg, _buffer);
+        }
+
+        /** Write a line record for LINE. */
+        void line(String line) throws IOException {
+            reserve(maxRecordLength(line.length() * UTF8_MAX));
+            encodeLine(line, _buffer);
+        }
+
+        /** Make room for N more bytes in my buffer. */
+        private void reserve(int n) throws IOException {
+            if (_buffer.remaining() < n) {
+                drain();
+                if (_buffer.capacity() < n) {
+                    _buffer = ByteBuffer.allocate(n);
+                }
+            }
+        }
+
+        /** Write out my buffer's contents. */
+        private void drain() throws IOException {
+            _out.write(_buffer.array(), 0, _buffer.position());
+            _buffer.clear();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            _out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            _out.close();
+        }
+
+        /** Destination of the records. */
+        private final OutputStream _out;
+
+        /** Encoded records not yet written. */
+        private ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /** The records of a packed stream, read as lines: each message record
+     *  is a line of its characters, and each line record is its line. */
+    final class Input extends LineInput {
+
+        /** A reader of the records in IN. */
+        Input(InputStream in) {
+            super(in);
+            _in = in;
+            _buffer.flip();
+        }
+
+        @Override
+        boolean hasNextLine() {
+            if (_next == null) {
+                _next = read();
+            }
+            return _next != null;
+        }
+
+        @Override
+        String nextLine() {
+            if (!hasNextLine()) {
+                throw error("no more packed records");
+            }
+            String result = _next;
+            _next = null;
+            _wasMessage = _nextIsMessage;
+            _line += 1;
+            return result;
+        }
+
+        /** Return true iff the last line returned was a message. */
+        boolean wasMessage() {
+            return _wasMessage;
+        }
+
+        @Override
+        long offset() {
+            return _offset;
+        }
+
+        @Override
+        long lineNumber() {
+            return _line;
+        }
+
+        /** Return the next record, or null at the end of the stream. */
+        private String read() {
+            try {
+                while (true) {
+                    int start = _buffer.position();
+                    String result = decode(_buffer);
+                    if (result != null) {
+                        _offset += _buffer.position() - start;
+                        _nextIsMessage = lastWasMessage();
+                        return result;
+                    }
+                    _buffer.compact();
+                    if (!_buffer.hasRemaining()) {
+                        ByteBuffer bigger =
+                            ByteBuffer.allocate(2 * _buffer.capacity());
+                        _buffer.flip();
+                        _buffer = bigger.put(_buffer);
+                    }
+                    int n = _in.read(_buffer.array(), _buffer.position(),
+                                     _buffer.remaining());
+                    if (n > 0) {
+                        _buffer.position(_buffer.position() + n);
+                    }
+                    _buffer.flip();
+                    if (n < 0) {
+                        if (_buffer.hasRemaining()) {
+                            throw error("truncated packed input");
+                        }
+                        return null;
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("error reading input: %s", excp.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /** Source of the records. */
+        private final InputStream _in;
+
+        /** Bytes read and not yet decoded, between position and limit. */
+        private ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** The record read ahead by hasNextLine, or null. */
+        private String _next;
+
+        /** True iff _next is a message, and iff the last line returned
+         *  was. */
+        private boolean _nextIsMessage, _wasMessage;
+
+        /** Bytes of records decoded. */
+        private long _offset;
+
+        /** Records returned. */
+        private long _line;
+    }
+
+    /** Record kinds. */
+    private static final int MESSAGE = 0, LINE = 1;
+
+    /** Widest character packed. */
+    private static final int MAX_BITS = 16;
+
+    /** Payload bits per varint byte, and the mask selecting them. */
+    private static final int VARINT_BITS = 7, VARINT_MASK = 0x7f;
+
+    /** Most bytes in a record header. */
+    private static final int MAX_VARINT = 10;
+
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Most UTF-8 bytes per char. */
+    private static final int UTF8_MAX = 3;
+
+    /** Characters per group in the text form. */
+    private static final int GROUP = 5;
+
+    /** Size of stream buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Bits per character. */
+    private final int _bits;
+
+    /** True iff the last record decoded was a message. */
+    private boolean _message;
+}
@@ -0,0 +1,119 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the packed message format.
+ *  @author William Tai
+ */
+public class PackedCodecTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Return a message of LEN letters. */
+    private static String message(int len) {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < len; k += 1) {
+            result.append((char) ('A' + (k * 7 + len) % 26));
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testRecords() {
+        PackedCodec codec = new PackedCodec(new CharacterRange('A', 'Z'));
+        assertEquals(5, codec.bits());
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        for (int len = 0; len < 40; len += 1) {
+            codec.encodeMessage(message(len), buffer);
+        }
+        codec.encodeLine("* B BETA III IV I AXLE (HQ)", buffer);
+        int packed = buffer.position();
+        assertTrue(packed < 40 * 39 / 2 * 5 / 8 + 40 * 2 + 30);
+        buffer.flip();
+        for (int len = 0; len < 40; len += 1) {
+            assertEquals(message(len), codec.decode(buffer));
+            assertTrue(codec.lastWasMessage());
+        }
+        assertEquals("* B BETA III IV I AXLE (HQ)", codec.decode(buffer));
+        assertFalse(codec.lastWasMessage());
+        assertFalse(buffer.hasRemaining());
+
+        buffer.clear();
+        codec.encodeMessage(message(33), buffer);
+        int end = buffer.position();
+        for (int k = 0; k < end; k += 1) {
+            ByteBuffer part = buffer.duplicate();
+            part.position(0).limit(k);
+            assertNull(codec.decode(part));
+            assertEquals(0, part.position());
+        }
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        PackedCodec codec = new PackedCodec(new CharacterRange('A', 'Z'));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PackedCodec.Writer out = codec.new Writer(bytes)) {
+            out.line("* settings");
+            for (int len = 0; len < 200000; len += 9973) {
+                out.message(message(len));
+            }
+        }
+        PackedCodec.Input in =
+            codec.new Input(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("* settings", in.nextLine());
+        assertFalse(in.wasMessage());
+        for (int len = 0; len < 200000; len += 9973) {
+            assertTrue(in.hasNextLine());
+            assertEquals(message(len), in.nextLine());
+            assertTrue(in.wasMessage());
+        }
+        assertFalse(in.hasNextLine());
+        assertEquals(bytes.size(), in.offset());
+    }
+
+    @Test
+    public void testGroups() {
+        PackedCodec codec = new PackedCodec(new CharacterRange('A', 'Z'));
+        assertEquals("ABCDE FGHIJ K", PackedCodec.group("ABCDEFGHIJK"));
+        assertEquals("", PackedCodec.group(""));
+        assertEquals("ABCDEFGHIJK", codec.ungroup("abcde FGHIJ k"));
+        assertNull(codec.ungroup("* B BETA III IV I AXLE"));
+        assertNull(codec.ungroup("HELLO, WORLD"));
+    }
+
+    @Test
+    public void testMain() throws IOException {
+        Path input = tempFile(), text = tempFile(), packedIn = tempFile(),
+            packedOut = tempFile(), unpacked = tempFile();
+        Files.writeString(input, "* B BETA III IV I AXLE (HQ) (EX)\n"
+                          + "FROM HIS SHOULDER HIAWATHA\n"
+                          + "\n"
+                          + "TOOK THE CAMERA OF ROSEWOOD\n");
+        new Main(new String[] {CONFIG, input.toString(), text.toString()})
+            .process();
+        PackedCodec.main("pack", CONFIG, input.toString(),
+                         packedIn.toString());
+        new Main(new String[] {"--packed-input", "--packed-output", CONFIG,
+                               packedIn.toString(), packedOut.toString()})
+            .process();
+        PackedCodec.main("unpack", CONFIG, packedOut.toString(),
+                         unpacked.toString());
+        assertEquals(Files.readString(text), Files.readString(unpacked));
+        assertTrue(Files.size(packedOut) < Files.size(text));
+    }
+}
@@ -0,0 +1,100 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A text of alphabet indices packed BITS bits per character into longs,
+ *  as many characters per word as fit in 60 bits (twelve for 5-bit
+ *  alphabets), so that runs of characters can be compared a word at a
+ *  time.
+ *  @author William Tai
+ */
+final class PackedText {
+
+    /** The packing of the alphabet indices TEXT, each less than
+     *  2**BITS. */
+    PackedText(int[] text, int bits) {
+        if (bits < 1 || bits > MAX_BITS) {
+            throw error("cannot pack %d-bit characters", bits);
+        }
+        _bits = bits;
+        _per = WORD_BITS / bits;
+        _length = text.length;
+        _words = new long[(text.length + _per - 1) / _per + 1];
+        for (int k = 0; k < text.length; k += 1) {
+            _words[k / _per] |= (long) text[k] << ((k % _per) * bits);
+        }
+        long low = 0;
+        for (int f = 0; f < _per; f += 1) {
+            low |= 1L << (f * bits);
+        }
+        _low = low;
+    }
+
+    /** Return the number of bits needed for indices of an alphabet of
+     *  SIZE characters. */
+    static int bitsFor(int size) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /** Return my length in characters. */
+    int length() {
+        return _length;
+    }
+
+    /** Return my character at K. */
+    int charAt(int k) {
+        return (int) (_words[k / _per] >>> ((k % _per) * _bits))
+            & ((1 << _bits) - 1);
+    }
+
+    /** Return the word of characters starting at character S (characters
+     *  past my end are 0). */
+    private long window(int s) {
+        int w = s / _per, r = s % _per;
+        long result = _words[w] >>> (r * _bits);
+        if (r != 0) {
+            result |= _words[w + 1] << ((_per - r) * _bits);
+        }
+        return result & ((1L << (_per * _bits)) - 1);
+    }
+
+    /** Return the number of K, 0 <= K < LEN, such that my character at
+     *  START + K equals OTHER's at OTHERSTART + K.  Both texts must have
+     *  the same packing and hold the compared ranges. */
+    int coincidences(int start, PackedText other, int otherStart, int len) {
+        int matches = 0;
+        for (int k = 0; k < len; k += _per) {
+            long diff = window(start + k) ^ other.window(otherStart + k);
+            long differs = diff;
+            for (int j = 1; j < _bits; j += 1) {
+                differs |= diff >>> j;
+            }
+            int valid = Math.min(_per, len - k);
+            long mask = valid == _per ? _low
+                : _low & ((1L << (valid * _bits)) - 1);
+            matches += valid - Long.bitCount(differs & mask);
+        }
+        return matches;
+    }
+
+    /** Largest supported character width. */
+    static final int MAX_BITS = 8;
+
+    /** Bits used in each word. */
+    private static final int WORD_BITS = 60;
+
+    /** Bits per character. */
+    private final int _bits;
+
+    /** Characters per word. */
+    private final int _per;
+
+    /** Length in characters. */
+    private final int _length;
+
+    /** Lowest bit of each character field. */
+    private final long _low;
+
+    /** Packed characters, with one word of padding. */
+    private final long[] _words;
+}
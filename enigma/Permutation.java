@@ -65,6 +65,12 @@ class Permutation {
         for (int i = 0; i < alphabet.size(); i++) {
             _imap.put(_map.get(alphabet.toChar(i)), alphabet.toChar(i));
         }
+        _forward = new int[size()];
+        _inverse = new int[size()];
+        for (int i = 0; i < size(); i += 1) {
+            _forward[i] = alphabet.toInt(_map.get(alphabet.toChar(i)));
+            _inverse[_forward[i]] = i;
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
@@ -101,13 +107,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return _alphabet.toInt(_map.get(_alphabet.toChar(p)));
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return _alphabet.toInt(_imap.get(_alphabet.toChar(c)));
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -138,6 +144,50 @@ class Permutation {
         return true;
     }
 
+    /** Return this permutation in cycle notation, omitting characters
+     *  that map to themselves, so that new Permutation(cycles(), alphabet())
+     *  is equivalent to me. */
+    String cycles() {
+        StringBuilder result = new StringBuilder();
+        boolean[] seen = new boolean[size()];
+        for (int i = 0; i < size(); i += 1) {
+            if (seen[i] || permute(i) == i) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append('(');
+            for (int j = i; !seen[j]; j = permute(j)) {
+                seen[j] = true;
+                result.append(_alphabet.toChar(j));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return the number of cycles of length greater than one. */
+    int cycleCount() {
+        int count = 0;
+        boolean[] seen = new boolean[size()];
+        for (int i = 0; i < size(); i += 1) {
+            if (!seen[i] && permute(i) != i) {
+                count += 1;
+                for (int j = i; !seen[j]; j = permute(j)) {
+                    seen[j] = true;
+                }
+            }
+        }
+        return count;
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
+
+    /** Index form of _map: _forward[i] is the image of index I. */
+    private int[] _forward;
+
+    /** Index form of _imap: the inverse of _forward. */
+    private int[] _inverse;
 }
@@ -0,0 +1,426 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A hill-climbing search for the plugboard of a message whose rotor
+ *  order and settings are known or hypothesized.  The rotors between the
+ *  two passes through the plugboard apply a fixed permutation at each
+ *  position of the message, whatever the plugboard; trace records these
+ *  once, as a flat table, so that deciphering under any plugboard P is
+ *  P(core[P(c)]) at each position.  A plugboard is scored as the sum,
+ *  over positions, of a weight for the plaintext character there (see
+ *  cribWeights and logWeights).  A move connects or disconnects one pair
+ *  of letters, changing the plugboard on at most four letters, and is
+ *  scored by revisiting only the positions whose ciphertext character or
+ *  core output is one of them.
+ *  @author William Tai
+ */
+final class PlugboardSearch {
+
+    /** A search for the plugboard of CIPHER (alphabet indices over
+     *  ALPHABET), whose core permutations are TRACE (see trace), scoring
+     *  plaintext character X at position K as WEIGHTS[K * size + X]. */
+    PlugboardSearch(Alphabet alphabet, byte[] trace, int[] cipher,
+                    int[] weights) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _length = cipher.length;
+        if (_size > MAX_SIZE) {
+            throw error("alphabet too large for plugboard search");
+        }
+        if (trace.length != _length * _size
+            || weights.length != _length * _size) {
+            throw error("trace or weights do not match ciphertext");
+        }
+        _trace = trace;
+        _cipher = cipher.clone();
+        _weights = weights;
+        _inStart = new int[_size + 1];
+        _inPositions = new int[_length];
+        for (int c : _cipher) {
+            _inStart[c + 1] += 1;
+        }
+        for (int x = 0; x < _size; x += 1) {
+            _inStart[x + 1] += _inStart[x];
+        }
+        int[] fill = _inStart.clone();
+        for (int i = 0; i < _length; i += 1) {
+            _inPositions[fill[_cipher[i]]] = i;
+            fill[_cipher[i]] += 1;
+        }
+        _board = new int[_size];
+        _trial = new int[_size];
+        _touched = new boolean[_size];
+        _letters = new int[PAIR_LETTERS];
+        _mid = new int[_length];
+        _plain = new int[_length];
+        _head = new int[_size];
+        _next = new int[_length];
+        _prev = new int[_length];
+    }
+
+    /** Return the core permutations of MACHINE for the next LENGTH
+     *  characters, advancing MACHINE past them: entry K * size + X is
+     *  where the rotors, without the plugboard, take X at position K. */
+    static byte[] trace(Machine machine, int length) {
+        int size = machine.alphabet().size();
+        if (size > MAX_SIZE) {
+            throw error("alphabet too large for plugboard search");
+        }
+        byte[] result = new byte[length * size];
+        int[] table = new int[size];
+        for (int k = 0; k < length; k += 1) {
+            machine.step();
+            machine.coreTable(table);
+            for (int x = 0; x < size; x += 1) {
+                result[k * size + x] = (byte) table[x];
+            }
+        }
+        return result;
+    }
+
+    /** Return weights scoring one for each position at which the
+     *  plaintext agrees with CRIB (alphabet indices over an alphabet of
+     *  SIZE characters), and zero elsewhere. */
+    static int[] cribWeights(int[] crib, int size) {
+        int[] result = new int[crib.length * size];
+        for (int k = 0; k < crib.length; k += 1) {
+            result[k * size + crib[k]] = 1;
+        }
+        return result;
+    }
+
+    /** Return weights for LENGTH positions scoring each plaintext
+     *  character X by the logarithm of its relative frequency
+     *  FREQUENCIES[X] in the language, scaled to an integer. */
+    static int[] logWeights(double[] frequencies, int length) {
+        int size = frequencies.length;
+        double total = 0;
+        for (double f : frequencies) {
+            total += f;
+        }
+        int[] result = new int[length * size];
+        for (int x = 0; x < size; x += 1) {
+            double p = Math.max(frequencies[x], FLOOR * total) / total;
+            int w = (int) Math.round(LOG_SCALE * Math.log(p));
+            for (int k = 0; k < length; k += 1) {
+                result[k * size + x] = w;
+            }
+        }
+        return result;
+    }
+
+    /** Return the score of deciphering under PLUGBOARD, given as the
+     *  image of each alphabet index, from scratch. */
+    long score(int[] plugboard) {
+        long result = 0;
+        for (int i = 0; i < _length; i += 1) {
+            int y = _trace[i * _size + plugboard[_cipher[i]]] & BYTE_MASK;
+            result += _weights[i * _size + plugboard[y]];
+        }
+        return result;
+    }
+
+    /** Climb from the empty plugboard and from RESTARTS - 1 random ones
+     *  (drawn using SEED) to plugboards of at most MAXPAIRS pairs that no
+     *  single move improves, and return the TOP best distinct ones found,
+     *  best first. */
+    List<Candidate> climb(int maxPairs, int restarts, long seed, int top) {
+        Random random = new Random(seed);
+        ArrayList<Candidate> found = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        for (int r = 0; r < restarts; r += 1) {
+            start(random, r == 0 ? 0 : random.nextInt(maxPairs + 1));
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _size; a += 1) {
+                    for (int b = a + 1; b < _size; b += 1) {
+                        if (propose(a, b, maxPairs) && delta() > 0) {
+                            commit();
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            String plugboard = plugboard();
+            if (seen.add(plugboard)) {
+                found.add(new Candidate(plugboard, _score));
+            }
+        }
+        Collections.sort(found);
+        return new ArrayList<>(found.subList(0, Math.min(top,
+                                                          found.size())));
+    }
+
+    /** Set the current plugboard to PAIRS random pairs drawn from
+     *  RANDOM, and decipher under it. */
+    private void start(Random random, int pairs) {
+        ArrayList<Integer> letters = new ArrayList<>();
+        for (int x = 0; x < _size; x += 1) {
+            _board[x] = x;
+            letters.add(x);
+        }
+        Collections.shuffle(letters, random);
+        _pairs = Math.min(pairs, _size / 2);
+        for (int k = 0; k < _pairs; k += 1) {
+            int a = letters.get(2 * k), b = letters.get(2 * k + 1);
+            _board[a] = b;
+            _board[b] = a;
+        }
+        Arrays.fill(_head, -1);
+        _score = 0;
+        for (int i = 0; i < _length; i += 1) {
+            _mid[i] = _trace[i * _size + _board[_cipher[i]]] & BYTE_MASK;
+            _plain[i] = _board[_mid[i]];
+            _score += _weights[i * _size + _plain[i]];
+            link(i);
+        }
+    }
+
+    /** Set _trial to the current plugboard with the pair A-B removed if
+     *  connected, and otherwise with A and B disconnected from their
+     *  partners and connected to each other, and mark the letters whose
+     *  images change.  Return false, doing nothing, if the result would
+     *  have more than MAXPAIRS pairs. */
+    private boolean propose(int a, int b, int maxPairs) {
+        int pairs = _pairs;
+        if (_board[a] == b) {
+            pairs -= 1;
+        } else {
+            pairs += 1;
+            if (_board[a] != a) {
+                pairs -= 1;
+            }
+            if (_board[b] != b) {
+                pairs -= 1;
+            }
+        }
+        if (pairs > maxPairs) {
+            return false;
+        }
+        for (int k = 0; k < _nletters; k += 1) {
+            _touched[_letters[k]] = false;
+        }
+        System.arraycopy(_board, 0, _trial, 0, _size);
+        _nletters = 0;
+        touch(a);
+        touch(b);
+        touch(_board[a]);
+        touch(_board[b]);
+        _trial[_board[a]] = _board[a];
+        _trial[_board[b]] = _board[b];
+        _trial[a] = a;
+        _trial[b] = b;
+        if (_board[a] != b) {
+            _trial[a] = b;
+            _trial[b] = a;
+        }
+        _trialPairs = pairs;
+        return true;
+    }
+
+    /** Mark letter X as one whose image the proposed move may change. */
+    private void touch(int x) {
+        if (!_touched[x]) {
+            _touched[x] = true;
+            _letters[_nletters] = x;
+            _nletters += 1;
+        }
+    }
+
+    /** Return the change in score that the proposed move would make. */
+    private long delta() {
+        long result = 0;
+        for (int k = 0; k < _nletters; k += 1) {
+            int x = _letters[k];
+            for (int j = _inStart[x]; j < _inStart[x + 1]; j += 1) {
+                int i = _inPositions[j];
+                int y = _trace[i * _size + _trial[x]] & BYTE_MASK;
+                result += _weights[i * _size + _trial[y]]
+                    - _weights[i * _size + _plain[i]];
+            }
+            for (int i = _head[x]; i >= 0; i = _next[i]) {
+                if (!_touched[_cipher[i]]) {
+                    result += _weights[i * _size + _trial[x]]
+                        - _weights[i * _size + _plain[i]];
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Make the proposed move. */
+    private void commit() {
+        for (int k = 0; k < _nletters; k += 1) {
+            int x = _letters[k];
+            for (int i = _head[x]; i >= 0; i = _next[i]) {
+                if (!_touched[_cipher[i]]) {
+                    _score += _weights[i * _size + _trial[x]]
+                        - _weights[i * _size + _plain[i]];
+                    _plain[i] = _trial[x];
+                }
+            }
+        }
+        for (int k = 0; k < _nletters; k += 1) {
+            int x = _letters[k];
+            for (int j = _inStart[x]; j < _inStart[x + 1]; j += 1) {
+                int i = _inPositions[j];
+                unlink(i);
+                _mid[i] = _trace[i * _size + _trial[x]] & BYTE_MASK;
+                link(i);
+                int p = _trial[_mid[i]];
+                _score += _weights[i * _size + p]
+                    - _weights[i * _size + _plain[i]];
+                _plain[i] = p;
+            }
+        }
+        System.arraycopy(_trial, 0, _board, 0, _size);
+        _pairs = _trialPairs;
+    }
+
+    /** Add position I to the list of positions with core output
+     *  _mid[I]. */
+    private void link(int i) {
+        int x = _mid[i];
+        _prev[i] = -1;
+        _next[i] = _head[x];
+        if (_head[x] >= 0) {
+            _prev[_head[x]] = i;
+        }
+        _head[x] = i;
+    }
+
+    /** Remove position I from the list of positions with core output
+     *  _mid[I]. */
+    private void unlink(int i) {
+        if (_prev[i] >= 0) {
+            _next[_prev[i]] = _next[i];
+        } else {
+            _head[_mid[i]] = _next[i];
+        }
+        if (_next[i] >= 0) {
+            _prev[_next[i]] = _prev[i];
+        }
+    }
+
+    /** Return the current plugboard as cycles, as in a settings line. */
+    private String plugboard() {
+        StringBuilder result = new StringBuilder();
+        for (int x = 0; x < _size; x += 1) {
+            if (_board[x] > x) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(').append(_alphabet.toChar(x))
+                    .append(_alphabet.toChar(_board[x])).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** A plugboard found by climb, with its score. */
+    static final class Candidate implements Comparable<Candidate> {
+
+        /** A candidate PLUGBOARD (cycles) scoring SCORE. */
+        Candidate(String plugboard, long score) {
+            _plugboard = plugboard;
+            _score = score;
+        }
+
+        /** Return my plugboard, as cycles. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return my score. */
+        long score() {
+            return _score;
+        }
+
+        /** Orders candidates from best to worst. */
+        @Override
+        public int compareTo(Candidate other) {
+            int c = Long.compare(other._score, _score);
+            return c != 0 ? c : _plugboard.compareTo(other._plugboard);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %s", _score, _plugboard);
+        }
+
+        /** Plugboard cycles. */
+        private final String _plugboard;
+
+        /** Score. */
+        private final long _score;
+    }
+
+    /** Largest alphabet whose indices fit a trace. */
+    static final int MAX_SIZE = 256;
+
+    /** Mask giving the unsigned value of a trace entry. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Most letters one move changes. */
+    private static final int PAIR_LETTERS = 4;
+
+    /** Scale of logWeights. */
+    private static final double LOG_SCALE = 1000;
+
+    /** Least relative frequency used by logWeights. */
+    private static final double FLOOR = 1e-5;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Alphabet size and ciphertext length. */
+    private final int _size, _length;
+
+    /** Core permutations by position. */
+    private final byte[] _trace;
+
+    /** The ciphertext. */
+    private final int[] _cipher;
+
+    /** Score of each plaintext character at each position. */
+    private final int[] _weights;
+
+    /** Positions with ciphertext character X are _inPositions[J] for
+     *  _inStart[X] <= J < _inStart[X + 1]. */
+    private final int[] _inStart, _inPositions;
+
+    /** Current plugboard and proposed plugboard. */
+    private final int[] _board, _trial;
+
+    /** Pairs in _board and _trial. */
+    private int _pairs, _trialPairs;
+
+    /** Letters whose images the proposed move changes, and which letters
+     *  those are. */
+    private final boolean[] _touched;
+
+    /** The first _nletters of these are the touched letters. */
+    private final int[] _letters;
+
+    /** Number of touched letters. */
+    private int _nletters;
+
+    /** Core output and plaintext at each position. */
+    private final int[] _mid, _plain;
+
+    /** Heads of the lists of positions by core output, and the links
+     *  of those lists, by position. */
+    private final int[] _head, _next, _prev;
+
+    /** Score of the current plugboard. */
+    private long _score;
+}
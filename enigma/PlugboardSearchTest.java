@@ -0,0 +1,89 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the plugboard hill-climber.
+ *  @author William Tai
+ */
+public class PlugboardSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Known plaintext. */
+    private static final String PLAIN =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOODMADEOFSLIDING"
+        + "FOLDINGROSEWOODNEATLYPUTITALLTOGETHERINITSCASEITLAYCOMPACTLY"
+        + "FOLDEDINTONEARLYNOTHINGBUTHEOPENEDOUTTHEHINGESPUSHEDANDPULLED"
+        + "THEJOINTSANDHINGESTILLITLOOKEDALLSQUARESANDOBLONGSLIKEACOMPLICATED";
+
+    /** Rotor order and settings. */
+    private static final String KEY = "* B BETA III IV I AXLE";
+
+    /** The plugboard used. */
+    private static final String PLUGBOARD = "(AD) (HT) (LS) (NO) (RU)";
+
+    /** Return the plugboard with cycles CYCLES as an array of images. */
+    private static int[] board(String cycles) {
+        int[] result = new int[26];
+        for (int x = 0; x < 26; x += 1) {
+            result[x] = x;
+        }
+        for (String pair : cycles.split(" ")) {
+            if (!pair.isEmpty()) {
+                int a = pair.charAt(1) - 'A', b = pair.charAt(2) - 'A';
+                result[a] = b;
+                result[b] = a;
+            }
+        }
+        return result;
+    }
+
+    /** Return a search of the ciphertext of PLAIN, scoring with
+     *  agreement with the first CRIBLENGTH characters of PLAIN. */
+    private static PlugboardSearch search(int cribLength) {
+        Configuration config = Configuration.read(CONFIG);
+        Machine machine = config.newMachine();
+        Configuration.setUp(machine, KEY + " " + PLUGBOARD);
+        int[] cipher = indices(machine.convert(PLAIN));
+        Configuration.setUp(machine, KEY);
+        byte[] trace = PlugboardSearch.trace(machine, cipher.length);
+        int[] crib = indices(PLAIN.substring(0, cribLength));
+        int[] weights = new int[cipher.length * 26];
+        System.arraycopy(PlugboardSearch.cribWeights(crib, 26), 0,
+                         weights, 0, crib.length * 26);
+        return new PlugboardSearch(machine.alphabet(), trace, cipher,
+                                   weights);
+    }
+
+    @Test
+    public void testRecovery() {
+        PlugboardSearch search = search(PLAIN.length());
+        assertEquals(PLAIN.length(), search.score(board(PLUGBOARD)));
+        List<PlugboardSearch.Candidate> found = search.climb(10, 20, 61, 5);
+        assertEquals(PLUGBOARD, found.get(0).plugboard());
+        assertEquals(PLAIN.length(), found.get(0).score());
+    }
+
+    @Test
+    public void testScores() {
+        PlugboardSearch search = search(40);
+        List<PlugboardSearch.Candidate> found = search.climb(10, 10, 3, 10);
+        for (int k = 0; k < found.size(); k += 1) {
+            PlugboardSearch.Candidate c = found.get(k);
+            assertEquals(search.score(board(c.plugboard())), c.score());
+            assertTrue(c.plugboard().split(" ").length <= 10);
+            if (k > 0) {
+                assertTrue(found.get(k - 1).score() >= c.score());
+            }
+        }
+    }
+}
@@ -18,6 +18,18 @@ class Rotor {
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
+        int n = perm.size();
+        _forwardByOffset = new int[n][n];
+        _backwardByOffset = new int[n][n];
+        for (int s = 0; s < n; s += 1) {
+            for (int p = 0; p < n; p += 1) {
+                _forwardByOffset[s][p] = perm.wrap(perm.permute(p + s) - s);
+                _backwardByOffset[s][p] = perm.wrap(perm.invert(p + s) - s);
+            }
+        }
+        _forward = new int[n][];
+        _backward = new int[n][];
+        setRing(0);
         set(0);
     }
 
@@ -61,6 +73,28 @@ class Rotor {
         _setting = posn;
     }
 
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Set my ring setting to RING: turn my wiring RING places back
+     *  against my alphabet ring, so that at setting S it acts as it did
+     *  at setting S - RING.  Notches, being on the alphabet ring, stay
+     *  with the settings they had.  The per-setting tables are re-pointed
+     *  here, so converting costs the same whatever the ring setting. */
+    void setRing(int ring) {
+        int n = size();
+        if (ring < 0 || ring >= n) {
+            throw error("bad ring setting");
+        }
+        _ring = ring;
+        for (int s = 0; s < n; s += 1) {
+            _forward[s] = _forwardByOffset[_permutation.wrap(s - ring)];
+            _backward[s] = _backwardByOffset[_permutation.wrap(s - ring)];
+        }
+    }
+
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
         int temp = alphabet().toInt(cposn);
@@ -70,17 +104,25 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int temp = _permutation.wrap(p + _setting);
-        int temp1 = _permutation.permute(temp);
-        return _permutation.wrap(temp1 - _setting);
+        return _forward[_setting][_permutation.wrap(p)];
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int temp = _permutation.wrap(e + _setting);
-        int temp1 = _permutation.invert(temp);
-        return _permutation.wrap(temp1 - _setting);
+        return _backward[_setting][_permutation.wrap(e)];
+    }
+
+    /** Return the table of convertForward at setting S: entry P is the
+     *  conversion of P.  The result must not be modified. */
+    int[] forwardTable(int s) {
+        return _forward[s];
+    }
+
+    /** Return the table of convertBackward at setting S: entry E is the
+     *  conversion of E.  The result must not be modified. */
+    int[] backwardTable(int s) {
+        return _backward[s];
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -89,6 +131,11 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch in setting POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -103,4 +150,23 @@ class Rotor {
 
     /** The permutation implemented by this rotor in its 0 position. */
     private Permutation _permutation;
+
+    /** My ring setting. */
+    private int _ring;
+
+    /** _forwardByOffset[S][P] is convertForward(P) at setting S with ring
+     *  setting 0. */
+    private final int[][] _forwardByOffset;
+
+    /** _backwardByOffset[S][E] is convertBackward(E) at setting S with
+     *  ring setting 0. */
+    private final int[][] _backwardByOffset;
+
+    /** _forward[S][P] is convertForward(P) at setting S (a row of
+     *  _forwardByOffset). */
+    private final int[][] _forward;
+
+    /** _backward[S][E] is convertBackward(E) at setting S (a row of
+     *  _backwardByOffset). */
+    private final int[][] _backward;
 }
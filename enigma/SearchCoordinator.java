@@ -0,0 +1,287 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static enigma.EnigmaException.*;
+
+/** The coordinator of a distributed key search (see KeySearch): it
+ *  accepts worker connections, leases shards of the key space to them,
+ *  collects their hits and reassigns shards whose leases lapse.  Each
+ *  connection is served by a thread of its own; the shard table is
+ *  guarded by the coordinator's lock.
+ *  @author William Tai
+ */
+final class SearchCoordinator implements Closeable {
+
+    /** A coordinator of the search for keys of the machine configured by
+     *  the text CONFIG under which CRIB enciphers to text agreeing with
+     *  CIPHER in at least MINMATCHES places, in shards of SHARDSIZE keys
+     *  leased for LEASEMILLIS milliseconds at a time. */
+    SearchCoordinator(String config, String crib, String cipher,
+                      int minMatches, int shardSize, long leaseMillis) {
+        _config = config.split("\\R", -1);
+        _keys = new KeySpace(Configuration.read(new Scanner(config)));
+        _crib = crib.toUpperCase().replaceAll("\\s+", "");
+        _cipher = cipher.toUpperCase().replaceAll("\\s+", "");
+        if (_crib.isEmpty()) {
+            throw error("empty crib");
+        }
+        if (_cipher.length() < _crib.length()) {
+            throw error("ciphertext is shorter than the crib");
+        }
+        for (char c : (_crib + _cipher).toCharArray()) {
+            _keys.index(c);
+        }
+        if (minMatches > _crib.length()) {
+            throw error("cannot match more characters than the crib has");
+        }
+        _minMatches = minMatches;
+        _shardSize = shardSize;
+        _leaseMillis = leaseMillis;
+        long shards = (_keys.count() + shardSize - 1) / shardSize;
+        if (shards > Integer.MAX_VALUE) {
+            throw error("too many shards; use larger ones");
+        }
+        _holders = new Object[(int) shards];
+        _expiry = new long[(int) shards];
+        _done = new boolean[(int) shards];
+        _remaining = (int) shards;
+        for (int id = 0; id < shards; id += 1) {
+            _pending.add(id);
+        }
+    }
+
+    /** Return the key space being searched. */
+    KeySpace keys() {
+        return _keys;
+    }
+
+    /** Start accepting workers on PORT (any free port if 0), and return
+     *  the port used. */
+    int start(int port) throws IOException {
+        _server = new ServerSocket(port);
+        Thread acceptor = new Thread(this::accept, "search-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return _server.getLocalPort();
+    }
+
+    /** Accept connections until my socket is closed, serving each on a new
+     *  thread. */
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = _server.accept();
+                synchronized (this) {
+                    _clients.add(socket);
+                }
+                Thread server = new Thread(() -> serve(socket),
+                                           "search-worker");
+                server.setDaemon(true);
+                server.start();
+            }
+        } catch (IOException excp) {
+            /* Closed. */
+        }
+    }
+
+    /** Wait until every shard has been searched, and return the hits:
+     *  the number of matching characters under each key found. */
+    synchronized SortedMap<Long, Integer> await()
+        throws InterruptedException {
+        while (_remaining > 0) {
+            wait();
+        }
+        return new TreeMap<>(_hits);
+    }
+
+    /** Stop accepting workers and disconnect those connected. */
+    @Override
+    public void close() throws IOException {
+        if (_server != null) {
+            _server.close();
+        }
+        synchronized (this) {
+            for (Socket socket : _clients) {
+                socket.close();
+            }
+            _clients.clear();
+        }
+    }
+
+    /** Answer the requests of the worker on SOCKET until it disconnects,
+     *  then release its leases. */
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(
+                 socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                String request = fields[0];
+                if (request.equals("HELLO")) {
+                    out.printf("JOB %d %s %s %d%n", _minMatches, _crib,
+                               _cipher, _config.length);
+                    for (String configLine : _config) {
+                        out.println(configLine);
+                    }
+                } else if (request.equals("LEASE")) {
+                    out.println(lease(socket));
+                } else if (request.equals("HIT") && fields.length == 4) {
+                    hit(Integer.parseInt(fields[1]),
+                        Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), socket);
+                } else if (request.equals("RENEW") && fields.length == 2) {
+                    renew(Integer.parseInt(fields[1]), socket);
+                } else if (request.equals("COMPLETE")
+                           && fields.length == 2) {
+                    complete(Integer.parseInt(fields[1]), socket);
+                } else {
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException | RuntimeException excp) {
+            /* Treat as a disconnection. */
+        } finally {
+            release(socket);
+        }
+    }
+
+    /** Return the reply to a LEASE request from HOLDER. */
+    private synchronized String lease(Object holder) {
+        if (_remaining == 0) {
+            return "DONE";
+        }
+        long now = System.nanoTime();
+        Integer id = _pending.poll();
+        while (id != null && _done[id]) {
+            id = _pending.poll();
+        }
+        if (id == null) {
+            for (int k = 0; k < _done.length; k += 1) {
+                if (!_done[k] && _expiry[k] - now < 0) {
+                    id = k;
+                    break;
+                }
+            }
+        }
+        if (id == null) {
+            return String.format("WAIT %d", Math.max(1, _leaseMillis / 4));
+        }
+        _holders[id] = holder;
+        _expiry[id] = now + _leaseMillis * NANOS_PER_MILLI;
+        long first = (long) id * _shardSize;
+        long count = Math.min(_shardSize, _keys.count() - first);
+        return String.format("SHARD %d %d %d %d", id, first, count,
+                             _leaseMillis);
+    }
+
+    /** Record a hit in shard ID, if HOLDER holds its lease: KEY agrees in
+     *  MATCHES places.  A worker whose lease has been given to another
+     *  is ignored; the new holder searches the whole shard again. */
+    private synchronized void hit(int id, long key, int matches,
+                                  Object holder) {
+        long first = (long) id * _shardSize;
+        if (_holders[id] == holder && key >= first
+            && key < first + _shardSize && key < _keys.count()
+            && matches >= _minMatches) {
+            _hits.put(key, matches);
+        }
+    }
+
+    /** Extend the lease of shard ID if HOLDER holds it. */
+    private synchronized void renew(int id, Object holder) {
+        if (!_done[id] && _holders[id] == holder) {
+            _expiry[id] = System.nanoTime() + _leaseMillis * NANOS_PER_MILLI;
+        }
+    }
+
+    /** Record that shard ID has been searched, if HOLDER holds its lease
+     *  (which it keeps after it lapses until the shard is leased again).
+     *  A late COMPLETE from a worker whose shard was leased to another is
+     *  ignored, so the shard is not counted done while it is still being
+     *  searched. */
+    private synchronized void complete(int id, Object holder) {
+        if (!_done[id] && _holders[id] == holder) {
+            _done[id] = true;
+            _holders[id] = null;
+            _remaining -= 1;
+            if (_remaining == 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    /** Return the unfinished shards leased by HOLDER to the pending
+     *  queue. */
+    private synchronized void release(Object holder) {
+        _clients.remove(holder);
+        for (int id = 0; id < _holders.length; id += 1) {
+            if (_holders[id] == holder && !_done[id]) {
+                _holders[id] = null;
+                _pending.addFirst(id);
+            }
+        }
+    }
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    /** Lines of the configuration file. */
+    private final String[] _config;
+
+    /** The keys searched. */
+    private final KeySpace _keys;
+
+    /** Known plaintext and intercepted ciphertext. */
+    private final String _crib, _cipher;
+
+    /** Fewest matching characters making a hit. */
+    private final int _minMatches;
+
+    /** Keys per shard. */
+    private final int _shardSize;
+
+    /** Lease duration. */
+    private final long _leaseMillis;
+
+    /** Current holder of each shard's lease, or null. */
+    private final Object[] _holders;
+
+    /** Expiry time (System.nanoTime) of each shard's lease. */
+    private final long[] _expiry;
+
+    /** Which shards have been searched. */
+    private final boolean[] _done;
+
+    /** Shards not leased since they were last released. */
+    private final ArrayDeque<Integer> _pending = new ArrayDeque<>();
+
+    /** Number of shards not yet searched. */
+    private int _remaining;
+
+    /** Hits so far: matching characters by key. */
+    private final TreeMap<Long, Integer> _hits = new TreeMap<>();
+
+    /** Connected workers. */
+    private final Set<Socket> _clients = new HashSet<>();
+
+    /** Listening socket, once started. */
+    private ServerSocket _server;
+}
@@ -0,0 +1,171 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A worker in a distributed key search (see KeySearch), which searches
+ *  the shards leased to it by a coordinator.
+ *  @author William Tai
+ */
+final class SearchWorker {
+
+    /** A worker receiving its job over IN and reporting over OUT. */
+    private SearchWorker(BufferedReader in, PrintWriter out)
+        throws IOException {
+        _in = in;
+        _out = out;
+        _out.println("HELLO");
+        _out.flush();
+        String[] job = reply().split(" ");
+        if (job.length != 5 || !job[0].equals("JOB")) {
+            throw error("unexpected reply to HELLO");
+        }
+        StringBuilder config = new StringBuilder();
+        for (int n = Integer.parseInt(job[4]); n > 0; n -= 1) {
+            config.append(reply()).append('\n');
+        }
+        Configuration conf =
+            Configuration.read(new Scanner(config.toString()));
+        _machine = conf.newMachine();
+        _keys = new KeySpace(conf);
+        _minMatches = Integer.parseInt(job[1]);
+        int[] crib = indices(job[2]), cipher = indices(job[3]);
+        _machine.insertRotors(_keys.order(0));
+        _evaluator = new CribEvaluator(_machine, crib, cipher);
+        _setting = new int[_keys.numRotors() - 1];
+        _order = -1;
+    }
+
+    /** Connect to the coordinator at HOST:PORT and search the shards it
+     *  leases until it reports that the search is over or disconnects.
+     *  Return the number of keys searched. */
+    static long run(String host, int port) {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(
+                 socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+            return new SearchWorker(in, out).work();
+        } catch (IOException excp) {
+            throw error("lost coordinator: %s", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            throw error("bad message from coordinator");
+        }
+    }
+
+    /** Lease and search shards until told the search is over, and return
+     *  the number of keys searched. */
+    private long work() throws IOException {
+        long searched = 0;
+        while (true) {
+            _out.println("LEASE");
+            _out.flush();
+            String line = _in.readLine();
+            if (line == null || line.equals("DONE")) {
+                return searched;
+            }
+            String[] fields = line.split(" ");
+            if (fields[0].equals("WAIT") && fields.length == 2) {
+                try {
+                    Thread.sleep(Long.parseLong(fields[1]));
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    return searched;
+                }
+            } else if (fields[0].equals("SHARD") && fields.length == 5) {
+                long count = Long.parseLong(fields[3]);
+                search(fields[1], Long.parseLong(fields[2]), count,
+                       Long.parseLong(fields[4]));
+                searched += count;
+            } else {
+                throw error("unexpected reply to LEASE: %s", line);
+            }
+        }
+    }
+
+    /** Search shard ID, the COUNT keys from rank FIRST in Gray-code
+     *  order (see KeySpace.graySetting), renewing its lease of LEASEMILLIS
+     *  milliseconds as needed, and report it complete. */
+    private void search(String id, long first, long count,
+                        long leaseMillis) {
+        long renewal = leaseMillis * NANOS_PER_MILLI / 2;
+        long renewed = System.nanoTime();
+        for (long rank = first; rank < first + count; rank += 1) {
+            int order = _keys.graySetting(rank, _setting);
+            if (order != _order) {
+                _order = order;
+                _machine.insertRotors(_keys.order(order));
+                _evaluator.reset();
+            }
+            int matches = _evaluator.matches(_setting);
+            if (matches >= _minMatches) {
+                _out.printf("HIT %s %d %d%n", id,
+                            _keys.key(order, _setting), matches);
+            }
+            if ((rank & RENEW_CHECK_MASK) == 0
+                && System.nanoTime() - renewed > renewal) {
+                _out.printf("RENEW %s%n", id);
+                _out.flush();
+                renewed = System.nanoTime();
+            }
+        }
+        _out.printf("COMPLETE %s%n", id);
+        _out.flush();
+    }
+
+    /** Return the next line from the coordinator. */
+    private String reply() throws IOException {
+        String line = _in.readLine();
+        if (line == null) {
+            throw error("coordinator disconnected");
+        }
+        return line;
+    }
+
+    /** Return the alphabet indices of the characters of TEXT. */
+    private int[] indices(String text) {
+        int[] result = new int[text.length()];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = _keys.index(text.charAt(k));
+        }
+        return result;
+    }
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    /** The clock is read when the low bits of a rank selected by this mask
+     *  are all zero. */
+    private static final long RENEW_CHECK_MASK = (1 << 10) - 1;
+
+    /** Messages from the coordinator. */
+    private final BufferedReader _in;
+
+    /** Messages to the coordinator. */
+    private final PrintWriter _out;
+
+    /** The machine searched. */
+    private final Machine _machine;
+
+    /** Its keys. */
+    private final KeySpace _keys;
+
+    /** Fewest matching characters making a hit. */
+    private final int _minMatches;
+
+    /** Counts the matches under each key. */
+    private final CribEvaluator _evaluator;
+
+    /** Rotor settings of the current key. */
+    private final int[] _setting;
+
+    /** Index of the rotor order inserted in _machine, or -1. */
+    private int _order;
+}
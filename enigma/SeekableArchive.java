@@ -0,0 +1,312 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** An enciphered archive of a long text from which any slice can be
+ *  deciphered without deciphering what precedes it.  The ciphertext is
+ *  kept in blocks of a fixed number of characters, one byte (alphabet
+ *  index) per character, and an index records the rotor settings at the
+ *  start of each block.  To read a slice, a reader sets its machine from
+ *  the index entry of the slice's first block, jumps to the slice with
+ *  Machine.advance, and deciphers just the slice, so the cost does not
+ *  depend on where the slice lies.
+ *
+ *  File layout (big-endian): a 40-byte preamble (magic, version, block
+ *  size, rotor slots, character count, data offset, index offset), then
+ *  the initial MachineState (its length, then its bytes), then the
+ *  ciphertext, then, for each block, the settings of the rotors in slots
+ *  1 and up as unsigned shorts.  The rotor wirings are not stored: a
+ *  reader needs the configuration the archive was written with.
+ *  @author William Tai
+ */
+public final class SeekableArchive {
+
+    /** Write or read an archive as specified by ARGS, which has one of the
+     *  forms
+     *      write [--block=N] CONFIG SETTINGS INPUT ARCHIVE
+     *      read CONFIG ARCHIVE FROM TO
+     *  The first enciphers the text in INPUT, without whitespace, on the
+     *  machine configured by CONFIG and set up by the settings line
+     *  SETTINGS, into ARCHIVE, in blocks of N characters.  The second
+     *  prints characters FROM .. TO-1 of the archived text. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 5 && args[0].equals("read")) {
+                SeekableArchive archive =
+                    open(Configuration.read(args[1]), Paths.get(args[2]));
+                System.out.println(archive.read(number(args[3]),
+                                                number(args[4])));
+                return;
+            }
+            int k = 1, block = BLOCK_SIZE;
+            if (args.length == 6 && args[k].startsWith("--block=")) {
+                block = (int) number(args[k].substring("--block=".length()));
+                k += 1;
+            }
+            if (args.length - k != 4 || !args[0].equals("write")) {
+                throw error("Usage: java enigma.SeekableArchive (write "
+                            + "[--block=N] CONFIG SETTINGS INPUT ARCHIVE | "
+                            + "read CONFIG ARCHIVE FROM TO)");
+            }
+            Machine machine = Configuration.read(args[k]).newMachine();
+            Configuration.setUp(machine, args[k + 1]);
+            write(machine, Paths.get(args[k + 2]), Paths.get(args[k + 3]),
+                  block);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the non-negative number NUM. */
+    private static long number(String num) {
+        try {
+            long result = Long.parseLong(num);
+            if (result >= 0 && result <= Integer.MAX_VALUE) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad number: %s", num);
+    }
+
+    /** Encipher the text in INPUT, ignoring whitespace and case, on
+     *  MACHINE from its current settings into the archive FILE with blocks
+     *  of BLOCKSIZE characters. */
+    static void write(Machine machine, Path input, Path file,
+                      int blockSize) {
+        Alphabet alphabet = machine.alphabet();
+        if (alphabet.size() > MAX_SIZE) {
+            throw error("alphabet too large to archive");
+        }
+        if (blockSize < 1) {
+            throw error("bad block size");
+        }
+        int slots = machine.numRotors();
+        byte[] state = machine.snapshot().toBytes();
+        long dataOffset = PREAMBLE + Integer.BYTES + state.length;
+        long length = 0;
+        ByteBuffer index = ByteBuffer.allocate(0);
+        int[] block = new int[blockSize];
+        byte[] bytes = new byte[blockSize];
+        try (BufferedReader in = Files.newBufferedReader(
+                 input, StandardCharsets.UTF_8);
+             DataOutputStream out = ExternalSort.output(file)) {
+            out.write(new byte[PREAMBLE]);
+            out.writeInt(state.length);
+            out.write(state);
+            int n = 0;
+            for (int c = in.read(); c >= 0 || n > 0; c = in.read()) {
+                if (c >= 0 && Character.isWhitespace(c)) {
+                    continue;
+                }
+                if (c >= 0) {
+                    block[n] = alphabet.toInt(Character.toUpperCase(
+                                                  (char) c));
+                    n += 1;
+                }
+                if (n == blockSize || c < 0) {
+                    if (index.remaining() < slots * Short.BYTES) {
+                        ByteBuffer bigger =
+                            ByteBuffer.allocate(2 * index.capacity()
+                                                + slots * Short.BYTES);
+                        index.flip();
+                        index = bigger.put(index);
+                    }
+                    for (int i = 1; i < slots; i += 1) {
+                        index.putShort((short) machine.rotorSetting(i));
+                    }
+                    int[] text = n == blockSize ? block
+                        : Arrays.copyOf(block, n);
+                    machine.convert(text);
+                    for (int i = 0; i < n; i += 1) {
+                        bytes[i] = (byte) text[i];
+                    }
+                    out.write(bytes, 0, n);
+                    length += n;
+                    n = 0;
+                    if (c < 0) {
+                        break;
+                    }
+                }
+            }
+            out.write(index.array(), 0, index.position());
+        } catch (IOException excp) {
+            throw error("could not write archive %s", file);
+        }
+        ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE);
+        preamble.putInt(MAGIC).putInt(VERSION).putInt(blockSize)
+            .putInt(slots).putLong(length).putLong(dataOffset)
+            .putLong(dataOffset + length).flip();
+        try (FileChannel out = FileChannel.open(file, WRITE)) {
+            out.write(preamble, 0);
+        } catch (IOException excp) {
+            throw error("could not write archive %s", file);
+        }
+    }
+
+    /** An archive of LENGTH characters in blocks of BLOCKSIZE, read with
+     *  MACHINE, whose ciphertext is mapped in SEGMENTS of SEGMENTBLOCKS
+     *  blocks each, and whose block index is INDEX. */
+    private SeekableArchive(Machine machine, int blockSize, long length,
+                            MappedByteBuffer[] segments, int segmentBlocks,
+                            MappedByteBuffer index) {
+        _machine = machine;
+        _blockSize = blockSize;
+        _length = length;
+        _segments = segments;
+        _segmentBlocks = segmentBlocks;
+        _index = index;
+        _setting = new int[machine.numRotors() - 1];
+    }
+
+    /** Return the archive in FILE, written with a machine configured by
+     *  CONFIG, mapped read-only. */
+    static SeekableArchive open(Configuration config, Path file) {
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE);
+            in.read(preamble, 0);
+            if (preamble.getInt(0) != MAGIC
+                || preamble.getInt(4) != VERSION) {
+                throw error("not an archive");
+            }
+            int blockSize = preamble.getInt(8), slots = preamble.getInt(12);
+            long length = preamble.getLong(16);
+            long dataOffset = preamble.getLong(24);
+            long indexOffset = preamble.getLong(32);
+            long blocks = (length + blockSize - 1) / blockSize;
+            long indexLength = blocks * (slots - 1) * Short.BYTES;
+            if (blockSize < 1 || indexOffset != dataOffset + length
+                || indexOffset + indexLength > in.size()
+                || indexLength > Integer.MAX_VALUE) {
+                throw error("archive %s is damaged", file);
+            }
+            ByteBuffer head = ByteBuffer.allocate(
+                (int) (dataOffset - PREAMBLE - Integer.BYTES));
+            in.read(head, PREAMBLE + Integer.BYTES);
+            Machine machine = config.newMachine();
+            MachineState state = MachineState.fromBytes(head.array());
+            if (state.rotors().length != slots) {
+                throw error("archive does not match configuration");
+            }
+            machine.restore(state);
+            int segmentBlocks = (int) Math.max(1, SEGMENT_BYTES / blockSize);
+            long segmentBytes = (long) segmentBlocks * blockSize;
+            int n = (int) ((length + segmentBytes - 1) / segmentBytes);
+            MappedByteBuffer[] segments = new MappedByteBuffer[n];
+            for (int s = 0; s < n; s += 1) {
+                long first = s * segmentBytes;
+                segments[s] = in.map(FileChannel.MapMode.READ_ONLY,
+                                     dataOffset + first,
+                                     Math.min(segmentBytes, length - first));
+            }
+            MappedByteBuffer index = in.map(FileChannel.MapMode.READ_ONLY,
+                                            indexOffset, indexLength);
+            return new SeekableArchive(machine, blockSize, length, segments,
+                                       segmentBlocks, index);
+        } catch (IOException excp) {
+            throw error("could not open archive %s", file);
+        }
+    }
+
+    /** Return the number of characters archived. */
+    long length() {
+        return _length;
+    }
+
+    /** Return the number of characters per block. */
+    int blockSize() {
+        return _blockSize;
+    }
+
+    /** Return characters FROM .. TO-1 of the archived text. */
+    synchronized String read(long from, long to) {
+        if (from < 0 || from > to || to > _length) {
+            throw error("no characters %d to %d in archive", from, to);
+        }
+        if (to - from > Integer.MAX_VALUE) {
+            throw error("slice too long");
+        }
+        long block = from / _blockSize;
+        int slots = _setting.length;
+        int entry = (int) (block * slots * Short.BYTES);
+        for (int i = 0; i < slots; i += 1) {
+            _setting[i] = Short.toUnsignedInt(
+                _index.getShort(entry + i * Short.BYTES));
+        }
+        _machine.setRotors(_setting);
+        _machine.advance(from - block * _blockSize);
+        int[] text = new int[(int) (to - from)];
+        for (int k = 0; k < text.length; k += 1) {
+            long p = from + k;
+            long b = p / _blockSize;
+            MappedByteBuffer segment = _segments[(int) (b / _segmentBlocks)];
+            int offset = (int) (p - (b - b % _segmentBlocks) * _blockSize);
+            text[k] = segment.get(offset) & BYTE_MASK;
+        }
+        _machine.convert(text);
+        Alphabet alphabet = _machine.alphabet();
+        char[] result = new char[text.length];
+        for (int k = 0; k < text.length; k += 1) {
+            result[k] = alphabet.toChar(text[k]);
+        }
+        return new String(result);
+    }
+
+    /** Leading tag of an archive file ("ENSA"). */
+    private static final int MAGIC = 0x454e5341;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Length of the fixed part of the header. */
+    private static final int PREAMBLE = 40;
+
+    /** Default characters per block. */
+    static final int BLOCK_SIZE = 1 << 12;
+
+    /** Largest alphabet whose indices fit a byte. */
+    private static final int MAX_SIZE = 256;
+
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Approximate bytes of ciphertext per mapped segment. */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    /** Machine used to decipher, set up as the archive was written. */
+    private final Machine _machine;
+
+    /** Characters per block. */
+    private final int _blockSize;
+
+    /** Characters archived. */
+    private final long _length;
+
+    /** Mapped ciphertext. */
+    private final MappedByteBuffer[] _segments;
+
+    /** Blocks per mapped segment. */
+    private final int _segmentBlocks;
+
+    /** Mapped block index. */
+    private final MappedByteBuffer _index;
+
+    /** Scratch rotor settings. */
+    private final int[] _setting;
+}
@@ -0,0 +1,69 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** Tests of seekable enciphered archives.
+ *  @author William Tai
+ */
+public class SeekableArchiveTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Settings used. */
+    private static final String SETTINGS =
+        "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    @Test
+    public void testSlices() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int k = 0; k < 5000; k += 1) {
+            text.append((char) ('A' + k * 11 % 17 % 26));
+            if (k % 60 == 59) {
+                text.append('\n');
+            } else if (k % 5 == 4) {
+                text.append(' ');
+            }
+        }
+        Path input = tempFile(), file = tempFile();
+        Files.writeString(input, text.toString().toLowerCase());
+        String plain = text.toString().replaceAll("\\s+", "");
+
+        Configuration config = Configuration.read(CONFIG);
+        Machine machine = setUpMachine(config, SETTINGS);
+        SeekableArchive.write(machine, input, file, 97);
+        Machine reference = setUpMachine(config, SETTINGS);
+        reference.convert(plain);
+        assertEquals(reference.convert("ABC"), machine.convert("ABC"));
+
+        SeekableArchive archive = SeekableArchive.open(config, file);
+        assertEquals(plain.length(), archive.length());
+        assertEquals(plain, archive.read(0, plain.length()));
+        int[][] slices = {{0, 1}, {96, 98}, {97, 97}, {1234, 1600},
+                          {4901, 5000}, {4999, 5000}};
+        for (int[] slice : slices) {
+            assertEquals(plain.substring(slice[0], slice[1]),
+                         archive.read(slice[0], slice[1]));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadSlice() throws IOException {
+        Path input = tempFile(), file = tempFile();
+        Files.writeString(input, "HELLOWORLD");
+        Configuration config = Configuration.read(CONFIG);
+        Machine machine = setUpMachine(config, SETTINGS);
+        SeekableArchive.write(machine, input, file, 4);
+        SeekableArchive.open(config, file).read(5, 11);
+    }
+}
@@ -0,0 +1,561 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** Machine sessions kept off the heap, one fixed 64-byte record each, so
+ *  that a node can hold millions of them.  A record holds everything that
+ *  distinguishes one session's machine from another's (configuration,
+ *  rotor order, positions, rings and plugboard); the machines that do the
+ *  work are per-thread and per-configuration, reloaded from a record only
+ *  when it differs from the last one they ran (beyond the positions).
+ *
+ *  A session id is the index of its record.  Records live in pages of
+ *  PAGE_RECORDS, allocated directly and on demand.  Each page is guarded
+ *  by one of a fixed set of striped locks; a session being converted is
+ *  marked busy in its record, so the conversion itself runs outside the
+ *  lock while other conversions of the same session wait.  Pages whose
+ *  sessions have all been idle for a while can be evicted: they are
+ *  written at their own offset in a spill file and their memory freed,
+ *  and they are read back on the next use of any of their sessions.
+ *
+ *  Record layout: a header (in use, busy), the time of last use (seconds
+ *  from the store's creation), configuration number, slot count and
+ *  plugboard pair count, then, for up to MAX_SLOTS slots, the rotor
+ *  numbers (indices into the configuration's rotor names), positions and
+ *  rings, then up to MAX_PAIRS plugboard pairs.  So alphabets and rotor
+ *  sets may have at most 256 members, and plugboards must be sets of
+ *  swapped pairs, as on a real machine.
+ *  @author William Tai
+ */
+final class SessionStore implements Closeable {
+
+    /** A store for up to CAPACITY sessions, evicting idle pages to the
+     *  file SPILL (created or truncated). */
+    SessionStore(long capacity, Path spill) throws IOException {
+        long pages = (capacity + PAGE_RECORDS - 1) / PAGE_RECORDS;
+        if (capacity <= 0 || pages > Integer.MAX_VALUE) {
+            throw error("bad session capacity");
+        }
+        _capacity = capacity;
+        _pages = new AtomicReferenceArray<>((int) pages);
+        _spilled = new boolean[(int) pages];
+        _spill = FileChannel.open(spill, CREATE, READ, WRITE,
+                                  TRUNCATE_EXISTING);
+        for (int i = 0; i < STRIPES; i += 1) {
+            _locks[i] = new ReentrantLock();
+            _released[i] = _locks[i].newCondition();
+        }
+    }
+
+    /** Add CONFIG to the configurations sessions may use, and return its
+     *  number. */
+    synchronized int addConfiguration(Configuration config) {
+        if (config.alphabet().size() > BYTE_LIMIT
+            || config.rotorNames().size() > BYTE_LIMIT
+            || config.numRotors() > MAX_SLOTS) {
+            throw error("configuration too large for session records");
+        }
+        if (_configs.size() >= Short.MAX_VALUE) {
+            throw error("too many configurations");
+        }
+        _configs.add(config);
+        _configArray = _configs.toArray(new Configuration[0]);
+        return _configs.size() - 1;
+    }
+
+    /** Start a session on configuration CONFIG set up from the settings
+     *  line SETTINGS, and return its id. */
+    long open(int config, String settings) {
+        Worker worker = _worker.get();
+        Machine machine = worker.machine(this, config);
+        Configuration.setUp(machine, settings);
+        worker._loaded[config] = null;
+        byte[] record = worker._record;
+        Arrays.fill(record, (byte) 0);
+        encode(configuration(config), config, machine, record);
+        long id = allocate();
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            ByteBuffer page = page(id);
+            int at = offset(id);
+            page.put(at, record);
+            page.putInt(at, IN_USE);
+            page.putInt(at + TIME, now());
+        } finally {
+            lock.unlock();
+        }
+        return id;
+    }
+
+    /** Return the conversion of MSG by the machine of session ID, whose
+     *  positions advance accordingly. */
+    String convert(long id, String msg) {
+        Worker worker = _worker.get();
+        byte[] record = worker._record;
+        acquire(id, record);
+        Machine machine;
+        String result;
+        try {
+            machine = worker.load(this, record);
+            result = machine.convert(msg);
+        } catch (RuntimeException excp) {
+            release(id, null);
+            throw excp;
+        }
+        release(id, machine);
+        return result;
+    }
+
+    /** Return a snapshot of the machine of session ID. */
+    MachineState state(long id) {
+        Worker worker = _worker.get();
+        byte[] record = worker._record;
+        acquire(id, record);
+        try {
+            return worker.load(this, record).snapshot();
+        } finally {
+            release(id, null);
+        }
+    }
+
+    /** End session ID, freeing its record for reuse. */
+    void end(long id) {
+        acquire(id, new byte[RECORD]);
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            page(id).putInt(offset(id), 0);
+            _released[stripe(id)].signalAll();
+        } finally {
+            lock.unlock();
+        }
+        synchronized (this) {
+            if (_freeCount == _free.length) {
+                _free = Arrays.copyOf(_free, 2 * _free.length + 1);
+            }
+            _free[_freeCount] = id;
+            _freeCount += 1;
+        }
+    }
+
+    /** Return the number of open sessions. */
+    synchronized long sessions() {
+        return _next - _freeCount;
+    }
+
+    /** Return the number of pages in memory. */
+    int residentPages() {
+        int result = 0;
+        for (int p = 0; p < _pages.length(); p += 1) {
+            if (_pages.get(p) != null) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Write every page in memory none of whose sessions is busy or has
+     *  been used in the last IDLESECONDS seconds to the spill file, and
+     *  free it.  Return the number of pages evicted. */
+    int evictIdle(int idleSeconds) throws IOException {
+        int now = now(), result = 0;
+        for (int p = 0; p < _pages.length(); p += 1) {
+            ReentrantLock lock = _locks[p % STRIPES];
+            lock.lock();
+            try {
+                ByteBuffer page = _pages.get(p);
+                if (page == null || !idle(page, now, idleSeconds)) {
+                    continue;
+                }
+                ByteBuffer out = page.duplicate().clear();
+                long at = (long) p * PAGE_BYTES;
+                while (out.hasRemaining()) {
+                    at += _spill.write(out, at);
+                }
+                _spilled[p] = true;
+                _pages.set(p, null);
+                result += 1;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _spill.close();
+    }
+
+    /** Return true iff no session in PAGE is busy or has been used within
+     *  IDLESECONDS seconds of NOW. */
+    private static boolean idle(ByteBuffer page, int now, int idleSeconds) {
+        for (int at = 0; at < PAGE_BYTES; at += RECORD) {
+            int header = page.getInt(at);
+            if ((header & BUSY) != 0
+                || (header & IN_USE) != 0
+                   && now - page.getInt(at + TIME) < idleSeconds) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Wait until session ID is not busy, mark it busy and used now, and
+     *  copy its record into RECORD. */
+    private void acquire(long id, byte[] record) {
+        synchronized (this) {
+            if (id < 0 || id >= _next) {
+                throw error("no session %d", id);
+            }
+        }
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            while (true) {
+                if (!stored(id)) {
+                    throw error("no session %d", id);
+                }
+                ByteBuffer page = page(id);
+                int at = offset(id);
+                int header = page.getInt(at);
+                if ((header & IN_USE) == 0) {
+                    throw error("no session %d", id);
+                }
+                if ((header & BUSY) == 0) {
+                    page.putInt(at, header | BUSY);
+                    page.putInt(at + TIME, now());
+                    page.get(at, record);
+                    return;
+                }
+                _released[stripe(id)].awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Clear the busy mark of session ID, first recording the positions
+     *  of MACHINE as its own unless MACHINE is null. */
+    private void release(long id, Machine machine) {
+        ReentrantLock lock = lock(id);
+        lock.lock();
+        try {
+            ByteBuffer page = page(id);
+            int at = offset(id);
+            if (machine != null) {
+                for (int i = 1; i < machine.numRotors(); i += 1) {
+                    page.put(at + POSITIONS + i,
+                             (byte) machine.rotorSetting(i));
+                }
+            }
+            page.putInt(at, page.getInt(at) & ~BUSY);
+            _released[stripe(id)].signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Return the id of a free record. */
+    private synchronized long allocate() {
+        if (_freeCount > 0) {
+            _freeCount -= 1;
+            return _free[_freeCount];
+        }
+        if (_next >= _capacity) {
+            throw error("session store full");
+        }
+        _next += 1;
+        return _next - 1;
+    }
+
+    /** Return true unless session ID is certainly not open: its page is
+     *  neither in memory nor spilled, or is spilled with ID not in use.
+     *  Reads only ID's header from the spill file, so looking up a missing
+     *  session does not bring its page into memory.  Must be called with
+     *  ID's lock held. */
+    private boolean stored(long id) {
+        int p = (int) (id / PAGE_RECORDS);
+        if (_pages.get(p) != null) {
+            return true;
+        }
+        if (!_spilled[p]) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        try {
+            long at = (long) p * PAGE_BYTES + offset(id);
+            while (header.hasRemaining()) {
+                if (_spill.read(header, at + header.position()) < 0) {
+                    throw error("spill file truncated");
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read spill file: %s", excp.getMessage());
+        }
+        return (header.getInt(0) & IN_USE) != 0;
+    }
+
+    /** Return the page holding session ID, reading it back from the
+     *  spill file or allocating it if it is not in memory.  Must be called
+     *  with ID's lock held. */
+    private ByteBuffer page(long id) {
+        int p = (int) (id / PAGE_RECORDS);
+        ByteBuffer page = _pages.get(p);
+        if (page == null) {
+            page = ByteBuffer.allocateDirect(PAGE_BYTES);
+            if (_spilled[p]) {
+                try {
+                    long at = (long) p * PAGE_BYTES;
+                    while (page.hasRemaining()) {
+                        int n = _spill.read(page, at);
+                        if (n < 0) {
+                            throw error("spill file truncated");
+                        }
+                        at += n;
+                    }
+                } catch (IOException excp) {
+                    throw error("could not read spill file: %s",
+                                excp.getMessage());
+                }
+                page.clear();
+                _spilled[p] = false;
+            }
+            _pages.set(p, page);
+        }
+        return page;
+    }
+
+    /** Return the offset of session ID's record in its page. */
+    private static int offset(long id) {
+        return (int) (id % PAGE_RECORDS) * RECORD;
+    }
+
+    /** Return the number of the lock stripe guarding session ID. */
+    private static int stripe(long id) {
+        return (int) (id / PAGE_RECORDS % STRIPES);
+    }
+
+    /** Return the lock guarding session ID. */
+    private ReentrantLock lock(long id) {
+        return _locks[stripe(id)];
+    }
+
+    /** Return the current time in seconds since my creation. */
+    private int now() {
+        return (int) ((System.nanoTime() - _epoch) / NANOS);
+    }
+
+    /** Return configuration number K. */
+    private Configuration configuration(int k) {
+        Configuration[] configs = _configArray;
+        if (k < 0 || k >= configs.length) {
+            throw error("no configuration %d", k);
+        }
+        return configs[k];
+    }
+
+    /** Fill RECORD with the state of MACHINE, set up from configuration
+     *  CONFIG, whose number is NUMBER. */
+    private static void encode(Configuration config, int number,
+                               Machine machine, byte[] record) {
+        List<String> names = config.rotorNames();
+        int slots = machine.numRotors();
+        ByteBuffer out = ByteBuffer.wrap(record);
+        out.putShort(CONFIG, (short) number);
+        out.put(SLOTS, (byte) slots);
+        for (int i = 0; i < slots; i += 1) {
+            out.put(ROTORS + i,
+                    (byte) names.indexOf(machine.rotor(i).name()));
+            out.put(POSITIONS + i, (byte) machine.rotorSetting(i));
+            out.put(RINGS + i, (byte) machine.rotorRing(i));
+        }
+        Permutation plugboard = machine.plugboard();
+        int pairs = 0;
+        for (int x = 0; x < plugboard.size(); x += 1) {
+            int y = plugboard.permute(x);
+            if (plugboard.permute(y) != x) {
+                throw error("plugboard must be swapped pairs");
+            }
+            if (x < y) {
+                if (pairs == MAX_PAIRS) {
+                    throw error("too many plugboard pairs");
+                }
+                out.put(PAIRS + 2 * pairs, (byte) x);
+                out.put(PAIRS + 2 * pairs + 1, (byte) y);
+                pairs += 1;
+            }
+        }
+        out.put(PAIR_COUNT, (byte) pairs);
+    }
+
+    /** Per-thread machines and scratch space. */
+    private static final class Worker {
+
+        /** Return my machine for configuration K of STORE. */
+        Machine machine(SessionStore store, int k) {
+            if (k >= _machines.length) {
+                _machines = Arrays.copyOf(_machines, k + 1);
+                _loaded = Arrays.copyOf(_loaded, k + 1);
+            }
+            if (_machines[k] == null) {
+                _machines[k] = Main.newMachine(store.configuration(k));
+            }
+            return _machines[k];
+        }
+
+        /** Return my machine for the configuration of RECORD, set up as
+         *  RECORD describes. */
+        Machine load(SessionStore store, byte[] record) {
+            ByteBuffer in = ByteBuffer.wrap(record);
+            int k = in.getShort(CONFIG);
+            Configuration config = store.configuration(k);
+            Machine machine = machine(store, k);
+            int slots = in.get(SLOTS);
+            if (!sameSetUp(_loaded[k], record)) {
+                _loaded[k] = null;
+                Alphabet alpha = config.alphabet();
+                List<String> names = config.rotorNames();
+                String[] order = new String[slots];
+                char[] rings = new char[slots - 1];
+                for (int i = 0; i < slots; i += 1) {
+                    order[i] = names.get(in.get(ROTORS + i) & BYTE_MASK);
+                    if (i > 0) {
+                        rings[i - 1] =
+                            alpha.toChar(in.get(RINGS + i) & BYTE_MASK);
+                    }
+                }
+                machine.insertRotors(order);
+                machine.setRings(new String(rings));
+                StringBuilder cycles = new StringBuilder();
+                for (int j = 0; j < in.get(PAIR_COUNT); j += 1) {
+                    cycles.append('(')
+                        .append(alpha.toChar(in.get(PAIRS + 2 * j)
+                                             & BYTE_MASK))
+                        .append(alpha.toChar(in.get(PAIRS + 2 * j + 1)
+                                             & BYTE_MASK))
+                        .append(") ");
+                }
+                machine.setPlugboard(new Permutation(cycles.toString(),
+                                                     alpha));
+                _loaded[k] = record.clone();
+            }
+            for (int i = 1; i < slots; i += 1) {
+                _positions[i - 1] = in.get(POSITIONS + i) & BYTE_MASK;
+            }
+            machine.setRotors(_positions);
+            return machine;
+        }
+
+        /** Return true iff records A and B describe the same set-up,
+         *  ignoring positions and header.  A may be null. */
+        private static boolean sameSetUp(byte[] a, byte[] b) {
+            return a != null
+                && Arrays.equals(a, CONFIG, POSITIONS, b, CONFIG, POSITIONS)
+                && Arrays.equals(a, RINGS, RECORD, b, RINGS, RECORD);
+        }
+
+        /** Machines by configuration number. */
+        private Machine[] _machines = new Machine[0];
+
+        /** The record each machine was last set up from, or null. */
+        private byte[][] _loaded = new byte[0][];
+
+        /** Scratch record. */
+        private final byte[] _record = new byte[RECORD];
+
+        /** Scratch rotor positions. */
+        private final int[] _positions = new int[MAX_SLOTS];
+    }
+
+    /** Bytes per session record. */
+    static final int RECORD = 64;
+
+    /** Records per page. */
+    static final int PAGE_RECORDS = 1024;
+
+    /** Bytes per page. */
+    private static final int PAGE_BYTES = PAGE_RECORDS * RECORD;
+
+    /** Number of lock stripes. */
+    private static final int STRIPES = 64;
+
+    /** Most rotor slots in a record. */
+    static final int MAX_SLOTS = 8;
+
+    /** Most plugboard pairs in a record. */
+    static final int MAX_PAIRS = 13;
+
+    /** Most values in a byte field. */
+    private static final int BYTE_LIMIT = 256;
+
+    /** Mask giving the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Header bits. */
+    private static final int IN_USE = 1, BUSY = 2;
+
+    /** Record field offsets. */
+    private static final int TIME = 4, CONFIG = 8, SLOTS = 10,
+        PAIR_COUNT = 11, ROTORS = 12, POSITIONS = ROTORS + MAX_SLOTS,
+        RINGS = POSITIONS + MAX_SLOTS, PAIRS = RINGS + MAX_SLOTS;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS = 1_000_000_000L;
+
+    /** Most sessions. */
+    private final long _capacity;
+
+    /** Pages in memory, or null for pages never used or spilled. */
+    private final AtomicReferenceArray<ByteBuffer> _pages;
+
+    /** True for each page that is in the spill file and not in memory
+     *  (guarded by the page's lock). */
+    private final boolean[] _spilled;
+
+    /** The spill file. */
+    private final FileChannel _spill;
+
+    /** Lock stripes, by page modulo STRIPES. */
+    private final ReentrantLock[] _locks = new ReentrantLock[STRIPES];
+
+    /** Signalled when a session guarded by the corresponding lock stops
+     *  being busy. */
+    private final Condition[] _released = new Condition[STRIPES];
+
+    /** Configurations, by number. */
+    private final ArrayList<Configuration> _configs = new ArrayList<>();
+
+    /** Snapshot of _configs for lock-free reads. */
+    private volatile Configuration[] _configArray = new Configuration[0];
+
+    /** Ids freed by close, in _free[0 .. _freeCount-1]. */
+    private long[] _free = new long[0];
+
+    /** Number of free ids. */
+    private int _freeCount;
+
+    /** Ids below this have been handed out. */
+    private long _next;
+
+    /** Time of creation. */
+    private final long _epoch = System.nanoTime();
+
+    /** Each thread's machines. */
+    private final ThreadLocal<Worker> _worker =
+        ThreadLocal.withInitial(Worker::new);
+}
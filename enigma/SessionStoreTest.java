@@ -0,0 +1,136 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the off-heap session store.
+ *  @author William Tai
+ */
+public class SessionStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /** Rotor orders used. */
+    private static final String[] ORDERS = {
+        "B BETA III IV I", "C GAMMA I II V", "B BETA VIII VI VII",
+    };
+
+    /** Return the settings line of session K. */
+    private static String settings(int k) {
+        String setting = "" + (char) ('A' + k % 26) + (char) ('A' + k / 26 % 26)
+            + "XY";
+        return "* " + ORDERS[k % ORDERS.length] + " " + setting
+            + (k % 2 == 0 ? " AAAB" : "") + (k % 3 == 0 ? " (AB) (CD)" : "");
+    }
+
+    @Test
+    public void testSessions() throws IOException {
+        Configuration config = Configuration.read(CONFIG);
+        int n = 3 * SessionStore.PAGE_RECORDS + 5;
+        try (SessionStore store = new SessionStore(n + 10, tempFile())) {
+            int c = store.addConfiguration(config);
+            long[] ids = new long[n];
+            Machine[] machines = new Machine[n];
+            for (int k = 0; k < n; k += 1) {
+                ids[k] = store.open(c, settings(k));
+                machines[k] = setUpMachine(config, settings(k));
+            }
+            assertEquals(n, store.sessions());
+            assertEquals(4, store.residentPages());
+            for (int round = 0; round < 3; round += 1) {
+                for (int k = 0; k < n; k += 7) {
+                    String msg = "HELLOWORLD".substring(0, 1 + k % 10);
+                    assertEquals(machines[k].convert(msg),
+                                 store.convert(ids[k], msg));
+                }
+                assertEquals(4, store.evictIdle(0));
+                assertEquals(0, store.residentPages());
+            }
+            MachineState state = store.state(ids[12]);
+            assertEquals("B", state.rotors()[0]);
+            assertEquals(machines[12].rotorSetting(4), state.position(4));
+            assertEquals(1, state.ring(4));
+
+            store.end(ids[3]);
+            assertEquals(n - 1, store.sessions());
+            try {
+                store.convert(ids[3], "A");
+                fail("ended session converted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            assertEquals(ids[3], store.open(c, settings(1)));
+        }
+    }
+
+    @Test
+    public void testMissingSessions() throws IOException {
+        Configuration config = Configuration.read(CONFIG);
+        int n = SessionStore.PAGE_RECORDS;
+        try (SessionStore store = new SessionStore(4 * n, tempFile())) {
+            int c = store.addConfiguration(config);
+            long first = store.open(c, settings(0)),
+                second = store.open(c, settings(1));
+            long[] probes = {-1, second + 1, n, 3 * n + 1, 4 * n, 9 * n};
+            for (long id : probes) {
+                try {
+                    store.state(id);
+                    fail("missing session " + id + " found");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+            assertEquals(1, store.residentPages());
+
+            store.end(first);
+            assertEquals(1, store.evictIdle(0));
+            try {
+                store.convert(first, "A");
+                fail("ended session converted");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            assertEquals(0, store.residentPages());
+            assertEquals(setUpMachine(config, settings(1)).convert("HELLO"),
+                         store.convert(second, "HELLO"));
+            assertEquals(1, store.residentPages());
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Configuration config = Configuration.read(CONFIG);
+        try (SessionStore store = new SessionStore(100, tempFile())) {
+            int c = store.addConfiguration(config);
+            long id = store.open(c, settings(4));
+            store.open(c, settings(5));
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t += 1) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 200; i += 1) {
+                        store.convert(id, "ABCDE");
+                        store.convert(1 - id, "A");
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Machine machine = setUpMachine(config, settings(4));
+            machine.advance(4 * 200 * 5);
+            MachineState state = store.state(id);
+            for (int i = 1; i < 5; i += 1) {
+                assertEquals(machine.rotorSetting(i), state.position(i));
+            }
+        }
+    }
+}
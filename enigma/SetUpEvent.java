@@ -0,0 +1,31 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event marking one settings line applied to a machine.
+ *  The package's events (category Enigma) are off by default, and cost
+ *  next to nothing then; turn them on when recording with, for example,
+ *      -XX:StartFlightRecording:+enigma.SetUp#enabled=true,
+ *          +enigma.Message#enabled=true,filename=enigma.jfr
+ *  or the same settings in a .jfc file.
+ *  @author William Tai
+ */
+@Name("enigma.SetUp")
+@Label("Machine Set Up")
+@Category("Enigma")
+@Description("A settings line applied to a machine")
+@Enabled(false)
+class SetUpEvent extends jdk.jfr.Event {
+
+    /** Rotor order, reflector first. */
+    @Label("Rotor Order")
+    String rotors;
+
+    /** Number of plugboard cycles. */
+    @Label("Plugboard Size")
+    int plugboardSize;
+}
@@ -0,0 +1,397 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A soak and load harness for Main.  It generates synthetic input from a
+ *  configuration's rotor set (settings lines with random rotor orders,
+ *  settings and plugboards, each followed by a run of messages of mixed
+ *  lengths), and feeds it, a batch at a time, through Main.process until
+ *  the time runs out.  The time between successive output lines is taken
+ *  as the latency of the message that produced the line, which includes
+ *  reading it and any settings line before it.  Allocation is counted by
+ *  the thread's allocated bytes, and collections by the garbage
+ *  collectors' totals, both over the measured period only (not the
+ *  warm-up, and not the generation of input).
+ *  @author William Tai
+ */
+public final class Soak {
+
+    /** Run the harness as specified by ARGS, which has the form
+     *      [--seconds=N] [--warmup=N] [--seed=S] CONFIG RESULTS
+     *  for N seconds (default 60) after N seconds of warm-up (default 5),
+     *  on input generated from CONFIG with random seed S, writing the
+     *  results to the file RESULTS as a JSON object and a summary to the
+     *  standard output. */
+    public static void main(String... args) {
+        try {
+            long seconds = SECONDS, warmup = WARMUP, seed = 0;
+            int k;
+            for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+                String arg = args[k];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--seconds=")) {
+                    seconds = number(value);
+                } else if (arg.startsWith("--warmup=")) {
+                    warmup = number(value);
+                } else if (arg.startsWith("--seed=")) {
+                    seed = number(value);
+                } else {
+                    throw error("unknown option: %s", arg);
+                }
+            }
+            if (args.length - k != 2) {
+                throw error("Usage: java enigma.Soak [--seconds=N] "
+                            + "[--warmup=N] [--seed=S] CONFIG RESULTS");
+            }
+            Soak soak = new Soak(Configuration.read(args[k]), seed);
+            String results = soak.run(warmup * NANOS, seconds * NANOS)
+                .toJson(args[k]);
+            Files.writeString(Paths.get(args[k + 1]), results);
+            System.out.print(results);
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: could not write results: %s%n",
+                              excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the non-negative number NUM. */
+    private static long number(String num) {
+        try {
+            long result = Long.parseLong(num);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad number: %s", num);
+    }
+
+    /** A harness for CONFIG generating input with random SEED. */
+    Soak(Configuration config, long seed) {
+        _config = config;
+        _orders = config.rotorOrders();
+        _random = new Random(seed);
+        if (_orders.isEmpty()) {
+            throw error("configuration has no rotor orders");
+        }
+    }
+
+    /** Return a batch of input for Main with MESSAGES message lines. */
+    String corpus(int messages) {
+        Alphabet alpha = _config.alphabet();
+        StringBuilder result = new StringBuilder();
+        int run = 0;
+        for (int m = 0; m < messages; m += 1) {
+            if (run == 0) {
+                settings(result);
+                run = 1 + _random.nextInt(MAX_RUN);
+            }
+            run -= 1;
+            int roll = _random.nextInt(100), len;
+            if (roll < SHORT_PERCENT) {
+                len = 1 + _random.nextInt(SHORT);
+            } else if (roll < SHORT_PERCENT + MEDIUM_PERCENT) {
+                len = SHORT + _random.nextInt(MEDIUM - SHORT);
+            } else {
+                len = MEDIUM + _random.nextInt(LONG - MEDIUM);
+            }
+            boolean lower = _random.nextInt(4) == 0;
+            for (int i = 0; i < len; i += 1) {
+                if (i > 0 && i % GROUP == 0) {
+                    result.append(' ');
+                }
+                char c = alpha.toChar(_random.nextInt(alpha.size()));
+                result.append(lower ? Character.toLowerCase(c) : c);
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Append a random settings line to OUT. */
+    private void settings(StringBuilder out) {
+        Alphabet alpha = _config.alphabet();
+        out.append('*');
+        for (String name : _orders.get(_random.nextInt(_orders.size()))) {
+            out.append(' ').append(name);
+        }
+        out.append(' ');
+        for (int i = 1; i < _config.numRotors(); i += 1) {
+            out.append(alpha.toChar(_random.nextInt(alpha.size())));
+        }
+        int[] letters = new int[alpha.size()];
+        for (int i = 0; i < letters.length; i += 1) {
+            letters[i] = i;
+        }
+        int pairs = _random.nextInt(Math.min(MAX_PAIRS, alpha.size() / 2)
+                                    + 1);
+        for (int i = 0; i < 2 * pairs; i += 1) {
+            int j = i + _random.nextInt(letters.length - i);
+            int t = letters[i];
+            letters[i] = letters[j];
+            letters[j] = t;
+        }
+        for (int i = 0; i < 2 * pairs; i += 2) {
+            out.append(" (").append(alpha.toChar(letters[i]))
+                .append(alpha.toChar(letters[i + 1])).append(')');
+        }
+        out.append('\n');
+    }
+
+    /** Run batches through Main for WARMUP nanoseconds unmeasured and then
+     *  for DURATION nanoseconds measured, and return the measurements. */
+    Result run(long warmup, long duration) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Result result = new Result();
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < warmup) {
+            batch(corpus(BATCH), null);
+        }
+        long gcCount = -gcCount(), gcMillis = -gcMillis();
+        long elapsed = 0;
+        while (elapsed < duration) {
+            byte[] input = corpus(BATCH).getBytes(StandardCharsets.UTF_8);
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long begin = System.nanoTime();
+            batch(input, result);
+            elapsed += System.nanoTime() - begin;
+            result._allocated +=
+                threads.getThreadAllocatedBytes(thread) - allocated;
+        }
+        result._nanos = elapsed;
+        result._gcCount = gcCount + gcCount();
+        result._gcMillis = gcMillis + gcMillis();
+        return result;
+    }
+
+    /** Run INPUT through Main, adding its measurements to RESULT unless it
+     *  is null. */
+    private void batch(String input, Result result) {
+        batch(input.getBytes(StandardCharsets.UTF_8), result);
+    }
+
+    /** Run INPUT through Main, adding its measurements to RESULT unless it
+     *  is null. */
+    private void batch(byte[] input, Result result) {
+        Timer timer = new Timer(result);
+        new Main(_config, new LineInput(new ByteArrayInputStream(input)),
+                 new PrintStream(timer)).process();
+    }
+
+    /** Return the total number of collections so far. */
+    private static long gcCount() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionCount());
+        }
+        return result;
+    }
+
+    /** Return the total milliseconds spent in collections so far. */
+    private static long gcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** Output for Main that discards what it is given, recording the time
+     *  since the last line ended as each line ends, and counting the
+     *  message letters (everything but spaces and line ends). */
+    private static final class Timer extends OutputStream {
+
+        /** A timer adding latencies to RESULT, if not null. */
+        Timer(Result result) {
+            _result = result;
+            _last = System.nanoTime();
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                ended();
+            } else if (b > ' ' && _result != null) {
+                _result._characters += 1;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i += 1) {
+                write(b[i]);
+            }
+        }
+
+        /** Record the end of a line. */
+        private void ended() {
+            long now = System.nanoTime();
+            if (_result != null) {
+                _result.latency(now - _last);
+            }
+            _last = now;
+        }
+
+        /** Where latencies go, or null. */
+        private final Result _result;
+
+        /** Time the last line ended. */
+        private long _last;
+    }
+
+    /** Measurements of a run. */
+    static final class Result {
+
+        /** Record a message that took NANOS nanoseconds. */
+        private void latency(long nanos) {
+            if (_messages == _latencies.length) {
+                _latencies = Arrays.copyOf(_latencies,
+                                           2 * _latencies.length);
+            }
+            _latencies[_messages] = nanos;
+            _messages += 1;
+            _sorted = false;
+        }
+
+        /** Return the number of messages processed. */
+        int messages() {
+            return _messages;
+        }
+
+        /** Return the number of message letters converted. */
+        long characters() {
+            return _characters;
+        }
+
+        /** Return the number of message letters converted per second. */
+        double charsPerSecond() {
+            return _nanos == 0 ? 0 : _characters * (double) NANOS / _nanos;
+        }
+
+        /** Return the latency in nanoseconds at or below which a fraction
+         *  P of messages fall. */
+        long percentile(double p) {
+            if (_messages == 0) {
+                return 0;
+            }
+            if (!_sorted) {
+                Arrays.sort(_latencies, 0, _messages);
+                _sorted = true;
+            }
+            int k = (int) Math.ceil(p * _messages) - 1;
+            return _latencies[Math.max(0, Math.min(_messages - 1, k))];
+        }
+
+        /** Return the bytes allocated per second by the measured thread. */
+        double allocationRate() {
+            return _nanos == 0 ? 0 : _allocated * (double) NANOS / _nanos;
+        }
+
+        /** Return these results as a JSON object, naming the configuration
+         *  CONFIG. */
+        String toJson(String config) {
+            return String.format(Locale.ROOT, "{%n"
+                + "  \"config\": \"%s\",%n"
+                + "  \"java\": \"%s\",%n"
+                + "  \"seconds\": %.3f,%n"
+                + "  \"messages\": %d,%n"
+                + "  \"characters\": %d,%n"
+                + "  \"charsPerSecond\": %.1f,%n"
+                + "  \"latencyNanos\": {\"p50\": %d, \"p90\": %d, "
+                + "\"p99\": %d, \"p999\": %d, \"max\": %d},%n"
+                + "  \"allocatedBytes\": %d,%n"
+                + "  \"allocatedBytesPerSecond\": %.1f,%n"
+                + "  \"allocatedBytesPerChar\": %.2f,%n"
+                + "  \"gcCount\": %d,%n"
+                + "  \"gcMillis\": %d%n"
+                + "}%n",
+                config.replace("\\", "\\\\").replace("\"", "\\\""),
+                System.getProperty("java.version"),
+                _nanos / (double) NANOS, _messages, _characters,
+                charsPerSecond(), percentile(.5), percentile(.9),
+                percentile(.99), percentile(.999), percentile(1),
+                _allocated, allocationRate(),
+                _characters == 0 ? 0 : _allocated / (double) _characters,
+                _gcCount, _gcMillis);
+        }
+
+        /** Message latencies in nanoseconds, in order of arrival until
+         *  sorted. */
+        private long[] _latencies = new long[BATCH];
+
+        /** True iff _latencies is sorted. */
+        private boolean _sorted;
+
+        /** Messages processed. */
+        private int _messages;
+
+        /** Message letters converted. */
+        private long _characters;
+
+        /** Nanoseconds measured. */
+        private long _nanos;
+
+        /** Bytes allocated by the measured thread. */
+        private long _allocated;
+
+        /** Collections and milliseconds collecting. */
+        private long _gcCount, _gcMillis;
+    }
+
+    /** Default measured and warm-up seconds. */
+    private static final long SECONDS = 60, WARMUP = 5;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS = 1_000_000_000L;
+
+    /** Message lines per batch. */
+    static final int BATCH = 2000;
+
+    /** Most messages after one settings line. */
+    private static final int MAX_RUN = 20;
+
+    /** Most plugboard pairs. */
+    private static final int MAX_PAIRS = 13;
+
+    /** Upper bounds of short, medium and long message lengths. */
+    private static final int SHORT = 100, MEDIUM = 2000, LONG = 20000;
+
+    /** Percent of messages that are short and medium. */
+    private static final int SHORT_PERCENT = 70, MEDIUM_PERCENT = 25;
+
+    /** Letters per input group. */
+    private static final int GROUP = 5;
+
+    /** The configuration whose rotors are used. */
+    private final Configuration _config;
+
+    /** Its rotor orders. */
+    private final List<String[]> _orders;
+
+    /** Source of random input. */
+    private final Random _random;
+}
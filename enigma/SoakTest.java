@@ -0,0 +1,55 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the soak harness.
+ *  @author William Tai
+ */
+public class SoakTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    @Test
+    public void testCorpus() {
+        Soak soak = new Soak(Configuration.read(CONFIG), 1);
+        String corpus = soak.corpus(100);
+        assertTrue(corpus.startsWith("* "));
+        assertTrue(corpus.split("\n").length > 100);
+        assertEquals(corpus, new Soak(Configuration.read(CONFIG), 1)
+                     .corpus(100));
+    }
+
+    @Test
+    public void testRun() {
+        Soak soak = new Soak(Configuration.read(CONFIG), 2);
+        Soak.Result result = soak.run(0, 200_000_000L);
+        assertTrue(result.messages() >= Soak.BATCH);
+        assertTrue(result.charsPerSecond() > 0);
+        assertTrue(result.percentile(.5) <= result.percentile(.99));
+        assertTrue(result.percentile(.99) <= result.percentile(1));
+        assertTrue(result.allocationRate() > 0);
+        String json = result.toJson(CONFIG);
+        assertTrue(json.contains("\"messages\": " + result.messages()));
+        assertTrue(json.contains("\"p99\": "));
+    }
+
+    @Test
+    public void testCharacters() {
+        Configuration config = Configuration.read(CONFIG);
+        long letters = 0;
+        for (String line : new Soak(config, 3).corpus(Soak.BATCH)
+                 .split("\n")) {
+            if (!line.startsWith("*")) {
+                letters += line.replaceAll("[^A-Za-z]", "").length();
+            }
+        }
+        assertEquals(letters, new Soak(config, 3).run(0, 1).characters());
+    }
+}
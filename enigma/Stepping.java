@@ -0,0 +1,72 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A rule for how a machine's rotors move when a key is pressed.  A
+ *  Stepping is built for one rotor order and works on an array of rotor
+ *  settings indexed by slot (slot 0, the reflector, never moves).
+ *  Implementations must not allocate in step or advance.
+ *
+ *  A configuration selects one with a "stepping=SPEC" token after its
+ *  pawl count, where SPEC is
+ *      enigma           notched stepping with the double step (default);
+ *      odometer         each rotor moves once per revolution of the rotor
+ *                       to its right, ignoring notches;
+ *      multinotch       each rotor moves when the rotor to its right
+ *                       leaves any of its notches, without a double step
+ *                       (Typex style);
+ *      gear[:R1,R2,..]  each moving rotor, counting from the right,
+ *                       advances R1, R2, ... positions per key press
+ *                       (default 1, 2, 3, ...).
+ *  @author William Tai
+ */
+interface Stepping {
+
+    /** Default SPEC. */
+    String DEFAULT = "enigma";
+
+    /** Advance POSITIONS as for one key press. */
+    void step(int[] positions);
+
+    /** Advance POSITIONS as for N key presses, N >= 0, in time that does
+     *  not grow in proportion to N where the rule allows it. */
+    void advance(int[] positions, long n);
+
+    /** Return the SPEC that selects me. */
+    String spec();
+
+    /** Throw an EnigmaException unless SPEC names a stepping rule. */
+    static void check(String spec) {
+        String name = spec.split(":", 2)[0];
+        switch (name) {
+        case "enigma":
+        case "odometer":
+        case "multinotch":
+            if (!name.equals(spec)) {
+                throw error("stepping %s takes no parameters", name);
+            }
+            break;
+        case "gear":
+            GearStepping.ratios(spec, 0);
+            break;
+        default:
+            throw error("unknown stepping: %s", spec);
+        }
+    }
+
+    /** Return the rule named by SPEC for the rotors ROTORS, in slot
+     *  order. */
+    static Stepping create(String spec, Rotor[] rotors) {
+        check(spec);
+        switch (spec.split(":", 2)[0]) {
+        case "odometer":
+            return NotchStepping.odometer(rotors);
+        case "multinotch":
+            return NotchStepping.multinotch(rotors);
+        case "gear":
+            return new GearStepping(spec, rotors);
+        default:
+            return new EnigmaStepping(rotors);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Scanner;
+
+/** Tests of the stepping rules.
+ *  @author William Tai
+ */
+public class SteppingTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** A configuration over A-F with two fixed and three moving rotors,
+     *  whose header is followed by HEADER. */
+    private static Configuration config(String header) {
+        return Configuration.read(new Scanner(
+            "A-F 5 3 " + header
+            + " R R (AB) (CD) (EF)"
+            + " F N (ABC)"
+            + " X MBE (AFB) (CE)"
+            + " Y MA (ABCDEF)"
+            + " Z MCF (AD) (BC)"));
+    }
+
+    /** Check that STEPPING's advance agrees with repeated step from
+     *  every setting of the rotors in slots 2-4. */
+    private void checkAdvance(Stepping stepping) {
+        for (int start = 0; start < 6 * 6 * 6; start += 1) {
+            int[] stepped = {0, 2, start / 36, start / 6 % 6, start % 6};
+            int[] jumped = stepped.clone();
+            for (int n = 0; n < 100; n += 7) {
+                for (int k = 0; k < 7; k += 1) {
+                    stepping.step(stepped);
+                }
+                stepping.advance(jumped, 7);
+                assertArrayEquals(stepping.spec() + " from " + start,
+                                  stepped, jumped);
+            }
+        }
+        int[] far = {0, 2, 1, 3, 5};
+        int[] near = far.clone();
+        stepping.advance(far, 1000003);
+        for (int k = 0; k < 1000003; k += 1) {
+            stepping.step(near);
+        }
+        assertArrayEquals(stepping.spec(), near, far);
+    }
+
+    @Test
+    public void testJumpAhead() {
+        String[] specs = {"enigma", "odometer", "multinotch", "gear:1,5,2"};
+        for (String spec : specs) {
+            Machine machine = config("stepping=" + spec).newMachine();
+            Configuration.setUp(machine, "* R F X Y Z AAAA");
+            checkAdvance(machine.stepping());
+        }
+    }
+
+    @Test
+    public void testOdometer() {
+        Machine machine = config("stepping=odometer").newMachine();
+        Configuration.setUp(machine, "* R F X Y Z AAEF");
+        int[] pos = {0, 0, 0, 4, 5};
+        machine.stepping().step(pos);
+        assertArrayEquals(new int[] {0, 0, 0, 5, 0}, pos);
+        machine.stepping().step(pos);
+        assertArrayEquals(new int[] {0, 0, 0, 5, 1}, pos);
+        machine.stepping().advance(pos, 5);
+        assertArrayEquals(new int[] {0, 0, 1, 0, 0}, pos);
+    }
+
+    @Test
+    public void testMachineAdvance() {
+        Machine stepped = config("").newMachine();
+        Machine jumped = config("").newMachine();
+        Configuration.setUp(stepped, "* R F X Y Z ABCD (AE)");
+        Configuration.setUp(jumped, "* R F X Y Z ABCD (AE)");
+        for (int k = 0; k < 500; k += 1) {
+            stepped.step();
+        }
+        jumped.advance(500);
+        assertEquals(stepped.convert("ABCDEFFEDCBA"),
+                     jumped.convert("ABCDEFFEDCBA"));
+    }
+
+    @Test
+    public void testCompiledGear() {
+        Machine plain = config("stepping=gear:3,1,1").newMachine();
+        Machine compiled = config("stepping=gear:3,1,1").newMachine();
+        compiled.setCompiledEngine(true);
+        Configuration.setUp(plain, "* R F X Y Z ABCD (AE)");
+        Configuration.setUp(compiled, "* R F X Y Z ABCD (AE)");
+        char[] msg = new char[500];
+        Arrays.fill(msg, 'C');
+        assertEquals(plain.convert(new String(msg)),
+                     compiled.convert(new String(msg)));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testUnknownStepping() {
+        config("stepping=hebern");
+    }
+}
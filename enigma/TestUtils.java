@@ -1,5 +1,12 @@
 package enigma;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -18,6 +25,70 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return PATH, a path relative to the project root, as a path that
+     *  works from any working directory.  The root is the system property
+     *  project.root if it is set, and otherwise the classpath root from
+     *  which this class was loaded (the project root under make unit). */
+    static String project(String path) {
+        String root = System.getProperty("project.root");
+        if (root == null) {
+            try {
+                root = Paths.get(TestUtils.class.getProtectionDomain()
+                                 .getCodeSource().getLocation().toURI())
+                    .toString();
+            } catch (URISyntaxException excp) {
+                throw new IllegalStateException(excp);
+            }
+        }
+        return Paths.get(root, path).normalize().toString();
+    }
+
+    /** Configuration file of the correct-output tests. */
+    static final String CONFIG = project("testing/correct/default.conf");
+
+    /** Return a new machine for CONFIG set up from the settings line
+     *  SETTINGS. */
+    static Machine setUpMachine(Configuration config, String settings) {
+        Machine machine = config.newMachine();
+        Configuration.setUp(machine, settings);
+        return machine;
+    }
+
+    /** Return a five-slot machine with fresh copies of the naval rotors
+     *  B, Beta, I, II and III, none of them yet inserted. */
+    static Machine navalMachine() {
+        Rotor[] rotors = {
+            new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)),
+            new FixedRotor("Beta",
+                           new Permutation(NAVALA.get("Beta"), UPPER)),
+            new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                            "Q"),
+            new MovingRotor("II", new Permutation(NAVALA.get("II"), UPPER),
+                            "E"),
+            new MovingRotor("III",
+                            new Permutation(NAVALA.get("III"), UPPER), "V"),
+        };
+        return new Machine(UPPER, 5, 3,
+                           new ArrayList<>(Arrays.asList(rotors)));
+    }
+
+    /** Return the indices of the letters of TEXT in an alphabet starting
+     *  at 'A'. */
+    static int[] indices(String text) {
+        int[] result = new int[text.length()];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = text.charAt(k) - 'A';
+        }
+        return result;
+    }
+
+    /** Return a new empty temporary file that is deleted on exit. */
+    static Path tempFile() throws IOException {
+        File file = File.createTempFile("enigma", ".tmp");
+        file.deleteOnExit();
+        return file.toPath();
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
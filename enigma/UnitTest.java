@@ -12,7 +12,17 @@ public class UnitTest {
 
     public static void main(String[] ignored) {
         textui.runClasses(PermutationTest.class, MovingRotorTest.class,
-                MoreEnigmaTests.class, Integration.class);
+                MoreEnigmaTests.class, Integration.class,
+                MachineStateTest.class, CodebookTest.class,
+                SteppingTest.class, DepthSearchTest.class,
+                CribIndexTest.class, CycleCatalogueTest.class,
+                KeySearchTest.class, CribEvaluatorTest.class,
+                PlugboardSearchTest.class, NgramTableTest.class,
+                SeekableArchiveTest.class, PackedCodecTest.class,
+                CipherProcessorTest.class, ConfigRegistryTest.class,
+                SoakTest.class, CascadeTest.class,
+                SessionStoreTest.class, MessageSchedulerTest.class,
+                BatchTest.class, KeystreamSpliteratorTest.class);
     }
 }
 